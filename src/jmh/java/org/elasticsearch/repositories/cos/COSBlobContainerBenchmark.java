@@ -0,0 +1,205 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobMetaData;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the blob container operations used by snapshots and restores against a
+ * {@link COSHttpFixture} with configurable latency and bandwidth. Besides operations per second, every benchmark that
+ * moves blob content reports the {@code bytes} it transferred per second. Run with {@code gradle jmh}, which also
+ * enables the gc profiler to report allocation rates.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class COSBlobContainerBenchmark {
+
+    private static final String BUCKET = "bucket-1250000000";
+    private static final int SMALL_BLOB_SIZE = 1024 * 1024;
+    private static final int LARGE_BLOB_SIZE = 24 * 1024 * 1024;
+    private static final int DELETE_BATCH_SIZE = 100;
+
+    /** Latency the fixture adds to every request. */
+    @Param({"0", "5"})
+    public long latencyMillis;
+
+    /** Bandwidth of every connection to the fixture in bytes per second, {@code 0} for no limit. */
+    @Param({"0", "104857600"})
+    public long bandwidth;
+
+    /** Number of blobs in the container that is listed. */
+    @Param({"1000"})
+    public int listedBlobs;
+
+    private COSHttpFixture fixture;
+    private ThreadPool threadPool;
+    private COSService service;
+    private COSBlobStore blobStore;
+    private BlobContainer writeContainer;
+    private BlobContainer readContainer;
+    private BlobContainer listContainer;
+    private BlobContainer deleteContainer;
+    private byte[] smallBlob;
+    private byte[] largeBlob;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new COSHttpFixture(BUCKET);
+        threadPool = new ThreadPool(Settings.builder().put("node.name", "benchmark").build());
+        service = new COSService(Settings.EMPTY);
+        final Settings settings = Settings.builder()
+                .put(COSClientSettings.ACCESS_KEY_ID.getKey(), "access_key_id")
+                .put(COSClientSettings.ACCESS_KEY_SECRET.getKey(), "access_key_secret")
+                .put(COSClientSettings.REGION.getKey(), "ap-guangzhou")
+                .put(COSClientSettings.BUCKET.getKey(), BUCKET)
+                .put(COSClientSettings.ENDPOINT_OVERRIDE.getKey(), fixture.address())
+                .put(COSClientSettings.PROTOCOL.getKey(), "http")
+                .put(COSClientSettings.MULTIPART_THRESHOLD.getKey(), "16mb")
+                .put(COSClientSettings.PART_SIZE.getKey(), "8mb")
+                .put(COSClientSettings.DOWNLOAD_CHUNK_SIZE.getKey(), "8mb")
+                .build();
+        final RepositoryMetaData metaData = new RepositoryMetaData("benchmark", COSRepository.TYPE, settings);
+        blobStore = new COSBlobStore(service.client(metaData), BUCKET, metaData, threadPool);
+
+        final Random random = new Random(0L);
+        smallBlob = new byte[SMALL_BLOB_SIZE];
+        random.nextBytes(smallBlob);
+        largeBlob = new byte[LARGE_BLOB_SIZE];
+        random.nextBytes(largeBlob);
+
+        writeContainer = blobStore.blobContainer(new BlobPath().add("write"));
+        readContainer = blobStore.blobContainer(new BlobPath().add("read"));
+        fixture.putBlob("read/small", smallBlob);
+        fixture.putBlob("read/large", largeBlob);
+        listContainer = blobStore.blobContainer(new BlobPath().add("list"));
+        for (int i = 0; i < listedBlobs; i++) {
+            fixture.putBlob("list/blob-" + i, new byte[0]);
+            if (i % 10 == 0) {
+                fixture.putBlob("list/child-" + i + "/blob", new byte[0]);
+            }
+        }
+        deleteContainer = blobStore.blobContainer(new BlobPath().add("delete"));
+
+        fixture.setLatency(latencyMillis);
+        fixture.setBandwidth(bandwidth);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        blobStore.close();
+        service.close();
+        ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        fixture.close();
+    }
+
+    /**
+     * Counts the bytes transferred by a benchmark, reported by JMH as a rate next to the operations per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0L;
+        }
+    }
+
+    /**
+     * Names of blobs created before each invocation of {@link #deleteBlobsIgnoringIfNotExists}.
+     */
+    @State(Scope.Thread)
+    public static class DeleteBatch {
+        private final List<String> blobNames = new ArrayList<>();
+
+        @Setup(Level.Invocation)
+        public void createBlobs(COSBlobContainerBenchmark benchmark) {
+            blobNames.clear();
+            for (int i = 0; i < DELETE_BATCH_SIZE; i++) {
+                final String blobName = Thread.currentThread().getId() + "-" + i;
+                benchmark.fixture.putBlob("delete/" + blobName, new byte[0]);
+                blobNames.add(blobName);
+            }
+        }
+    }
+
+    @Benchmark
+    public void writeBlobSingle(Bytes bytes) throws IOException {
+        writeContainer.writeBlob("single", new ByteArrayInputStream(smallBlob), smallBlob.length, false);
+        bytes.bytes += smallBlob.length;
+    }
+
+    @Benchmark
+    public void writeBlobMultipart(Bytes bytes) throws IOException {
+        writeContainer.writeBlob("multipart", new ByteArrayInputStream(largeBlob), largeBlob.length, false);
+        bytes.bytes += largeBlob.length;
+    }
+
+    @Benchmark
+    public void readBlobSmall(Bytes bytes) throws IOException {
+        bytes.bytes += consume(readContainer.readBlob("small"));
+    }
+
+    @Benchmark
+    public void readBlobLarge(Bytes bytes) throws IOException {
+        bytes.bytes += consume(readContainer.readBlob("large"));
+    }
+
+    @Benchmark
+    public Map<String, BlobMetaData> listBlobsByPrefix() throws IOException {
+        return listContainer.listBlobsByPrefix("blob-");
+    }
+
+    @Benchmark
+    public Map<String, BlobContainer> children() throws IOException {
+        return listContainer.children();
+    }
+
+    @Benchmark
+    public void deleteBlobsIgnoringIfNotExists(DeleteBatch batch) throws IOException {
+        deleteContainer.deleteBlobsIgnoringIfNotExists(batch.blobNames);
+    }
+
+    private static long consume(InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[8192];
+        long total = 0L;
+        try (InputStream in = inputStream) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
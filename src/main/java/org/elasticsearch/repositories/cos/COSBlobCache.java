@@ -0,0 +1,201 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.repositories.blobstore.BlobStoreRepository;
+
+/**
+ * Caches the content of the small metadata blobs that every shard of a snapshot or restore reads, such as {@code index-N},
+ * {@code index.latest}, {@code snap-*.dat} and {@code meta-*.dat}, keyed by blob key and holding the ETag of the cached
+ * content. Cached blobs are served without a request for a fixed time, after which they are revalidated with a
+ * conditional GET that only transfers the blob again if its ETag changed. Concurrent reads of the same blob share a
+ * single GET. Every write or delete made through the same blob store invalidates the blobs it could have changed, while
+ * changes made by other nodes are only seen once the cached blob is revalidated.
+ */
+final class COSBlobCache {
+
+    /**
+     * Loads a blob, sending a conditional GET if a previously cached content is given.
+     */
+    @FunctionalInterface
+    interface Loader {
+        Loaded load(@Nullable CachedBlob stale) throws IOException;
+    }
+
+    private final Cache<String, CachedBlob> blobs;
+    private final ConcurrentMap<String, CompletableFuture<CachedBlob>> loads = ConcurrentCollections.newConcurrentMap();
+    private final long maxBlobSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoTime;
+    // bumped on every invalidation so that blobs loaded before a modification are never cached after it, blobs are only
+    // put while holding the lock of the cache, which invalidations hold too
+    private final AtomicLong generation = new AtomicLong();
+
+    COSBlobCache(long maxBytes, long maxBlobSize, TimeValue ttl) {
+        this(maxBytes, maxBlobSize, ttl, System::nanoTime);
+    }
+
+    COSBlobCache(long maxBytes, long maxBlobSize, TimeValue ttl, LongSupplier nanoTime) {
+        this.blobs = CacheBuilder.<String, CachedBlob>builder()
+                .setMaximumWeight(maxBytes)
+                .weigher((key, blob) -> key.length() + blob.bytes.length)
+                .build();
+        this.maxBlobSize = maxBlobSize;
+        this.ttlNanos = ttl.nanos();
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Returns whether the blob with the given name is a metadata blob worth caching. Data blobs are read once per restore.
+     */
+    static boolean isCacheable(String blobName) {
+        return blobName.startsWith(BlobStoreRepository.INDEX_FILE_PREFIX) || blobName.equals(BlobStoreRepository.INDEX_LATEST_BLOB)
+                || blobName.startsWith(BlobStoreRepository.SNAPSHOT_PREFIX) || blobName.startsWith(BlobStoreRepository.METADATA_PREFIX);
+    }
+
+    long maxBlobSize() {
+        return maxBlobSize;
+    }
+
+    /**
+     * Returns a stream over the content of the blob with the given key. Fresh cached content is returned as is. Otherwise
+     * the first caller loads the blob while concurrent callers wait for it to be loaded. Callers read the blob with
+     * {@code uncached} if the blob turns out to be too large to be cached or if the load they waited for failed.
+     */
+    InputStream read(String key, Loader loader, CheckedSupplier<InputStream, IOException> uncached) throws IOException {
+        final CachedBlob cached = blobs.get(key);
+        if (cached != null && cached.freshUntilNanos - nanoTime.getAsLong() > 0L) {
+            return cached.stream();
+        }
+        final CompletableFuture<CachedBlob> load = new CompletableFuture<>();
+        final CompletableFuture<CachedBlob> existing = loads.putIfAbsent(key, load);
+        if (existing != null) {
+            final CachedBlob loaded;
+            try {
+                loaded = existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for blob [" + key + "] to be loaded", e);
+            } catch (ExecutionException e) {
+                return uncached.get();
+            }
+            return loaded == null ? uncached.get() : loaded.stream();
+        }
+        try {
+            final long generation = this.generation.get();
+            final Loaded loaded = loader.load(cached);
+            CachedBlob blob = loaded.blob;
+            if (blob == null && loaded.stream == null) {
+                assert cached != null : "blob [" + key + "] reported as not modified but nothing was cached";
+                blob = cached;
+            }
+            if (blob != null) {
+                blob.freshUntilNanos = nanoTime.getAsLong() + ttlNanos;
+                put(key, blob, generation);
+            }
+            load.complete(blob);
+            return blob == null ? loaded.stream : blob.stream();
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    /**
+     * Caches a blob unless the cache was invalidated since {@code generation} was read.
+     */
+    private synchronized void put(String key, CachedBlob blob, long generation) {
+        if (this.generation.get() == generation) {
+            blobs.put(key, blob);
+        }
+    }
+
+    /**
+     * Invalidates every cached blob whose key is, or starts with, one of the given keys or key prefixes.
+     */
+    synchronized void invalidate(Collection<String> keys) {
+        generation.incrementAndGet();
+        final List<String> toInvalidate = new ArrayList<>();
+        for (String cachedKey : blobs.keys()) {
+            for (String key : keys) {
+                if (cachedKey.startsWith(key)) {
+                    toInvalidate.add(cachedKey);
+                    break;
+                }
+            }
+        }
+        toInvalidate.forEach(blobs::invalidate);
+    }
+
+    /**
+     * The content of a blob and the ETag it had when it was read.
+     */
+    static final class CachedBlob {
+
+        private final String eTag;
+        private final byte[] bytes;
+        private volatile long freshUntilNanos;
+
+        CachedBlob(String eTag, byte[] bytes) {
+            this.eTag = eTag;
+            this.bytes = bytes;
+        }
+
+        String eTag() {
+            return eTag;
+        }
+
+        InputStream stream() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    /**
+     * The outcome of a load: the blob's new content, a stream over a blob too large to be cached, or neither if the blob
+     * was not modified since it was cached.
+     */
+    static final class Loaded {
+
+        private static final Loaded NOT_MODIFIED = new Loaded(null, null);
+
+        @Nullable
+        private final CachedBlob blob;
+        @Nullable
+        private final InputStream stream;
+
+        private Loaded(@Nullable CachedBlob blob, @Nullable InputStream stream) {
+            this.blob = blob;
+            this.stream = stream;
+        }
+
+        static Loaded cached(CachedBlob blob) {
+            return new Loaded(blob, null);
+        }
+
+        static Loaded uncached(InputStream stream) {
+            return new Loaded(null, stream);
+        }
+
+        static Loaded notModified() {
+            return NOT_MODIFIED;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.qcloud.cos.model.ObjectMetadata;
+
+/**
+ * How the content of a blob is encoded in COS. The codec of an encoded blob is recorded in the user metadata of the
+ * object, so blobs written with and without compression can be read side by side and the setting can be changed at any
+ * time. Blobs without the metadata entry are stored as is.
+ */
+enum COSBlobCodec {
+
+    NONE("none"),
+
+    /**
+     * Zlib-wrapped deflate, whose Adler-32 trailer verifies the decompressed content in addition to the CRC64 COS
+     * computes for the compressed bytes.
+     */
+    DEFLATE("deflate");
+
+    /** Key of the user metadata entry, sent as the {@code x-cos-meta-es-codec} header. */
+    static final String METADATA_KEY = "es-codec";
+
+    // the streams read and (de)compress in steps of this size instead of the 512 bytes they default to
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String id;
+
+    COSBlobCodec(String id) {
+        this.id = id;
+    }
+
+    String id() {
+        return id;
+    }
+
+    static COSBlobCodec fromId(String id) {
+        for (COSBlobCodec codec : values()) {
+            if (codec.id.equals(id.toLowerCase(Locale.ROOT))) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("unknown codec [" + id + "], expected one of [none, deflate]");
+    }
+
+    /**
+     * Returns the codec recorded in the metadata of an object.
+     */
+    static COSBlobCodec fromMetadata(String blobName, ObjectMetadata metadata) throws IOException {
+        final String id = metadata.getUserMetaDataOf(METADATA_KEY);
+        if (id == null) {
+            return NONE;
+        }
+        try {
+            return fromId(id);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Blob object [" + blobName + "] is encoded with unsupported codec [" + id + "]", e);
+        }
+    }
+
+    /**
+     * Records this codec in the metadata of an object about to be uploaded.
+     */
+    void addTo(ObjectMetadata metadata) {
+        if (this != NONE) {
+            metadata.addUserMetadata(METADATA_KEY, id);
+        }
+    }
+
+    /**
+     * Returns an upper bound of the size of the encoding of a blob of the given size, whatever the compression level. This
+     * is the bound zlib's {@code deflateBound} falls back to when it cannot rely on the default memory parameters, plus the
+     * header and Adler-32 trailer of the zlib wrapper.
+     */
+    long maxEncodedSize(long size) {
+        if (this == NONE) {
+            return size;
+        }
+        return size + ((size + 7) >> 3) + ((size + 63) >> 6) + 5 + 6;
+    }
+
+    /**
+     * Returns a stream over the encoding of the given stream.
+     */
+    InputStream encode(InputStream in, int level) {
+        if (this == NONE) {
+            return in;
+        }
+        final Deflater deflater = new Deflater(level);
+        return new DeflaterInputStream(in, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a stream over the decoding of the given stream, which is read to its end once the encoded content ended
+     * so that the checksum of the stored bytes is verified.
+     */
+    InputStream decode(String blobName, InputStream in) {
+        if (this == NONE) {
+            return in;
+        }
+        return new DecodingInputStream(blobName, in);
+    }
+
+    private static final class DecodingInputStream extends InflaterInputStream {
+
+        private final String blobName;
+        private boolean ended;
+
+        DecodingInputStream(String blobName, InputStream in) {
+            super(in, new Inflater(), BUFFER_SIZE);
+            this.blobName = blobName;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n == -1 && ended == false) {
+                ended = true;
+                if (inf.getRemaining() > 0 || in.read() != -1) {
+                    throw new IOException("Blob object [" + blobName + "] has trailing bytes after its compressed content");
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
@@ -1,22 +1,42 @@
 package org.elasticsearch.repositories.cos;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.NoSuchFileException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.zip.CheckedInputStream;
 
 import com.qcloud.cos.exception.MultiObjectDeleteException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
 import org.apache.lucene.util.SetOnce;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.blobstore.*;
+import org.elasticsearch.common.blobstore.fs.FsBlobContainer;
 import org.elasticsearch.common.blobstore.support.AbstractBlobContainer;
 import org.elasticsearch.common.blobstore.support.PlainBlobMetaData;
 import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 
 import com.qcloud.cos.exception.CosClientException;
 import com.qcloud.cos.exception.CosServiceException;
@@ -27,7 +47,17 @@ import com.qcloud.cos.model.*;
  */
 public class COSBlobContainer extends AbstractBlobContainer {
 
-    private static final int MAX_BULK_DELETES = 1000;
+    private static final Logger logger = LogManager.getLogger(COSBlobContainer.class);
+
+    static final int MAX_BULK_DELETES = 1000;
+    // prefix of the data blobs of Elasticsearch's blob store repository, metadata blobs are comparatively small
+    private static final String DATA_BLOB_PREFIX = "__";
+    static final int MAX_MULTIPART_PARTS = 10000;
+    // encoded blobs up to this size are staged outside of the part buffers, which bounds the heap they take by the number
+    // of threads uploading
+    private static final long MAX_UNPOOLED_ENCODED_SIZE = 1024 * 1024;
+    private static final int PRECONDITION_FAILED = 412;
+    private static final int RANGE_NOT_SATISFIABLE = 416;
     protected final COSBlobStore blobStore;
     protected final String keyPath;
 
@@ -39,18 +69,360 @@ public class COSBlobContainer extends AbstractBlobContainer {
 
     @Override
     public InputStream readBlob(String blobName) throws IOException {
+        final COSBlobCache blobCache = blobStore.blobCache();
+        if (blobCache != null && COSBlobCache.isCacheable(blobName)) {
+            return blobCache.read(buildKey(blobName), stale -> loadBlob(blobCache, blobName, stale),
+                    () -> doReadBlob(blobName, null, true));
+        }
+        final COSDiskCache diskCache = blobStore.diskCache();
+        if (diskCache != null && COSDiskCache.isCacheable(blobName)) {
+            return readThroughDiskCache(diskCache, blobName);
+        }
+        final COSPartPrefetcher prefetcher = blobStore.partPrefetcher();
+        if (prefetcher != null && isDataBlob(blobName)) {
+            final List<String> followingParts = prefetcher.followingParts(blobName);
+            if (followingParts.isEmpty() == false) {
+                final InputStream stream = readPart(prefetcher, blobName);
+                // the following parts are requested once this one is, so that they queue up behind it
+                followingParts.forEach(part -> prefetchPart(prefetcher, part));
+                return stream;
+            }
+        }
+        return doReadBlob(blobName, null, true);
+    }
+
+    /**
+     * Reads a part of a chunked file, starting with its prefetched bytes if it was prefetched.
+     */
+    private InputStream readPart(COSPartPrefetcher prefetcher, String blobName) throws IOException {
+        final CompletableFuture<COSPartPrefetcher.Part> prefetched = prefetcher.take(buildKey(blobName));
+        if (prefetched == null) {
+            return doReadBlob(blobName, null, true);
+        }
+        final COSPartPrefetcher.Part part;
         try {
-            COSObject object = SocketAccess.doPrivileged(() ->
-                    blobStore.client().getObject(blobStore.bucket(), buildKey(blobName)));
-            return object.getObjectContent();
+            part = prefetched.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for prefetched blob object [" + blobName + "]");
+        } catch (ExecutionException | CancellationException e) {
+            // reading the part again reports the failure, if it was not transient
+            logger.debug(() -> new ParameterizedMessage("failed to prefetch blob object [{}]", blobName), e);
+            return doReadBlob(blobName, null, true);
+        }
+        final ObjectMetadata metadata = part.metadata();
+        final long length = part.length();
+        InputStream stream = new ByteArrayInputStream(part.head());
+        if (length > part.head().length) {
+            final String eTag = metadata.getETag();
+            stream = new ParallelChunkInputStream(stream, part.head().length, length, blobStore.downloadChunkSize(),
+                    Math.max(1, blobStore.maxConcurrentDownloadChunks()), (position, size) -> readChunk(blobName, eTag, position, size));
+        }
+        return decoded(blobName, metadata, true, checksummedStream(blobName, metadata, length, stream));
+    }
+
+    /**
+     * Fetches the first bytes of a part of a chunked file in the background, unless it is already being prefetched or the
+     * prefetch memory limit is reached.
+     */
+    private void prefetchPart(COSPartPrefetcher prefetcher, String blobName) {
+        final long window = Math.min(blobStore.downloadChunkSize(), blobStore.prefetchMaxBytes());
+        final CompletableFuture<COSPartPrefetcher.Part> part = prefetcher.start(buildKey(blobName), window);
+        if (part == null) {
+            return;
+        }
+        final GetObjectRequest request = rangeRequest(blobName, 0L, window - 1, null);
+        final CompletableFuture<COSObject> response = blobStore.executeAsync(COSOperation.GET, client -> client.getObject(request));
+        response.whenComplete((object, failure) -> {
+            if (failure != null) {
+                part.completeExceptionally(failure);
+                return;
+            }
+            try {
+                final ObjectMetadata metadata = onObject(blobName, object, true).getObjectMetadata();
+                final int length = Math.toIntExact(metadata.getContentLength());
+                part.complete(new COSPartPrefetcher.Part(readChunk(blobName, object, 0L, length), metadata));
+            } catch (Exception e) {
+                part.completeExceptionally(e);
+            }
+        });
+        // a prefetch that is dropped before it was sent is not requested
+        part.whenComplete((p, e) -> response.cancel(false));
+    }
+
+    /**
+     * Returns whether the blob with the given name holds data of a shard, as opposed to repository or snapshot metadata.
+     */
+    static boolean isDataBlob(String blobName) {
+        return blobName.startsWith(DATA_BLOB_PREFIX);
+    }
+
+    /**
+     * Reads a blob, failing if it no longer has the given ETag if one is given. The stored bytes are decoded with the codec
+     * recorded in the blob's metadata if {@code decode} is set.
+     */
+    private InputStream doReadBlob(String blobName, @Nullable String eTag, boolean decode) throws IOException {
+        final int concurrency = blobStore.maxConcurrentDownloadChunks();
+        if (concurrency <= 1) {
+            final GetObjectRequest request = new GetObjectRequest(blobStore.bucket(), buildKey(blobName));
+            if (eTag != null) {
+                request.setMatchingETagConstraints(Collections.singletonList(eTag));
+            }
+            final COSObject object = onObject(blobName, getObject(blobName, request), eTag != null);
+            final ObjectMetadata metadata = object.getObjectMetadata();
+            final long length = metadata.getContentLength();
+            return decoded(blobName, metadata, decode, checksummedStream(blobName, metadata, length,
+                    retryingStream(blobName, object, 0L, length)));
+        }
+        // the first chunk is requested as a range, which tells us the object length without an extra HEAD request
+        final long chunkSize = blobStore.downloadChunkSize();
+        final GetObjectRequest request = rangeRequest(blobName, 0L, chunkSize - 1, eTag);
+        final COSObject object;
+        try {
+            object = onObject(blobName, getObject(blobName, request), eTag != null);
+        } catch (CosServiceException e) {
+            if (e.getStatusCode() == RANGE_NOT_SATISFIABLE) {
+                // empty objects have no satisfiable range, and are never encoded
+                return onObject(blobName, getObject(blobName, new GetObjectRequest(blobStore.bucket(), buildKey(blobName))), true)
+                        .getObjectContent();
+            }
+            throw e;
+        }
+        final ObjectMetadata metadata = object.getObjectMetadata();
+        final long length = metadata.getInstanceLength();
+        if (length <= chunkSize) {
+            return decoded(blobName, metadata, decode, checksummedStream(blobName, metadata, length,
+                    retryingStream(blobName, object, 0L, length)));
+        }
+        final String objectETag = metadata.getETag();
+        return decoded(blobName, metadata, decode, checksummedStream(blobName, metadata, length,
+                new ParallelChunkInputStream(retryingStream(blobName, object, 0L, chunkSize), chunkSize, length, chunkSize,
+                        concurrency, (position, size) -> readChunk(blobName, objectETag, position, size))));
+    }
+
+    private static InputStream decoded(String blobName, ObjectMetadata metadata, boolean decode, InputStream stream) throws IOException {
+        if (decode == false) {
+            return stream;
+        }
+        final COSBlobCodec codec;
+        try {
+            codec = COSBlobCodec.fromMetadata(blobName, metadata);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        return codec.decode(blobName, stream);
+    }
+
+    /**
+     * Reads a data blob from the node's disk cache if the version COS currently holds was cached, which a HEAD request
+     * tells, and otherwise downloads that version while caching it.
+     */
+    private InputStream readThroughDiskCache(COSDiskCache diskCache, String blobName) throws IOException {
+        final String key = buildKey(blobName);
+        final ObjectMetadata metadata;
+        try {
+            metadata = blobStore.executeHedged(COSOperation.HEAD, client -> client.getObjectMetadata(blobStore.bucket(), key), m -> {});
         } catch (CosClientException e) {
-            if (e instanceof CosServiceException) {
-                if (404 == ((CosServiceException) e).getStatusCode()) {
-                    throw new NoSuchFileException("Blob object [" + blobName + "] not found: " + e.getMessage());
+            throw translateReadFailure(blobName, e);
+        }
+        final long length = metadata.getContentLength();
+        if (length == 0L || length > diskCache.maxBytes()) {
+            return doReadBlob(blobName, null, true);
+        }
+        // files hold the stored bytes, so encoded blobs also take less space on disk
+        final COSBlobCodec codec = COSBlobCodec.fromMetadata(blobName, metadata);
+        final String eTag = metadata.getETag();
+        final String entry = COSDiskCache.entryName(blobStore.bucket(), key, eTag, 0L, length - 1);
+        final InputStream cached = diskCache.open(entry);
+        if (cached != null) {
+            // cached files are verified as they are read again, which catches corruption on the local disk
+            final Long crc = blobStore.verifyChecksums() ? COSCrc64.fromMetadata(metadata) : null;
+            return codec.decode(blobName, crc == null ? cached : new COSChecksumInputStream(cached, blobName, length, crc));
+        }
+        return codec.decode(blobName, diskCache.populate(entry, length, doReadBlob(blobName, eTag, false)));
+    }
+
+    /**
+     * Reads a metadata blob for the blob cache with a single GET, which is conditional on the ETag of the stale cached
+     * content if there is one. Blobs that turn out to be too large to be cached are streamed from the same response.
+     */
+    private COSBlobCache.Loaded loadBlob(COSBlobCache blobCache, String blobName, @Nullable COSBlobCache.CachedBlob stale)
+            throws IOException {
+        final GetObjectRequest request = new GetObjectRequest(blobStore.bucket(), buildKey(blobName));
+        if (stale != null) {
+            request.setNonmatchingETagConstraints(Collections.singletonList(stale.eTag()));
+        }
+        final COSObject object = onObject(blobName, getObject(blobName, request), false);
+        if (object == null) {
+            // the SDK returns no object for 304 Not Modified
+            return COSBlobCache.Loaded.notModified();
+        }
+        final long length = object.getObjectMetadata().getContentLength();
+        final InputStream stream = checksummedStream(blobName, object.getObjectMetadata(), length,
+                retryingStream(blobName, object, 0L, length));
+        if (length > blobCache.maxBlobSize()) {
+            return COSBlobCache.Loaded.uncached(stream);
+        }
+        final byte[] bytes = new byte[Math.toIntExact(length)];
+        try (InputStream in = stream) {
+            final int read = Streams.readFully(in, bytes, 0, bytes.length);
+            if (read != bytes.length || in.read() != -1) {
+                throw new IOException("Blob object [" + blobName + "] ended after [" + read + "] bytes but COS reported [" + length
+                        + "] bytes");
+            }
+        }
+        return COSBlobCache.Loaded.cached(new COSBlobCache.CachedBlob(object.getObjectMetadata().getETag(), bytes));
+    }
+
+    /**
+     * Returns a stream over the {@code length} bytes of the blob starting at {@code position}.
+     */
+    public InputStream readBlob(String blobName, long position, long length) throws IOException {
+        if (position < 0L) {
+            throw new IllegalArgumentException("position must be non-negative");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("length must be non-negative");
+        }
+        if (length == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        final long end = Math.addExact(position, length - 1);
+        final GetObjectRequest request = new GetObjectRequest(blobStore.bucket(), buildKey(blobName));
+        request.setRange(position, end);
+        final COSObject object;
+        try {
+            object = onObject(blobName, getObject(blobName, request), true);
+        } catch (CosClientException e) {
+            // such as 416 for a range that starts past the end of the blob
+            throw new IOException("Unable to read bytes [" + position + "-" + end + "] of blob object [" + blobName + "]", e);
+        }
+        if (COSBlobCodec.fromMetadata(blobName, object.getObjectMetadata()) != COSBlobCodec.NONE) {
+            object.getObjectContent().abort();
+            // offsets into the content do not map to offsets into the stored bytes
+            throw new IOException("Blob object [" + blobName + "] is compressed and can only be read as a whole");
+        }
+        return retryingStream(blobName, object, position, object.getObjectMetadata().getContentLength());
+    }
+
+    /**
+     * Verifies a stream over the whole blob against the CRC64 of the object, which COS reports on every GET response,
+     * including those for a range, as the chunks are consumed in order.
+     */
+    private InputStream checksummedStream(String blobName, ObjectMetadata metadata, long length, InputStream stream) {
+        final Long crc = blobStore.verifyChecksums() ? COSCrc64.fromMetadata(metadata) : null;
+        return crc == null ? stream : new COSChecksumInputStream(stream, blobName, length, crc);
+    }
+
+    private InputStream retryingStream(String blobName, COSObject object, long position, long length) {
+        if (blobStore.maxReadRetries() == 0 || length == 0) {
+            return object.getObjectContent();
+        }
+        return new COSRetryingInputStream(this, blobName, object, position, position + length - 1, blobStore.maxReadRetries());
+    }
+
+    /**
+     * Sends the GET for a chunk of the blob without waiting for it. The body is read by the transfer thread that received
+     * the response, so the caller's thread is only blocked once it needs the bytes of the chunk.
+     */
+    private CompletableFuture<byte[]> readChunk(String blobName, @Nullable String eTag, long position, int length) {
+        final GetObjectRequest request = rangeRequest(blobName, position, position + length - 1, eTag);
+        final CompletableFuture<COSObject> response = blobStore.executeAsync(COSOperation.GET, client -> client.getObject(request));
+        final CompletableFuture<byte[]> chunk = new CompletableFuture<>();
+        response.whenComplete((object, failure) -> {
+            try {
+                if (failure instanceof CosClientException) {
+                    throw translateReadFailure(blobName, (CosClientException) failure);
+                } else if (failure != null) {
+                    chunk.completeExceptionally(failure);
+                } else if (chunk.isDone()) {
+                    // the chunk was cancelled because the stream was closed while the response was on its way
+                    discardObject(object);
+                } else {
+                    chunk.complete(readChunk(blobName, onObject(blobName, object, true), position, length));
                 }
+            } catch (Exception e) {
+                chunk.completeExceptionally(e);
+            }
+        });
+        // a chunk that is no longer needed is not requested
+        chunk.whenComplete((bytes, e) -> response.cancel(false));
+        return chunk;
+    }
+
+    private byte[] readChunk(String blobName, COSObject object, long position, int length) throws IOException {
+        final byte[] chunk = new byte[length];
+        try (InputStream stream = retryingStream(blobName, object, position, length)) {
+            final int read = Streams.readFully(stream, chunk, 0, length);
+            if (read != length) {
+                throw new IOException("Blob object [" + blobName + "] ended after " + (position + read) + " bytes while reading chunk ["
+                        + position + "-" + (position + length - 1) + "]");
             }
-            throw e;
         }
+        return chunk;
+    }
+
+    /**
+     * Reads the bytes {@code start} to {@code end} (inclusive) of a blob, failing if the blob no longer has the given ETag.
+     */
+    COSObject getObjectRange(String blobName, long start, long end, @Nullable String eTag) throws IOException {
+        return onObject(blobName, getObject(blobName, rangeRequest(blobName, start, end, eTag)), true);
+    }
+
+    private GetObjectRequest rangeRequest(String blobName, long start, long end, @Nullable String eTag) {
+        final GetObjectRequest request = new GetObjectRequest(blobStore.bucket(), buildKey(blobName));
+        request.setRange(start, end);
+        if (eTag != null) {
+            // fail rather than stitch together ranges of different versions of the blob
+            request.setMatchingETagConstraints(Collections.singletonList(eTag));
+        }
+        return request;
+    }
+
+    private COSObject getObject(String blobName, GetObjectRequest request) throws IOException {
+        try {
+            return blobStore.executeHedged(COSOperation.GET, client -> client.getObject(request), COSBlobContainer::discardObject);
+        } catch (CosClientException e) {
+            throw translateReadFailure(blobName, e);
+        }
+    }
+
+    private static void discardObject(@Nullable COSObject object) {
+        if (object != null) {
+            // a response whose body is no longer needed, such as that of the request that lost a hedged read
+            object.getObjectContent().abort();
+        }
+    }
+
+    /**
+     * Accounts for the bytes of a GET response. The SDK returns no object when an ETag constraint is not met, which is a
+     * failure if {@code required} is set.
+     */
+    private COSObject onObject(String blobName, @Nullable COSObject object, boolean required) throws IOException {
+        if (object != null) {
+            blobStore.stats().onBytes(COSOperation.GET, object.getObjectMetadata().getContentLength());
+        } else if (required) {
+            throw new IOException("Blob object [" + blobName + "] changed while being read");
+        }
+        return object;
+    }
+
+    /**
+     * Throws the exception that a failed read of a blob translates to, or returns the failure itself if it has no
+     * translation.
+     */
+    private static CosClientException translateReadFailure(String blobName, CosClientException e) throws IOException {
+        if (e instanceof CosServiceException) {
+            final int statusCode = ((CosServiceException) e).getStatusCode();
+            if (404 == statusCode) {
+                throw new NoSuchFileException("Blob object [" + blobName + "] not found: " + e.getMessage());
+            }
+            if (PRECONDITION_FAILED == statusCode) {
+                throw new IOException("Blob object [" + blobName + "] changed while being read", e);
+            }
+        }
+        return e;
     }
 
     /**
@@ -58,29 +430,134 @@ public class COSBlobContainer extends AbstractBlobContainer {
      */
     @Override
     public void writeBlob(String blobName, InputStream inputStream, long blobSize, boolean failIfAlreadyExists) throws IOException {
-        if (blobSize <= COSService.MAX_SINGLE_FILE_SIZE.getBytes()) {
-            doSingleUpload(blobName, inputStream, blobSize);
-        } else {
-            doMultipartUpload(blobName, inputStream, blobSize);
+        try {
+            // empty blobs are always stored as is
+            final COSBlobCodec codec = isDataBlob(blobName) && blobSize > 0 ? blobStore.dataCodec() : COSBlobCodec.NONE;
+            if (codec != COSBlobCodec.NONE) {
+                doEncodedUpload(blobName, inputStream, blobSize, codec);
+            } else if (blobSize <= blobStore.multipartThreshold()) {
+                doSingleUpload(blobName, inputStream, blobSize);
+            } else {
+                doMultipartUpload(blobName, inputStream, blobSize);
+            }
+        } finally {
+            blobStore.onModified(Collections.singletonList(buildKey(blobName)));
         }
     }
 
+    /**
+     * Uploads the blob under a temporary name and then copies it to its final name within COS, so the final name never
+     * refers to a blob that a failing node left half written. Temporary blobs that cannot be deleted, for instance because
+     * the node died, are removed by the repository's {@link COSPendingBlobSweeper}.
+     */
     @Override
     public void writeBlobAtomic(String blobName, InputStream inputStream, long blobSize, boolean failIfAlreadyExists) throws IOException {
-        writeBlob(blobName, inputStream, blobSize, failIfAlreadyExists);
+        final String tempBlobName = FsBlobContainer.tempBlobName(blobName);
+        try {
+            writeBlob(tempBlobName, inputStream, blobSize, failIfAlreadyExists);
+            copyBlob(tempBlobName, blobName, blobSize);
+        } finally {
+            try {
+                deleteBlobIgnoringIfNotExists(tempBlobName);
+            } catch (IOException e) {
+                logger.debug(() -> new ParameterizedMessage("failed to delete temporary blob [{}] of [{}], leaving it to the sweeper",
+                        tempBlobName, blobName), e);
+            }
+            blobStore.onModified(Collections.singletonList(buildKey(blobName)));
+        }
+    }
+
+    /**
+     * Copies a blob within COS, using a parallel multipart copy for blobs above the multipart threshold.
+     */
+    void copyBlob(String sourceBlobName, String targetBlobName, long blobSize) throws IOException {
+        final String sourceKey = buildKey(sourceBlobName);
+        final String targetKey = buildKey(targetBlobName);
+        try {
+            if (blobSize <= blobStore.multipartThreshold()) {
+                final CopyObjectRequest request = new CopyObjectRequest(blobStore.bucket(), sourceKey, blobStore.bucket(), targetKey);
+                blobStore.execute(COSOperation.PUT, client -> client.copyObject(request));
+            } else {
+                doMultipartCopy(sourceKey, targetKey, blobSize);
+            }
+        } catch (CosClientException e) {
+            throw new IOException("Unable to copy blob [" + sourceBlobName + "] to [" + targetBlobName + "]", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying blob [" + sourceBlobName + "] to [" + targetBlobName + "]", e);
+        }
+    }
+
+    private void doMultipartCopy(String sourceKey, String targetKey, long blobSize) throws IOException, InterruptedException {
+        final long partSize = multipartPartSize(blobSize);
+        final int nbParts = numberOfMultiparts(blobSize, partSize).v1().intValue();
+        final String bucketName = blobStore.bucket();
+        final InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucketName, targetKey);
+        final String uploadId = blobStore.execute(COSOperation.MULTIPART, client -> client.initiateMultipartUpload(request)).getUploadId();
+        try {
+            final List<CompletableFuture<PartETag>> parts = new ArrayList<>(nbParts);
+            for (int i = 1; i <= nbParts; i++) {
+                final CopyPartRequest copyPartRequest = new CopyPartRequest()
+                        .withSourceBucketName(bucketName)
+                        .withSourceKey(sourceKey)
+                        .withDestinationBucketName(bucketName)
+                        .withDestinationKey(targetKey)
+                        .withUploadId(uploadId)
+                        .withPartNumber(i)
+                        .withFirstByte((i - 1) * partSize)
+                        .withLastByte(Math.min(blobSize, i * partSize) - 1);
+                // the bytes are copied within COS, so parts are cheap to copy concurrently
+                parts.add(blobStore.executeAsync(COSOperation.UPLOAD_PART, client -> client.copyPart(copyPartRequest))
+                        .thenApply(CopyPartResult::getPartETag));
+            }
+            completeMultipartUpload(targetKey, targetKey, uploadId, awaitAll(parts), blobSize, null);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            abortMultipartUpload(targetKey, uploadId, e);
+            throw e;
+        }
     }
 
     void doSingleUpload(String blobName, InputStream inputStream, long blobSize) throws IOException {
+        doSingleUpload(blobName, inputStream, blobSize, COSBlobCodec.NONE);
+    }
+
+    private void doSingleUpload(String blobName, InputStream inputStream, long blobSize, COSBlobCodec codec) throws IOException {
         if (blobSize > COSService.MAX_SINGLE_FILE_SIZE.getBytes()) {
             throw new IllegalArgumentException("Upload request size [" + blobSize + "] can't be larger than max single file size");
         }
         ObjectMetadata meta = new ObjectMetadata();
         meta.setContentLength(blobSize);
+        codec.addTo(meta);
         PutObjectRequest putObjectRequest =
                 new PutObjectRequest(blobStore.bucket(), buildKey(blobName), inputStream, meta);
+        // the checksum is computed as the SDK reads the stream, starting over with every attempt
+        final COSCrc64 crc = blobStore.verifyChecksums() ? new COSCrc64() : null;
         try {
-            PutObjectResult putObjectResult = SocketAccess.doPrivileged(() ->
-                    blobStore.client().putObject(putObjectRequest));
+            final PutObjectResult result;
+            if (inputStream.markSupported() || inputStream instanceof FileInputStream) {
+                // the stream is rewound before every retry
+                final long start = markStream(inputStream, blobSize);
+                final AtomicBoolean sent = new AtomicBoolean();
+                result = blobStore.execute(COSOperation.PUT, client -> {
+                    if (sent.getAndSet(true)) {
+                        resetStream(inputStream, start, blobName);
+                    }
+                    if (crc != null) {
+                        crc.reset();
+                        putObjectRequest.setInputStream(new CheckedInputStream(inputStream, crc));
+                    }
+                    return client.putObject(putObjectRequest);
+                });
+            } else {
+                if (crc != null) {
+                    putObjectRequest.setInputStream(new CheckedInputStream(inputStream, crc));
+                }
+                result = blobStore.executeOnce(COSOperation.PUT, client -> client.putObject(putObjectRequest));
+            }
+            blobStore.stats().onBytes(COSOperation.PUT, blobSize);
+            if (crc != null) {
+                verifyUpload(blobName, crc.getValue(), COSCrc64.fromMetadata(result.getMetadata()));
+            }
         } catch (CosServiceException e) {
             throw new IOException("Exception when write blob " + blobName, e);
         } catch (CosClientException e) {
@@ -89,10 +566,10 @@ public class COSBlobContainer extends AbstractBlobContainer {
     }
 
     void doMultipartUpload(String blobName, InputStream inputStream, long blobSize) throws IOException {
-        long partSize = COSService.MAX_SINGLE_FILE_SIZE.getBytes();
-        if (blobSize <= COSService.MAX_SINGLE_FILE_SIZE.getBytes()) {
-            throw new IllegalArgumentException("Upload multipart request size [" + blobSize + "] can't be smaller than max single file size");
+        if (blobSize <= 0) {
+            throw new IllegalArgumentException("Upload multipart request size [" + blobSize + "] must be greater than zero");
         }
+        final long partSize = multipartPartSize(blobSize);
         final Tuple<Long, Long> multiparts = numberOfMultiparts(blobSize, partSize);
 
         final int nbParts = multiparts.v1().intValue();
@@ -101,59 +578,361 @@ public class COSBlobContainer extends AbstractBlobContainer {
 
         final SetOnce<String> uploadId = new SetOnce<>();
         final String bucketName = blobStore.bucket();
-        boolean success = false;
+        final String key = buildKey(blobName);
+        final PartBufferPool partBuffers = blobStore.partBuffers();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<CompletableFuture<PartETag>> parts = new ArrayList<>(nbParts);
+        // each part's checksum is computed over the staged part and folded into the object's checksum
+        final COSCrc64 partCrc = blobStore.verifyChecksums() ? new COSCrc64() : null;
+        // every part is copied from the stream into its buffer, as the stream has to be read ahead of the part uploads
+        final ReadableByteChannel channel = Channels.newChannel(inputStream);
+        long objectCrc = 0L;
 
         try {
-            final InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucketName, buildKey(blobName));
-            InitiateMultipartUploadResult initResult = SocketAccess.doPrivileged(() ->
-                    blobStore.client().initiateMultipartUpload(request));
-            uploadId.set(initResult.getUploadId());
-            if (Strings.isEmpty(uploadId.get())) {
-                throw new IOException("Failed to initialize multipart upload " + blobName);
-            }
-            final List<PartETag> parts = new ArrayList<>();
+            uploadId.set(initiateMultipartUpload(blobName, key, COSBlobCodec.NONE));
 
             long bytesCount = 0;
-            for (int i = 1; i <= nbParts; i++) {
-                UploadPartRequest uploadPartRequest = new UploadPartRequest();
-                uploadPartRequest.setBucketName(blobStore.bucket());
-                uploadPartRequest.setKey(buildKey(blobName));
-                uploadPartRequest.setUploadId(uploadId.get());
-                uploadPartRequest.setInputStream(inputStream);
-                uploadPartRequest.setPartNumber(i);
-
-                if (i < nbParts) {
-                    uploadPartRequest.setPartSize(partSize);
-                    uploadPartRequest.setLastPart(false);
-                } else {
-                    uploadPartRequest.setPartSize(lastPartSize);
-                    uploadPartRequest.setLastPart(true);
+            for (int i = 1; i <= nbParts && failed.get() == false; i++) {
+                final int size = Math.toIntExact(i < nbParts ? partSize : lastPartSize);
+                // the next part is only read from the stream once a buffer is free, which bounds the memory of all uploads
+                final ByteBuffer buffer = partBuffers.acquire(size);
+                boolean submitted = false;
+                try {
+                    final int read = PartBufferPool.fill(channel, buffer).remaining();
+                    if (read != size) {
+                        throw new IOException("Failed to execute multipart upload for [" + blobName + "], stream ended after "
+                                + (bytesCount + read) + " bytes but expected " + blobSize);
+                    }
+                    bytesCount += size;
+                    if (partCrc != null) {
+                        partCrc.reset();
+                        partCrc.update(buffer.duplicate());
+                        objectCrc = COSCrc64.combine(objectCrc, partCrc.getValue(), size);
+                    }
+                    parts.add(uploadPart(key, uploadId.get(), i, i == nbParts, buffer, failed));
+                    submitted = true;
+                } finally {
+                    if (submitted == false) {
+                        partBuffers.release(buffer);
+                    }
                 }
-                bytesCount += uploadPartRequest.getPartSize();
-
-                final UploadPartResult uploadResponse = SocketAccess.doPrivileged(() ->
-                        blobStore.client().uploadPart(uploadPartRequest));
-                parts.add(uploadResponse.getPartETag());
             }
 
+            final List<PartETag> partETags = awaitAll(parts);
             if (bytesCount != blobSize) {
                 throw new IOException("Failed to execute multipart upload for [" + blobName + "], expected " + blobSize
                         + "bytes sent but got " + bytesCount);
             }
+            completeMultipartUpload(blobName, key, uploadId.get(), partETags, blobSize, partCrc != null ? objectCrc : null);
+        } catch (CosClientException e) {
+            throw abortMultipartUpload(key, uploadId.get(),
+                    new IOException("Unable to upload object [" + blobName + "] using multipart upload", e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw abortMultipartUpload(key, uploadId.get(),
+                    new IOException("Interrupted while uploading object [" + blobName + "] using multipart upload", e));
+        } catch (IOException | RuntimeException e) {
+            abortMultipartUpload(key, uploadId.get(), e);
+            throw e;
+        }
+    }
 
-            CompleteMultipartUploadRequest completeMultipartUploadRequest = new CompleteMultipartUploadRequest(blobStore.bucket(), buildKey(blobName), uploadId.get(), parts);
-            SocketAccess.doPrivileged(() ->
-                    blobStore.client().completeMultipartUpload(completeMultipartUploadRequest));
-            success = true;
+    /**
+     * Uploads a blob encoded with the given codec. The length of the encoded blob is only known once the whole blob was
+     * read, so the encoded bytes are staged in part buffers as they are produced: an encoded blob that fits in the first
+     * part is sent with a single PUT, a larger one with a multipart upload that ends with the first part that is not full.
+     * A small blob whose encoding is sure to fit in a part is staged in a heap buffer sized for its encoding instead, so
+     * that small blobs take neither a part sized buffer nor a part buffer permit for the whole PUT.
+     */
+    void doEncodedUpload(String blobName, InputStream inputStream, long blobSize, COSBlobCodec codec) throws IOException {
+        final long maxEncodedSize = codec.maxEncodedSize(blobSize);
+        final int partSize = encodedPartSize(blobSize, codec);
+        if (maxEncodedSize < Math.min(partSize, MAX_UNPOOLED_ENCODED_SIZE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(maxEncodedSize));
+            try (InputStream encoded = codec.encode(inputStream, blobStore.dataCompressionLevel())) {
+                PartBufferPool.fill(Channels.newChannel(encoded), buffer);
+                if (encoded.read() != -1) {
+                    throw new IOException("Encoding of blob object [" + blobName + "] is larger than its bound of [" + maxEncodedSize
+                            + "] bytes");
+                }
+            }
+            doSingleUpload(blobName, new ByteBufferInputStream(buffer), buffer.remaining(), codec);
+            return;
+        }
+        final String key = buildKey(blobName);
+        final PartBufferPool partBuffers = blobStore.partBuffers();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<CompletableFuture<PartETag>> parts = new ArrayList<>();
+        final COSCrc64 partCrc = blobStore.verifyChecksums() ? new COSCrc64() : null;
+        String uploadId = null;
+        long objectCrc = 0L;
+        long encodedSize = 0L;
 
+        try (InputStream encoded = codec.encode(inputStream, blobStore.dataCompressionLevel())) {
+            final ReadableByteChannel channel = Channels.newChannel(encoded);
+            for (int partNumber = 1; failed.get() == false; partNumber++) {
+                final ByteBuffer buffer = partBuffers.acquire(partSize);
+                boolean submitted = false;
+                try {
+                    final int size = PartBufferPool.fill(channel, buffer).remaining();
+                    final boolean lastPart = size < partSize;
+                    if (partNumber == 1 && lastPart) {
+                        doSingleUpload(blobName, new ByteBufferInputStream(buffer), size, codec);
+                        return;
+                    }
+                    if (size == 0) {
+                        // the previous part ended exactly at the end of the encoded blob
+                        break;
+                    }
+                    if (uploadId == null) {
+                        uploadId = initiateMultipartUpload(blobName, key, codec);
+                    }
+                    encodedSize += size;
+                    if (partCrc != null) {
+                        partCrc.reset();
+                        partCrc.update(buffer.duplicate());
+                        objectCrc = COSCrc64.combine(objectCrc, partCrc.getValue(), size);
+                    }
+                    parts.add(uploadPart(key, uploadId, partNumber, lastPart, buffer, failed));
+                    submitted = true;
+                    if (lastPart) {
+                        break;
+                    }
+                } finally {
+                    if (submitted == false) {
+                        partBuffers.release(buffer);
+                    }
+                }
+            }
+            completeMultipartUpload(blobName, key, uploadId, awaitAll(parts), encodedSize, partCrc != null ? objectCrc : null);
         } catch (CosClientException e) {
-            throw new IOException("Unable to upload object [" + blobName + "] using multipart upload", e);
-        } finally {
-            if (success == false && Strings.hasLength(uploadId.get())) {
-                final AbortMultipartUploadRequest aboutRequest = new AbortMultipartUploadRequest(blobStore.bucket(), buildKey(blobName), uploadId.get());
-                SocketAccess.doPrivilegedVoid(() ->
-                        blobStore.client().abortMultipartUpload(aboutRequest));
+            throw abortMultipartUpload(key, uploadId,
+                    new IOException("Unable to upload object [" + blobName + "] using multipart upload", e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw abortMultipartUpload(key, uploadId,
+                    new IOException("Interrupted while uploading object [" + blobName + "] using multipart upload", e));
+        } catch (IOException | RuntimeException e) {
+            abortMultipartUpload(key, uploadId, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the size of the parts of a blob, which is only raised above the configured part size for blobs that would
+     * otherwise need too many parts.
+     */
+    private long multipartPartSize(long blobSize) {
+        return Math.max(blobStore.partSize(), (blobSize + MAX_MULTIPART_PARTS - 1) / MAX_MULTIPART_PARTS);
+    }
+
+    /**
+     * Returns the size of the parts of a blob encoded with the given codec, which is sized for the largest possible
+     * encoding of the blob so that the encoding of an incompressible blob keeps within the part limit too.
+     */
+    int encodedPartSize(long blobSize, COSBlobCodec codec) {
+        return Math.toIntExact(multipartPartSize(codec.maxEncodedSize(blobSize)));
+    }
+
+    private String initiateMultipartUpload(String blobName, String key, COSBlobCodec codec) throws IOException {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        codec.addTo(metadata);
+        final InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(blobStore.bucket(), key, metadata);
+        final String uploadId =
+                blobStore.execute(COSOperation.MULTIPART, client -> client.initiateMultipartUpload(request)).getUploadId();
+        if (Strings.isEmpty(uploadId)) {
+            throw new IOException("Failed to initialize multipart upload " + blobName);
+        }
+        return uploadId;
+    }
+
+    /**
+     * Sends the remaining bytes of a buffer of the pool as a part without waiting for it, releasing the buffer once the part
+     * was sent.
+     */
+    private CompletableFuture<PartETag> uploadPart(String key, String uploadId, int partNumber, boolean lastPart, ByteBuffer buffer,
+                                                   AtomicBoolean failed) {
+        final String bucketName = blobStore.bucket();
+        final int size = buffer.remaining();
+        // every attempt gets a fresh stream over the buffered part, which is read in place even from a direct buffer
+        final CompletableFuture<UploadPartResult> upload = blobStore.executeAsync(COSOperation.UPLOAD_PART, client -> {
+            final UploadPartRequest uploadPartRequest = new UploadPartRequest();
+            uploadPartRequest.setBucketName(bucketName);
+            uploadPartRequest.setKey(key);
+            uploadPartRequest.setUploadId(uploadId);
+            uploadPartRequest.setPartNumber(partNumber);
+            uploadPartRequest.setInputStream(new ByteBufferInputStream(buffer));
+            uploadPartRequest.setPartSize(size);
+            uploadPartRequest.setLastPart(lastPart);
+            return client.uploadPart(uploadPartRequest);
+        });
+        return upload.whenComplete((uploadResponse, e) -> {
+            blobStore.partBuffers().release(buffer);
+            if (e != null) {
+                failed.set(true);
+            } else {
+                blobStore.stats().onBytes(COSOperation.UPLOAD_PART, size);
             }
+        }).thenApply(UploadPartResult::getPartETag);
+    }
+
+    /**
+     * Completes a multipart upload of an object of the given length and, if the checksum of the sent bytes is given,
+     * verifies it against the object.
+     */
+    private void completeMultipartUpload(String blobName, String key, String uploadId, List<PartETag> partETags, long length,
+                                         @Nullable Long objectCrc) throws IOException {
+        final CompleteMultipartUploadRequest request = new CompleteMultipartUploadRequest(blobStore.bucket(), key, uploadId, partETags);
+        final AtomicInteger attempts = new AtomicInteger();
+        ObjectMetadata metadata = null;
+        try {
+            blobStore.execute(COSOperation.MULTIPART, client -> {
+                attempts.incrementAndGet();
+                return client.completeMultipartUpload(request);
+            });
+        } catch (CosServiceException e) {
+            // completing an upload cannot be repeated: if the response to an attempt that completed it was lost, the retry
+            // finds no upload, and whether the object is the one that was uploaded tells apart a completed upload
+            if (attempts.get() <= 1 || "NoSuchUpload".equals(e.getErrorCode()) == false) {
+                throw e;
+            }
+            metadata = completedObjectMetadata(key, length, objectCrc);
+            if (metadata == null) {
+                throw e;
+            }
+        }
+        if (objectCrc != null) {
+            if (metadata == null) {
+                // the SDK does not expose the checksum headers of the part and complete responses, a HEAD request does
+                metadata = blobStore.execute(COSOperation.HEAD, client -> client.getObjectMetadata(blobStore.bucket(), key));
+            }
+            verifyUpload(blobName, objectCrc, COSCrc64.fromMetadata(metadata));
+        }
+    }
+
+    /**
+     * Returns the metadata of the object at the given key if it has the given length and, when both are known, the given
+     * checksum, or {@code null} otherwise.
+     */
+    @Nullable
+    private ObjectMetadata completedObjectMetadata(String key, long length, @Nullable Long objectCrc) {
+        final ObjectMetadata metadata;
+        try {
+            metadata = blobStore.execute(COSOperation.HEAD, client -> client.getObjectMetadata(blobStore.bucket(), key));
+        } catch (CosServiceException e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+        final Long storedCrc = COSCrc64.fromMetadata(metadata);
+        if (metadata.getContentLength() != length || (objectCrc != null && storedCrc != null && storedCrc.equals(objectCrc) == false)) {
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * Aborts a multipart upload that failed with the given exception, which is returned. A failure to abort the upload is
+     * added to the suppressed exceptions of the failure of the upload rather than hiding it.
+     */
+    private <E extends Exception> E abortMultipartUpload(String key, @Nullable String uploadId, E failure) {
+        if (Strings.hasLength(uploadId)) {
+            final AbortMultipartUploadRequest abortRequest = new AbortMultipartUploadRequest(blobStore.bucket(), key, uploadId);
+            try {
+                blobStore.executeVoid(COSOperation.MULTIPART, client -> client.abortMultipartUpload(abortRequest));
+            } catch (CosClientException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Fails an upload if COS stored different bytes than were sent, removing the corrupted blob. Nothing is checked if COS
+     * did not report a checksum.
+     */
+    private void verifyUpload(String blobName, long sentCrc, @Nullable Long storedCrc) throws IOException {
+        if (storedCrc == null || storedCrc == sentCrc) {
+            return;
+        }
+        final IOException failure = new IOException("Blob object [" + blobName + "] was corrupted during upload: sent bytes have CRC64 ["
+                + COSCrc64.toString(sentCrc) + "] but COS stored [" + COSCrc64.toString(storedCrc) + "]");
+        final String key = buildKey(blobName);
+        try {
+            blobStore.executeVoid(COSOperation.DELETE, client -> client.deleteObject(blobStore.bucket(), key));
+        } catch (CosClientException e) {
+            failure.addSuppressed(e);
+        }
+        throw failure;
+    }
+
+    /**
+     * Marks the current position of a stream that is about to be uploaded, and returns the position in the file if the
+     * stream reads a file and can only be rewound through its channel, or {@code -1} otherwise.
+     */
+    private static long markStream(InputStream inputStream, long blobSize) throws IOException {
+        if (inputStream.markSupported()) {
+            inputStream.mark(Math.toIntExact(Math.min(blobSize + 1, Integer.MAX_VALUE)));
+            return -1L;
+        }
+        return ((FileInputStream) inputStream).getChannel().position();
+    }
+
+    private static void resetStream(InputStream inputStream, long filePosition, String blobName) {
+        try {
+            if (filePosition >= 0L) {
+                // the channel shares its position with the stream
+                ((FileInputStream) inputStream).getChannel().position(filePosition);
+            } else {
+                inputStream.reset();
+            }
+        } catch (IOException e) {
+            throw new CosClientException("Unable to reset the stream of blob [" + blobName + "] to retry its upload", e);
+        }
+    }
+
+    /**
+     * Waits for all the given transfers to complete, even if some of them fail, and returns their results in order.
+     */
+    static <T> List<T> awaitAll(List<? extends Future<T>> futures) throws InterruptedException {
+        final List<T> results = new ArrayList<>(futures.size());
+        RuntimeException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                failure = ExceptionsHelper.useOrSuppress(failure,
+                        cause instanceof RuntimeException ? (RuntimeException) cause : new CosClientException(cause));
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the given requests to complete, whatever their outcome, without giving up when the thread is interrupted.
+     * The interrupt flag is restored once all of them completed.
+     */
+    static void awaitUninterruptibly(List<? extends Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -165,10 +944,11 @@ public class COSBlobContainer extends AbstractBlobContainer {
     @Override
     public void deleteBlobIgnoringIfNotExists(String blobName) throws IOException {
         try {
-            SocketAccess.doPrivilegedVoid(() ->
-                    blobStore.client().deleteObject(blobStore.bucket(), buildKey(blobName)));
+            blobStore.executeVoid(COSOperation.DELETE, client -> client.deleteObject(blobStore.bucket(), buildKey(blobName)));
         } catch (CosClientException e) {
             throw new IOException("Exception when deleting blob [" + blobName + "]", e);
+        } finally {
+            blobStore.onModified(Collections.singletonList(buildKey(blobName)));
         }
     }
 
@@ -176,41 +956,73 @@ public class COSBlobContainer extends AbstractBlobContainer {
     public DeleteResult delete() throws IOException {
         final AtomicLong deletedBlobs = new AtomicLong();
         final AtomicLong deletedBytes = new AtomicLong();
-        try {
-            ObjectListing prevListing = null;
-            while(true) {
-                ObjectListing list;
-                if (prevListing != null) {
-                    final ObjectListing finalPrevListing = prevListing;
-                    list = SocketAccess.doPrivileged(() -> blobStore.client().listNextBatchOfObjects(finalPrevListing));
-                } else {
-                    final ListObjectsRequest listObjectsRequest = new ListObjectsRequest();
-                    listObjectsRequest.setBucketName(blobStore.bucket());
-                    listObjectsRequest.setPrefix(keyPath);
-                    list = SocketAccess.doPrivileged(() -> blobStore.client().listObjects(listObjectsRequest));
-                }
+        final int maxConcurrentDeletes = blobStore.maxConcurrentDeletes();
+        // listing runs on this thread while up to maxConcurrentDeletes batches are deleted in the background
+        final Semaphore permits = new Semaphore(maxConcurrentDeletes);
+        final Set<String> outstanding = ConcurrentCollections.newConcurrentSet();
+        final AtomicReference<Exception> deleteFailure = new AtomicReference<>();
+        final ListObjectsRequest listObjectsRequest = new ListObjectsRequest();
+        listObjectsRequest.setBucketName(blobStore.bucket());
+        listObjectsRequest.setPrefix(keyPath);
+        try (COSListingIterator listing = new COSListingIterator(blobStore, listObjectsRequest)) {
+            while (listing.hasNext() && deleteFailure.get() == null) {
+                final ObjectListing list = listing.next();
                 final List<String> blobsToDelete = new ArrayList<>();
                 list.getObjectSummaries().forEach(cosObjectSummary -> {
                     deletedBlobs.incrementAndGet();
                     deletedBytes.addAndGet(cosObjectSummary.getSize());
                     blobsToDelete.add(cosObjectSummary.getKey());
                 });
-                if (list.isTruncated()) {
-                    doDeleteBlobs(blobsToDelete, false);
-                    prevListing = list;
-                } else {
-                    final List<String> lastBlobToDelete = new ArrayList<>(blobsToDelete);
-                    lastBlobToDelete.add(keyPath);
-                    doDeleteBlobs(lastBlobToDelete, false);
-                    break;
+                if (list.isTruncated() == false) {
+                    blobsToDelete.add(keyPath);
                 }
+                submitDeletes(blobsToDelete, permits, outstanding, deleteFailure);
             }
         } catch (CosClientException e) {
-            throw new IOException("Exception when deleting blob container [\" + keyPath + \"]" + e);
+            throw new IOException("Exception when deleting blob container [" + keyPath + "]", e);
+        } finally {
+            // batches already sent are waited for, also if listing failed or this thread was interrupted
+            permits.acquireUninterruptibly(maxConcurrentDeletes);
+            permits.release(maxConcurrentDeletes);
+            blobStore.onModified(Collections.singletonList(keyPath));
         }
+        if (deleteFailure.get() != null) {
+            throw new IOException("Exception when deleting blob container [" + keyPath + "], failed to delete blobs " + outstanding,
+                    deleteFailure.get());
+        }
+        assert outstanding.isEmpty();
         return new DeleteResult(deletedBlobs.get(), deletedBytes.get());
     }
 
+    /**
+     * Sends the given keys in bulk delete batches without waiting for them to complete, blocking while all permits are
+     * taken by batches that are still being deleted.
+     */
+    private void submitDeletes(List<String> keys, Semaphore permits, Set<String> outstanding,
+                               AtomicReference<Exception> deleteFailure) throws IOException {
+        for (int from = 0; from < keys.size(); from += MAX_BULK_DELETES) {
+            final List<String> partition = keys.subList(from, Math.min(keys.size(), from + MAX_BULK_DELETES));
+            final DeleteObjectsRequest deleteRequest = bulkDelete(blobStore.bucket(), partition);
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while deleting blob container [" + keyPath + "]", e);
+            }
+            outstanding.addAll(partition);
+            deleteBatch(deleteRequest, outstanding).whenComplete((result, e) -> {
+                if (e != null) {
+                    final Exception failure = e instanceof Exception ? (Exception) e : new CosClientException(e.getMessage(), e);
+                    // the first failure is reported and the others are attached to it, exactly once each
+                    if (deleteFailure.compareAndSet(null, failure) == false) {
+                        deleteFailure.get().addSuppressed(failure);
+                    }
+                }
+                permits.release();
+            });
+        }
+    }
+
     @Override
     public void deleteBlobsIgnoringIfNotExists(List<String> blobNames) throws IOException {
         doDeleteBlobs(blobNames, true);
@@ -220,12 +1032,13 @@ public class COSBlobContainer extends AbstractBlobContainer {
         if (blobNames.isEmpty()) {
             return;
         }
-        final Set<String> outstanding;
+        final Set<String> outstanding = ConcurrentCollections.newConcurrentSet();
         if (relative) {
-            outstanding = blobNames.stream().map(this::buildKey).collect(Collectors.toSet());
+            blobNames.stream().map(this::buildKey).forEach(outstanding::add);
         } else {
-            outstanding = new HashSet<>(blobNames);
+            outstanding.addAll(blobNames);
         }
+        final List<CompletableFuture<DeleteObjectsResult>> deletions = new ArrayList<>();
         try {
             final List<DeleteObjectsRequest> deleteRequests = new ArrayList<>();
             final List<String> partition = new ArrayList<>();
@@ -239,50 +1052,77 @@ public class COSBlobContainer extends AbstractBlobContainer {
             if (partition.isEmpty() == false) {
                 deleteRequests.add(bulkDelete(blobStore.bucket(), partition));
             }
-            SocketAccess.doPrivilegedVoid( () -> {
-                CosClientException aex = null;
-                for (DeleteObjectsRequest deleteRequest : deleteRequests) {
-                    List<String> keyInRequest = deleteRequest.getKeys().stream().map(DeleteObjectsRequest.KeyVersion::getKey).collect(Collectors.toList());
-                    try {
-                        blobStore.client().deleteObjects(deleteRequest);
-                        outstanding.removeAll(keyInRequest);
-                    } catch (MultiObjectDeleteException e) {
-                        outstanding.removeAll(keyInRequest);
-                        outstanding.addAll(
-                                e.getErrors().stream().map(MultiObjectDeleteException.DeleteError::getKey).collect(Collectors.toList())
-                        );
-                        aex = ExceptionsHelper.useOrSuppress(aex, e);
-                    } catch (CosClientException e) {
-                        aex = ExceptionsHelper.useOrSuppress(aex, e);
-                    }
-                }
-                if (aex != null) {
-                    throw aex;
-                }
-            });
+            final Semaphore permits = new Semaphore(blobStore.maxConcurrentDeletes());
+            for (DeleteObjectsRequest deleteRequest : deleteRequests) {
+                permits.acquire();
+                deletions.add(deleteBatch(deleteRequest, outstanding).whenComplete((result, e) -> permits.release()));
+            }
+            awaitAll(deletions);
+        } catch (InterruptedException e) {
+            // the batches already sent are waited for, so that the keys reported as not deleted are accurate
+            awaitUninterruptibly(deletions);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deleting blobs [" + outstanding + "]", e);
         } catch (Exception e) {
             throw new IOException("Failed to delete blobs [" + outstanding + "]", e);
+        } finally {
+            blobStore.onModified(relative ? blobNames.stream().map(this::buildKey).collect(Collectors.toList()) : blobNames);
         }
         assert outstanding.isEmpty();
     }
 
-    private static DeleteObjectsRequest bulkDelete(String bucket, List<String> blobs) {
+    /**
+     * Sends a single bulk delete request and, once it completes, removes the keys it deleted from {@code outstanding},
+     * leaving only the keys that the service reported as failed.
+     */
+    private CompletableFuture<DeleteObjectsResult> deleteBatch(DeleteObjectsRequest deleteRequest, Set<String> outstanding) {
+        final List<String> keysInRequest =
+                deleteRequest.getKeys().stream().map(DeleteObjectsRequest.KeyVersion::getKey).collect(Collectors.toList());
+        return blobStore.executeAsync(COSOperation.DELETE, client -> client.deleteObjects(deleteRequest)).whenComplete((result, e) -> {
+            if (e == null) {
+                outstanding.removeAll(keysInRequest);
+            } else if (e instanceof MultiObjectDeleteException) {
+                outstanding.removeAll(keysInRequest);
+                outstanding.addAll(((MultiObjectDeleteException) e).getErrors().stream()
+                        .map(MultiObjectDeleteException.DeleteError::getKey).collect(Collectors.toList()));
+            }
+        });
+    }
+
+    static DeleteObjectsRequest bulkDelete(String bucket, List<String> blobs) {
         return new DeleteObjectsRequest(bucket).withKeys(blobs.toArray(Strings.EMPTY_ARRAY)).withQuiet(true);
     }
 
 
     @Override
     public Map<String, BlobMetaData> listBlobsByPrefix(@Nullable String blobNamePrefix) throws IOException {
-        try {
-            return executeListing(generateListObjectsRequest(blobNamePrefix == null ? keyPath : buildKey(blobNamePrefix)))
-                        .stream()
-                        .flatMap(listing -> listing.getObjectSummaries().stream())
-                        .map(summary -> new PlainBlobMetaData(summary.getKey().substring(keyPath.length()), summary.getSize()))
-                        .collect(Collectors.toMap(PlainBlobMetaData::name, Function.identity()));
+        final String prefix = blobNamePrefix == null ? keyPath : buildKey(blobNamePrefix);
+        final COSListingCache listingCache = blobStore.listingCache();
+        if (listingCache == null) {
+            return doListBlobs(prefix, blobNamePrefix);
+        }
+        final Map<String, BlobMetaData> cached = listingCache.getBlobs(prefix);
+        if (cached != null) {
+            return cached;
+        }
+        final long generation = listingCache.generation();
+        return listingCache.putBlobs(prefix, doListBlobs(prefix, blobNamePrefix), generation);
+    }
+
+    private Map<String, BlobMetaData> doListBlobs(String prefix, @Nullable String blobNamePrefix) throws IOException {
+        final Map<String, BlobMetaData> blobs = new HashMap<>();
+        try (COSListingIterator listing = new COSListingIterator(blobStore, generateListObjectsRequest(prefix))) {
+            // summaries are converted page by page so that only one page of the listing is ever referenced
+            while (listing.hasNext()) {
+                for (COSObjectSummary summary : listing.next().getObjectSummaries()) {
+                    final String name = summary.getKey().substring(keyPath.length());
+                    blobs.put(name, new PlainBlobMetaData(name, summary.getSize()));
+                }
+            }
         } catch (CosClientException e) {
             throw new IOException("Exception when listing blobs by prefix [" + blobNamePrefix + "]", e);
         }
-
+        return blobs;
     }
 
     @Override
@@ -292,44 +1132,41 @@ public class COSBlobContainer extends AbstractBlobContainer {
 
     @Override
     public Map<String, BlobContainer> children() throws IOException {
-        try {
-            Map<String, BlobContainer> a = executeListing(generateListObjectsRequest(keyPath)).stream()
-                    .flatMap(listing -> listing.getCommonPrefixes().stream())
-                    .map(prefix -> prefix.substring(keyPath.length()))
-                    .filter(name -> name.isEmpty() == false)
-                    .map(name -> name.substring(0, name.length() - 1))
-                    .collect(Collectors.toMap(Function.identity(), name -> blobStore.blobContainer(path().add(name))));
-
-            return executeListing(generateListObjectsRequest(keyPath)).stream()
-                    .flatMap(listing -> listing.getCommonPrefixes().stream())
-                    .map(prefix -> prefix.substring(keyPath.length()))
-                    .filter(name -> name.isEmpty() == false)
-                    .map(name -> name.substring(0, name.length() - 1))
-                    .collect(Collectors.toMap(Function.identity(), name -> blobStore.blobContainer(path().add(name))));
-        } catch (CosClientException e) {
-            throw new IOException("Exception when listing children of [" + path().buildAsString() + ']', e);
+        final COSListingCache listingCache = blobStore.listingCache();
+        final Set<String> childNames;
+        if (listingCache == null) {
+            childNames = doListChildren();
+        } else {
+            final Set<String> cached = listingCache.getChildren(keyPath);
+            if (cached != null) {
+                childNames = cached;
+            } else {
+                final long generation = listingCache.generation();
+                childNames = listingCache.putChildren(keyPath, doListChildren(), generation);
+            }
         }
+        final Map<String, BlobContainer> children = new HashMap<>(childNames.size());
+        for (String childName : childNames) {
+            children.put(childName, blobStore.blobContainer(path().add(childName)));
+        }
+        return children;
     }
 
-    private List<ObjectListing> executeListing(ListObjectsRequest listObjectsRequest) {
-        final List<ObjectListing> results = new ArrayList<>();
-        ObjectListing prevListing = null;
-        while (true) {
-            ObjectListing list;
-            if (prevListing != null) {
-                final ObjectListing finalPrevListing = prevListing;
-                list = SocketAccess.doPrivileged(() -> blobStore.client().listNextBatchOfObjects(finalPrevListing));
-            } else {
-                list = SocketAccess.doPrivileged(() -> blobStore.client().listObjects(listObjectsRequest));
-            }
-            results.add(list);
-            if (list.isTruncated()) {
-                prevListing = list;
-            } else {
-                break;
+    private Set<String> doListChildren() throws IOException {
+        final Set<String> children = new HashSet<>();
+        try (COSListingIterator listing = new COSListingIterator(blobStore, generateListObjectsRequest(keyPath))) {
+            while (listing.hasNext()) {
+                for (String prefix : listing.next().getCommonPrefixes()) {
+                    final String name = prefix.substring(keyPath.length());
+                    if (name.isEmpty() == false) {
+                        children.add(name.substring(0, name.length() - 1));
+                    }
+                }
             }
+        } catch (CosClientException e) {
+            throw new IOException("Exception when listing children of [" + path().buildAsString() + ']', e);
         }
-        return results;
+        return children;
     }
 
     private ListObjectsRequest generateListObjectsRequest(String keyPath) {
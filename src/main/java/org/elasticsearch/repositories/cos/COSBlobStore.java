@@ -1,24 +1,151 @@
 package org.elasticsearch.repositories.cos;
 
 import com.qcloud.cos.COSClient;
+import com.qcloud.cos.exception.CosClientException;
+import org.apache.http.pool.PoolStats;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.blobstore.BlobContainer;
 import org.elasticsearch.common.blobstore.BlobPath;
 import org.elasticsearch.common.blobstore.BlobStore;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class COSBlobStore implements BlobStore {
-    private final COSClient client;
+
+    private static final Logger logger = LogManager.getLogger(COSBlobStore.class);
+
+    private final COSEndpointRouter endpointRouter;
     private final String bucket;
+    private final long multipartThreshold;
+    private final long partSize;
+    private final PartBufferPool partBuffers;
+    private final long downloadChunkSize;
+    private final int maxConcurrentDownloadChunks;
+    private final int maxReadRetries;
+    private final boolean verifyChecksums;
+    private final COSBlobCodec dataCodec;
+    private final int dataCompressionLevel;
+    private final int maxConcurrentDeletes;
+    @Nullable
+    private final COSListingCache listingCache;
+    @Nullable
+    private final COSBlobCache blobCache;
+    @Nullable
+    private final COSDiskCache diskCache;
+    @Nullable
+    private final COSPartPrefetcher partPrefetcher;
+    // sends the requests of executeAsync, such as the parts of a multipart upload or the chunks of a parallel download
+    private static final String TRANSFER_THREAD_NAME = "cos_transfer";
 
+    private final ExecutorService executor;
+    private final ThreadPool threadPool;
+    private final COSRetryPolicy retryPolicy;
+    private final COSRequestRateLimiter rateLimiter;
+    @Nullable
+    private final COSConcurrencyLimiter concurrencyLimiter;
+    @Nullable
+    private final COSRequestHedger hedger;
+    private final COSRequestStats stats = new COSRequestStats();
+
+
+    COSBlobStore(COSClientReference clientReference, String bucket, RepositoryMetaData metadata, ThreadPool threadPool) {
+        this(clientReference, bucket, metadata, threadPool, null);
+    }
 
-    COSBlobStore(COSClient client, String bucket) {
-        this.client = client;
+    COSBlobStore(COSClientReference clientReference, String bucket, RepositoryMetaData metadata, ThreadPool threadPool,
+                 @Nullable COSDiskCache diskCache) {
+        this(COSEndpointRouter.single(clientReference), bucket, metadata, threadPool, diskCache);
+    }
+
+    COSBlobStore(COSEndpointRouter endpointRouter, String bucket, RepositoryMetaData metadata, ThreadPool threadPool,
+                 @Nullable COSDiskCache diskCache) {
+        this.diskCache = diskCache;
+        this.endpointRouter = endpointRouter;
         this.bucket = bucket;
+        this.multipartThreshold = COSClientSettings.MULTIPART_THRESHOLD.get(metadata.settings()).getBytes();
+        this.partSize = COSClientSettings.PART_SIZE.get(metadata.settings()).getBytes();
+        final int maxConcurrentParts = COSClientSettings.MAX_CONCURRENT_PARTS.get(metadata.settings());
+        this.partBuffers = new PartBufferPool(maxConcurrentParts, Math.toIntExact(partSize),
+                COSClientSettings.DIRECT_PART_BUFFERS.get(metadata.settings()));
+        this.downloadChunkSize = COSClientSettings.DOWNLOAD_CHUNK_SIZE.get(metadata.settings()).getBytes();
+        this.maxConcurrentDownloadChunks = COSClientSettings.MAX_CONCURRENT_DOWNLOAD_CHUNKS.get(metadata.settings());
+        this.maxReadRetries = COSClientSettings.MAX_READ_RETRIES.get(metadata.settings());
+        this.verifyChecksums = COSClientSettings.VERIFY_CHECKSUMS.get(metadata.settings());
+        this.dataCodec = COSClientSettings.DATA_COMPRESSION.get(metadata.settings());
+        this.dataCompressionLevel = COSClientSettings.DATA_COMPRESSION_LEVEL.get(metadata.settings());
+        this.maxConcurrentDeletes = COSClientSettings.MAX_CONCURRENT_DELETES.get(metadata.settings());
+        this.retryPolicy = new COSRetryPolicy(COSClientSettings.MAX_RETRIES.get(metadata.settings()),
+                COSClientSettings.RETRY_BASE_DELAY.get(metadata.settings()), COSClientSettings.RETRY_MAX_DELAY.get(metadata.settings()),
+                COSClientSettings.RETRY_BUDGET.get(metadata.settings()));
+        this.rateLimiter = new COSRequestRateLimiter(COSClientSettings.MAX_LIST_REQUESTS_PER_SEC.get(metadata.settings()),
+                COSClientSettings.MAX_PUT_REQUESTS_PER_SEC.get(metadata.settings()),
+                COSClientSettings.MAX_GET_REQUESTS_PER_SEC.get(metadata.settings()),
+                COSClientSettings.MAX_DELETE_REQUESTS_PER_SEC.get(metadata.settings()));
+        if (COSClientSettings.ADAPTIVE_CONCURRENCY.get(metadata.settings())) {
+            this.concurrencyLimiter = new COSConcurrencyLimiter(COSClientSettings.MIN_CONCURRENT_REQUESTS.get(metadata.settings()),
+                    COSClientSettings.MAX_CONCURRENT_REQUESTS.get(metadata.settings()));
+        } else {
+            this.concurrencyLimiter = null;
+        }
+        if (COSClientSettings.HEDGE_REQUESTS.get(metadata.settings())) {
+            this.hedger = new COSRequestHedger(COSClientSettings.HEDGE_PERCENTILE.get(metadata.settings()),
+                    COSClientSettings.MAX_HEDGED_REQUESTS_RATIO.get(metadata.settings()));
+        } else {
+            this.hedger = null;
+        }
+        final TimeValue listingCacheTtl = COSClientSettings.LISTING_CACHE_TTL.get(metadata.settings());
+        if (listingCacheTtl.nanos() > 0) {
+            this.listingCache = new COSListingCache(listingCacheTtl, COSClientSettings.LISTING_CACHE_SIZE.get(metadata.settings()));
+        } else {
+            this.listingCache = null;
+        }
+        final long blobCacheSize = COSClientSettings.BLOB_CACHE_SIZE.get(metadata.settings()).getBytes();
+        if (blobCacheSize > 0) {
+            this.blobCache = new COSBlobCache(blobCacheSize, COSClientSettings.BLOB_CACHE_MAX_BLOB_SIZE.get(metadata.settings()).getBytes(),
+                    COSClientSettings.BLOB_CACHE_TTL.get(metadata.settings()));
+        } else {
+            this.blobCache = null;
+        }
+        final int prefetchParts = COSClientSettings.PREFETCH_PARTS.get(metadata.settings());
+        final long prefetchMaxBytes = COSClientSettings.PREFETCH_MAX_MEMORY.get(metadata.settings()).getBytes();
+        if (prefetchParts > 0 && prefetchMaxBytes > 0) {
+            this.partPrefetcher = new COSPartPrefetcher(prefetchParts, prefetchMaxBytes);
+        } else {
+            this.partPrefetcher = null;
+        }
+        int maxTransferThreads = maxConcurrentParts + maxConcurrentDownloadChunks + maxConcurrentDeletes;
+        if (hedger != null) {
+            // hedged reads wait for a request and its hedge on the transfer threads, which are mostly sent from snapshot threads
+            final ThreadPool.Info snapshotPool = threadPool.info(ThreadPool.Names.SNAPSHOT);
+            maxTransferThreads += 2 * (snapshotPool == null ? 1 : snapshotPool.getMax());
+        }
+        this.executor = EsExecutors.newScaling(COSRepository.TYPE + "[" + metadata.name() + "][transfer]", 0, maxTransferThreads,
+                30L, TimeUnit.SECONDS, EsExecutors.daemonThreadFactory(TRANSFER_THREAD_NAME), threadPool.getThreadContext());
+        this.threadPool = threadPool;
     }
 
     @Override
     public String toString() {
         return SocketAccess.doPrivileged(() ->
-                client.getClientConfig().getRegion() + "/" + bucket);
+                client().getClientConfig().getRegion() + "/" + bucket);
     }
 
     @Override
@@ -28,14 +155,438 @@ public class COSBlobStore implements BlobStore {
 
     @Override
     public void close() {
-        SocketAccess.doPrivilegedVoid(() -> client.shutdown());
+        ThreadPool.terminate(executor, 10L, TimeUnit.SECONDS);
+        endpointRouter.close();
     }
 
+    /**
+     * Returns the client of the primary endpoint, which is the first of {@code end_points}.
+     */
     public COSClient client() {
-        return client;
+        return endpointRouter.primary().client();
     }
 
     public String bucket() {
         return bucket;
     }
+
+    /**
+     * Sends a request to COS with the client of this blob store, waiting for the repository's request rate limit and
+     * retrying it according to the repository's retry policy. Every attempt counts against the rate limit. The request
+     * function is invoked once per attempt, so it must not reuse state that the previous attempt consumed.
+     */
+    <T> T execute(COSOperation operation, Function<COSClient, T> request) {
+        return execute(operation, request, true);
+    }
+
+    <T> T executeVoid(COSOperation operation, Consumer<COSClient> request) {
+        return execute(operation, client -> {
+            request.accept(client);
+            return null;
+        }, true);
+    }
+
+    /**
+     * Sends a request that cannot be retried, such as an upload from a stream that cannot be reset.
+     */
+    <T> T executeOnce(COSOperation operation, Function<COSClient, T> request) {
+        return execute(operation, request, false);
+    }
+
+    private <T> T execute(COSOperation operation, Function<COSClient, T> request, boolean retryable) {
+        int attempt = 1;
+        COSEndpointRouter.Endpoint previous = null;
+        while (true) {
+            acquireRateLimit(operation);
+            acquirePermit(operation);
+            final COSEndpointRouter.Endpoint endpoint = endpointRouter.select(operation, previous);
+            final long startNanos = System.nanoTime();
+            CosClientException failure = null;
+            try {
+                final T result = SocketAccess.doPrivileged(() -> request.apply(endpoint.client()));
+                onRequest(operation, endpoint, startNanos, null);
+                retryPolicy.onSuccess();
+                return result;
+            } catch (CosClientException e) {
+                failure = e;
+                onRequest(operation, endpoint, startNanos, e);
+                if (retryable == false || retryPolicy.shouldRetry(e, attempt) == false) {
+                    throw e;
+                }
+            } finally {
+                releasePermit(operation, System.nanoTime() - startNanos, failure);
+            }
+            logger.debug(new ParameterizedMessage("retrying [{}] request to bucket [{}], attempt [{}] of [{}]",
+                    operation, bucket, attempt, retryPolicy.maxRetries()), failure);
+            try {
+                retryPolicy.backoff(attempt);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                failure.addSuppressed(ie);
+                throw failure;
+            }
+            previous = endpoint;
+            attempt += 1;
+        }
+    }
+
+    private void onRequest(COSOperation operation, COSEndpointRouter.Endpoint endpoint, long startNanos,
+                           @Nullable CosClientException failure) {
+        final long tookNanos = System.nanoTime() - startNanos;
+        stats.onRequest(operation, tookNanos, failure);
+        endpointRouter.onResult(endpoint, operation, tookNanos, failure);
+        if (hedger != null && failure == null) {
+            hedger.onLatency(operation, tookNanos);
+        }
+    }
+
+    /**
+     * Sends a read request like {@link #execute}, and if hedging is enabled and the request is slower than most recent
+     * requests of its operation, sends the same request again and returns the result that comes first. The other request
+     * is cancelled if it was not sent yet, and its result is passed to {@code discard} otherwise, so that a response body
+     * is not leaked. The request function must therefore be safe to invoke concurrently. On a transfer thread, such as when
+     * a chunk read resumes, the request is sent inline without hedging, as waiting for requests queued on the transfer
+     * executor from one of its own threads could exhaust it.
+     */
+    <T> T executeHedged(COSOperation operation, Function<COSClient, T> request, Consumer<T> discard) {
+        final long hedgeDelayNanos = hedger == null ? -1L : hedger.hedgeDelayNanos(operation);
+        if (hedgeDelayNanos < 0L || isTransferThread()) {
+            return execute(operation, request);
+        }
+        final CompletableFuture<T> primary = executeAsync(operation, request, discard);
+        try {
+            try {
+                return await(primary, hedgeDelayNanos);
+            } catch (TimeoutException e) {
+                if (hedger.tryHedge() == false) {
+                    return await(primary);
+                }
+            }
+        } catch (RuntimeException e) {
+            primary.cancel(false);
+            throw e;
+        }
+        logger.trace("hedging [{}] request to bucket [{}] after [{}]", operation, bucket, TimeValue.timeValueNanos(hedgeDelayNanos));
+        final CompletableFuture<T> hedge = executeAsync(operation, request, discard);
+        final CompletableFuture<T> first = new CompletableFuture<>();
+        final AtomicReference<CompletableFuture<T>> winner = new AtomicReference<>();
+        final AtomicInteger failures = new AtomicInteger();
+        final BiConsumer<CompletableFuture<T>, CompletableFuture<T>> race = (future, other) -> future.whenComplete((result, e) -> {
+            if (e == null) {
+                if (winner.compareAndSet(null, future) == false) {
+                    discard.accept(result);
+                    return;
+                }
+                first.complete(result);
+                other.cancel(false);
+            } else if (failures.incrementAndGet() == 2 || isAnswer(e)) {
+                // an answer such as 404 settles the read, other failures wait for the other request
+                if (winner.compareAndSet(null, future)) {
+                    first.completeExceptionally(e);
+                    other.cancel(false);
+                }
+            }
+        });
+        race.accept(primary, hedge);
+        race.accept(hedge, primary);
+        try {
+            final T result = await(first);
+            if (winner.get() == hedge) {
+                hedger.onHedgeWin();
+            }
+            return result;
+        } finally {
+            primary.cancel(false);
+            hedge.cancel(false);
+        }
+    }
+
+    private static boolean isTransferThread() {
+        return Thread.currentThread().getName().contains(TRANSFER_THREAD_NAME + "[");
+    }
+
+    private static boolean isAnswer(Throwable e) {
+        return e instanceof CosClientException && COSRetryPolicy.isRetryable((CosClientException) e) == false;
+    }
+
+    /**
+     * Waits for the result of a request sent with {@link #executeAsync}, and throws the failure of the request as is.
+     */
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw awaitFailure(e);
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future, long timeoutNanos) throws TimeoutException {
+        try {
+            return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException | ExecutionException e) {
+            throw awaitFailure(e);
+        }
+    }
+
+    private RuntimeException awaitFailure(Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return new CosClientException("Interrupted while waiting for a request to bucket [" + bucket + "]", e);
+        }
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        }
+        return new CosClientException("Request to bucket [" + bucket + "] failed", e.getCause());
+    }
+
+    /**
+     * Sends a request to COS on the transfer executor and returns a future of its result. The request is rate limited,
+     * concurrency limited and retried like with {@link #execute}, but waiting for a rate limit token, a concurrency permit
+     * or a retry backoff does not hold a thread: the attempt is scheduled or queued instead, so a thread is only busy while
+     * a request is on the wire. Attempts that have not been sent yet are skipped once the future is cancelled.
+     */
+    <T> CompletableFuture<T> executeAsync(COSOperation operation, Function<COSClient, T> request) {
+        return executeAsync(operation, request, null);
+    }
+
+    /**
+     * Like {@link #executeAsync(COSOperation, Function)}, passing the result of a request that completes after the future
+     * was cancelled to {@code discard}.
+     */
+    private <T> CompletableFuture<T> executeAsync(COSOperation operation, Function<COSClient, T> request,
+                                                  @Nullable Consumer<T> discard) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        sendAsync(operation, request, discard, future, 1, null);
+        return future;
+    }
+
+    private <T> void sendAsync(COSOperation operation, Function<COSClient, T> request, @Nullable Consumer<T> discard,
+                               CompletableFuture<T> future, int attempt, @Nullable COSEndpointRouter.Endpoint previous) {
+        final Runnable send = () -> {
+            if (future.isDone()) {
+                releasePermit(operation, -1L, null);
+                return;
+            }
+            final COSEndpointRouter.Endpoint endpoint = endpointRouter.select(operation, previous);
+            final long startNanos = System.nanoTime();
+            T result = null;
+            RuntimeException failure = null;
+            try {
+                result = SocketAccess.doPrivileged(() -> request.apply(endpoint.client()));
+                onRequest(operation, endpoint, startNanos, null);
+                retryPolicy.onSuccess();
+            } catch (CosClientException e) {
+                failure = e;
+                onRequest(operation, endpoint, startNanos, e);
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                releasePermit(operation, System.nanoTime() - startNanos, failure);
+            }
+            // the future is only completed once the permit is released, as its callbacks run on this thread and may read a
+            // whole response body or send further requests, such as a chunk read that resumes
+            if (failure == null) {
+                if (future.complete(result) == false && discard != null) {
+                    discard.accept(result);
+                }
+            } else if (failure instanceof CosClientException && retryPolicy.shouldRetry((CosClientException) failure, attempt)) {
+                logger.debug(new ParameterizedMessage("retrying [{}] request to bucket [{}], attempt [{}] of [{}]",
+                        operation, bucket, attempt, retryPolicy.maxRetries()), failure);
+                runAfter(TimeUnit.MILLISECONDS.toNanos(retryPolicy.backoffDelayMillis(attempt)),
+                        () -> sendAsync(operation, request, discard, future, attempt + 1, endpoint), future);
+            } else {
+                future.completeExceptionally(failure);
+            }
+        };
+        runAfter(rateLimiter.reserve(operation), () -> acquirePermit(() -> {
+            try {
+                executor.execute(send);
+            } catch (RejectedExecutionException e) {
+                releasePermit(operation, -1L, null);
+                future.completeExceptionally(new CosClientException("Unable to send request to bucket [" + bucket + "]", e));
+            }
+        }), future);
+    }
+
+    /**
+     * Runs a task that does not block, such as handing a request off to the transfer executor, after the given delay.
+     */
+    private void runAfter(long delayNanos, Runnable task, CompletableFuture<?> future) {
+        if (delayNanos <= 0L) {
+            task.run();
+            return;
+        }
+        try {
+            threadPool.scheduler().schedule(threadPool.getThreadContext().preserveContext(task), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new CosClientException("Unable to send request to bucket [" + bucket + "]", e));
+        }
+    }
+
+    private void acquireRateLimit(COSOperation operation) {
+        try {
+            rateLimiter.acquire(operation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CosClientException("Interrupted while waiting to send a [" + operation + "] request to bucket [" + bucket + "]", e);
+        }
+    }
+
+    private void acquirePermit(COSOperation operation) {
+        if (concurrencyLimiter == null) {
+            return;
+        }
+        try {
+            concurrencyLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CosClientException("Interrupted while waiting to send a [" + operation + "] request to bucket [" + bucket + "]", e);
+        }
+    }
+
+    private void acquirePermit(Runnable onAcquired) {
+        if (concurrencyLimiter == null) {
+            onAcquired.run();
+        } else {
+            concurrencyLimiter.acquire(onAcquired);
+        }
+    }
+
+    /**
+     * Returns the permit of a request that took {@code tookNanos}, or that was never sent if negative.
+     */
+    private void releasePermit(COSOperation operation, long tookNanos, @Nullable Exception failure) {
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.release(operation, tookNanos, failure);
+        }
+    }
+
+    /**
+     * Returns the statistics of the connection pool of the primary endpoint, or {@code null} if unavailable.
+     */
+    @Nullable
+    public PoolStats connectionPoolStats() {
+        return endpointRouter.primary().clientReference().connectionPoolStats();
+    }
+
+    COSEndpointRouter endpointRouter() {
+        return endpointRouter;
+    }
+
+    /**
+     * Returns the hedging statistics of the repository's reads, or {@code null} if hedging is disabled.
+     */
+    @Nullable
+    COSRequestHedger hedger() {
+        return hedger;
+    }
+
+    /**
+     * Returns the adaptive limit of requests in flight of this blob store, or {@code null} if concurrency is not limited.
+     */
+    @Nullable
+    COSConcurrencyLimiter concurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Returns the request counters and latencies of this blob store.
+     */
+    COSRequestStats stats() {
+        return stats;
+    }
+
+    long multipartThreshold() {
+        return multipartThreshold;
+    }
+
+    long partSize() {
+        return partSize;
+    }
+
+    PartBufferPool partBuffers() {
+        return partBuffers;
+    }
+
+    long downloadChunkSize() {
+        return downloadChunkSize;
+    }
+
+    int maxConcurrentDownloadChunks() {
+        return maxConcurrentDownloadChunks;
+    }
+
+    int maxReadRetries() {
+        return maxReadRetries;
+    }
+
+    boolean verifyChecksums() {
+        return verifyChecksums;
+    }
+
+    /**
+     * Returns the codec new data blobs are encoded with.
+     */
+    COSBlobCodec dataCodec() {
+        return dataCodec;
+    }
+
+    int dataCompressionLevel() {
+        return dataCompressionLevel;
+    }
+
+    int maxConcurrentDeletes() {
+        return maxConcurrentDeletes;
+    }
+
+    /**
+     * Returns the listing cache of this blob store, or {@code null} if listings are not cached.
+     */
+    @Nullable
+    COSListingCache listingCache() {
+        return listingCache;
+    }
+
+    /**
+     * Returns the metadata blob cache of this blob store, or {@code null} if blobs are not cached.
+     */
+    @Nullable
+    COSBlobCache blobCache() {
+        return blobCache;
+    }
+
+    /**
+     * Returns the disk cache of downloaded data blobs of this blob store, or {@code null} if blobs are not cached on disk.
+     */
+    @Nullable
+    COSDiskCache diskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Returns the prefetcher of the parts of chunked files of this blob store, or {@code null} if parts are not prefetched.
+     */
+    @Nullable
+    COSPartPrefetcher partPrefetcher() {
+        return partPrefetcher;
+    }
+
+    long prefetchMaxBytes() {
+        return partPrefetcher == null ? 0L : partPrefetcher.maxBytes();
+    }
+
+    /**
+     * Invalidates the cached listings and blobs that could have been changed by modifying the given keys or key prefixes.
+     */
+    void onModified(Collection<String> keys) {
+        if (listingCache != null) {
+            listingCache.invalidate(keys);
+        }
+        if (blobCache != null) {
+            blobCache.invalidate(keys);
+        }
+        if (partPrefetcher != null) {
+            partPrefetcher.invalidate(keys);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Computes the CRC64 of a blob while it is read and, once the end of the blob is reached, fails the read if the bytes
+ * read do not match the length and checksum COS reported for the object. Skipped bytes are read and checksummed too.
+ */
+final class COSChecksumInputStream extends FilterInputStream {
+
+    private final String blobName;
+    private final long expectedLength;
+    private final long expectedCrc;
+    private final COSCrc64 crc = new COSCrc64();
+    private long read;
+    private boolean verified;
+
+    COSChecksumInputStream(InputStream in, String blobName, long expectedLength, long expectedCrc) {
+        super(in);
+        this.blobName = blobName;
+        this.expectedLength = expectedLength;
+        this.expectedCrc = expectedCrc;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b == -1) {
+            verify();
+        } else {
+            crc.update(b);
+            read += 1;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int n = super.read(b, off, len);
+        if (n == -1) {
+            verify();
+        } else {
+            crc.update(b, off, n);
+            read += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final byte[] buffer = new byte[(int) Math.min(8192L, Math.max(n, 0L))];
+        long skipped = 0L;
+        while (skipped < n) {
+            final int r = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (r == -1) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void verify() throws IOException {
+        if (verified) {
+            return;
+        }
+        verified = true;
+        if (read != expectedLength) {
+            throw new IOException("Blob object [" + blobName + "] ended after [" + read + "] bytes but COS reported ["
+                    + expectedLength + "] bytes");
+        }
+        if (crc.getValue() != expectedCrc) {
+            throw new IOException("Blob object [" + blobName + "] is corrupted: read bytes have CRC64 [" + COSCrc64.toString(crc.getValue())
+                    + "] but COS reported [" + COSCrc64.toString(expectedCrc) + "]");
+        }
+    }
+}
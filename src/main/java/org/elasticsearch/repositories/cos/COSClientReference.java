@@ -0,0 +1,118 @@
+package org.elasticsearch.repositories.cos;
+
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.http.IdleConnectionMonitorThread;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.AbstractRefCounted;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles the shutdown of the wrapped {@link COSClient} using reference counting. The client, and with it its HTTP
+ * connection pool, is shared by every repository with the same effective client settings and shut down once the
+ * {@link COSService} cache and the last repository using it have released it.
+ */
+public class COSClientReference extends AbstractRefCounted implements Releasable {
+
+    private static final Logger logger = LogManager.getLogger(COSClientReference.class);
+
+    /** How long the SDK keeps idle connections, which its own monitor thread enforces. */
+    static final TimeValue SDK_IDLE_CONNECTION_TIMEOUT = TimeValue.timeValueSeconds(5);
+
+    private final COSClient client;
+    @Nullable
+    private final PoolingHttpClientConnectionManager connectionManager;
+    @Nullable
+    private final IdleConnectionEvictor idleConnectionEvictor;
+
+    COSClientReference(COSClient client, TimeValue idleConnectionTimeout) {
+        super("COS_CLIENT");
+        this.client = client;
+        // the SDK does not expose its connection pool, so we look it up once through its private fields
+        final Object httpClient = readField(COSClient.class, client, "cosHttpClient");
+        final Object manager = httpClient == null ? null : readField(httpClient.getClass(), httpClient, "connectionManager");
+        this.connectionManager = manager instanceof PoolingHttpClientConnectionManager
+                ? (PoolingHttpClientConnectionManager) manager : null;
+        this.idleConnectionEvictor = connectionManager == null || idleConnectionTimeout.equals(SDK_IDLE_CONNECTION_TIMEOUT)
+                ? null : replaceIdleConnectionMonitor(httpClient, connectionManager, idleConnectionTimeout);
+    }
+
+    /**
+     * Call when the client is not needed anymore.
+     */
+    @Override
+    public void close() {
+        decRef();
+    }
+
+    /**
+     * Returns the underlying {@link COSClient}.
+     */
+    public COSClient client() {
+        return client;
+    }
+
+    /**
+     * Returns the leased, pending, available and maximum connection counts of the client's connection pool, or
+     * {@code null} if the pool cannot be accessed.
+     */
+    @Nullable
+    public PoolStats connectionPoolStats() {
+        return connectionManager == null ? null : connectionManager.getTotalStats();
+    }
+
+    @Override
+    protected void closeInternal() {
+        if (idleConnectionEvictor != null) {
+            SocketAccess.doPrivilegedVoid(idleConnectionEvictor::shutdown);
+        }
+        SocketAccess.doPrivilegedVoid(client::shutdown);
+    }
+
+    /**
+     * Stops the SDK's monitor thread, which closes connections idle for a fixed five seconds, and closes idle connections
+     * after the given timeout instead. The SDK's monitor is kept if it cannot be stopped.
+     */
+    @Nullable
+    private static IdleConnectionEvictor replaceIdleConnectionMonitor(Object httpClient, PoolingHttpClientConnectionManager manager,
+                                                                      TimeValue idleConnectionTimeout) {
+        final Object monitor = readField(httpClient.getClass(), httpClient, "idleConnectionMonitor");
+        if (monitor instanceof IdleConnectionMonitorThread == false) {
+            logger.warn("unable to configure the idle connection timeout of the cos client, idle connections are closed after [{}]",
+                    SDK_IDLE_CONNECTION_TIMEOUT);
+            return null;
+        }
+        return SocketAccess.doPrivileged(() -> {
+            ((IdleConnectionMonitorThread) monitor).shutdown();
+            // checks at least once a second, so that idle connections do not outlive the timeout by much
+            final long checkIntervalMillis = Math.max(1L, Math.min(1000L, idleConnectionTimeout.millis() / 2));
+            final IdleConnectionEvictor evictor = new IdleConnectionEvictor(manager, checkIntervalMillis, TimeUnit.MILLISECONDS,
+                    idleConnectionTimeout.millis(), TimeUnit.MILLISECONDS);
+            evictor.start();
+            return evictor;
+        });
+    }
+
+    @Nullable
+    private static Object readField(Class<?> type, Object target, String name) {
+        return SocketAccess.doPrivileged(() -> {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(target);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.debug(() -> new ParameterizedMessage("unable to access field [{}] of the cos client", name), e);
+                return null;
+            }
+        });
+    }
+}
@@ -5,10 +5,13 @@ import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.settings.SecureSetting;
 import org.elasticsearch.common.settings.SecureString;
+import org.elasticsearch.common.settings.Settings;
 
 import static org.elasticsearch.common.settings.Setting.*;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 public class COSClientSecretSettings {
 
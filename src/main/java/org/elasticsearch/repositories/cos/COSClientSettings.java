@@ -1,14 +1,25 @@
 package org.elasticsearch.repositories.cos;
 
+import com.qcloud.cos.http.HttpProtocol;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
 
 import static org.elasticsearch.common.settings.Setting.*;
 
 public class COSClientSettings {
     private static final ByteSizeValue MIN_CHUNK_SIZE = new ByteSizeValue(1, ByteSizeUnit.MB);
     private static final ByteSizeValue MAX_CHUNK_SIZE = new ByteSizeValue(1, ByteSizeUnit.GB);
+    private static final ByteSizeValue MIN_PART_SIZE = new ByteSizeValue(1, ByteSizeUnit.MB);
+    private static final ByteSizeValue MAX_PART_SIZE = new ByteSizeValue(1, ByteSizeUnit.GB);
 
     public static final Setting<String> ACCOUNT =
             simpleString("account", Setting.Property.NodeScope, Setting.Property.Dynamic);
@@ -30,4 +41,198 @@ public class COSClientSettings {
             byteSizeSetting("chunk_size", MAX_CHUNK_SIZE, MIN_CHUNK_SIZE, MAX_CHUNK_SIZE,
                     Setting.Property.NodeScope, Setting.Property.Dynamic);
     public static final Setting<String> END_POINT = Setting.simpleString("end_point", "", Property.NodeScope, Property.Dynamic);
+    /**
+     * Address ({@code host[:port]}) every request is sent to instead of the address the bucket's domain resolves to. The
+     * {@code Host} header still names the bucket, so this works with COS compatible gateways and local test fixtures.
+     */
+    public static final Setting<String> ENDPOINT_OVERRIDE =
+            simpleString("endpoint_override", "", Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /**
+     * Domain suffixes of the endpoints requests are spread over, such as the regional, internal and global acceleration
+     * domains, each request going to the fastest healthy one. Defaults to {@code end_point} alone.
+     */
+    public static final Setting<List<String>> END_POINTS =
+            listSetting("end_points", Collections.emptyList(), Function.identity(), Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Domain suffixes of the endpoints preferred for downloads and uploads of blob content, such as the acceleration domain. */
+    public static final Setting<List<String>> TRANSFER_END_POINTS =
+            listSetting("transfer_end_points", Collections.emptyList(), Function.identity(), Setting.Property.NodeScope,
+                    Setting.Property.Dynamic);
+    /** Number of requests in a row an endpoint must fail with network or server errors to be taken out of rotation. */
+    public static final Setting<Integer> END_POINT_FAILURE_THRESHOLD =
+            intSetting("end_point_failure_threshold", 3, 1, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** How long an endpoint stays out of rotation before it is probed again. */
+    public static final Setting<TimeValue> END_POINT_RETRY_INTERVAL =
+            timeSetting("end_point_retry_interval", TimeValue.timeValueSeconds(30), TimeValue.ZERO,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Protocol used to talk to COS, {@code https} or {@code http}. */
+    public static final Setting<HttpProtocol> PROTOCOL =
+            new Setting<>("protocol", "https", s -> HttpProtocol.valueOf(s.toLowerCase(Locale.ROOT)),
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+
+    /** Maximum number of pooled HTTP connections of the client, shared by all repositories using the same client. */
+    public static final Setting<Integer> MAX_CONNECTIONS =
+            intSetting("max_connections", 1024, 1, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Timeout for establishing a connection to COS. */
+    public static final Setting<TimeValue> CONNECTION_TIMEOUT =
+            timeSetting("connection_timeout", TimeValue.timeValueSeconds(30), TimeValue.ZERO,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Timeout for waiting on data from an established connection. */
+    public static final Setting<TimeValue> SOCKET_TIMEOUT =
+            timeSetting("socket_timeout", TimeValue.timeValueSeconds(30), TimeValue.ZERO,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** How long a pooled connection may stay idle before it is closed rather than kept alive for the next request. */
+    public static final Setting<TimeValue> CONNECTION_IDLE_TIMEOUT =
+            timeSetting("connection_idle_timeout", COSClientReference.SDK_IDLE_CONNECTION_TIMEOUT, TimeValue.timeValueMillis(100),
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Timeout for leasing a connection from the pool, {@code -1} waits indefinitely. */
+    public static final Setting<TimeValue> CONNECTION_REQUEST_TIMEOUT =
+            timeSetting("connection_request_timeout", TimeValue.MINUS_ONE, TimeValue.MINUS_ONE,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+
+    /** Number of times a request failing with a retryable error is retried. */
+    public static final Setting<Integer> MAX_RETRIES =
+            intSetting("max_retries", 3, 0, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Base delay of the exponential backoff between retries. */
+    public static final Setting<TimeValue> RETRY_BASE_DELAY =
+            timeSetting("retry_base_delay", TimeValue.timeValueMillis(50), TimeValue.ZERO,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Upper bound of the delay between retries. */
+    public static final Setting<TimeValue> RETRY_MAX_DELAY =
+            timeSetting("retry_max_delay", TimeValue.timeValueSeconds(10), TimeValue.ZERO,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Number of retries a repository may spend before retries are only earned back by successful requests. */
+    public static final Setting<Integer> RETRY_BUDGET =
+            intSetting("retry_budget", 100, 0, Setting.Property.NodeScope);
+
+    /** Maximum list requests per second sent by a repository, {@code 0} for no limit. */
+    public static final Setting<Double> MAX_LIST_REQUESTS_PER_SEC =
+            doubleSetting("max_list_requests_per_sec", 0.0, 0.0, Setting.Property.NodeScope);
+    /** Maximum upload requests (single PUTs, parts and multipart management) per second, {@code 0} for no limit. */
+    public static final Setting<Double> MAX_PUT_REQUESTS_PER_SEC =
+            doubleSetting("max_put_requests_per_sec", 0.0, 0.0, Setting.Property.NodeScope);
+    /** Maximum get requests, including ranged reads, per second, {@code 0} for no limit. */
+    public static final Setting<Double> MAX_GET_REQUESTS_PER_SEC =
+            doubleSetting("max_get_requests_per_sec", 0.0, 0.0, Setting.Property.NodeScope);
+    /** Maximum delete requests per second, each bulk delete counting once, {@code 0} for no limit. */
+    public static final Setting<Double> MAX_DELETE_REQUESTS_PER_SEC =
+            doubleSetting("max_delete_requests_per_sec", 0.0, 0.0, Setting.Property.NodeScope);
+
+    /** Blobs larger than this are uploaded in parts with multipart upload, smaller ones with a single PUT. */
+    public static final Setting<ByteSizeValue> MULTIPART_THRESHOLD =
+            byteSizeSetting("multipart_threshold", new ByteSizeValue(128, ByteSizeUnit.MB), MIN_PART_SIZE,
+                    COSService.MAX_SINGLE_FILE_SIZE, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Size of each part of a multipart upload, and of each reusable in-memory part buffer. */
+    public static final Setting<ByteSizeValue> PART_SIZE =
+            byteSizeSetting("part_size", new ByteSizeValue(32, ByteSizeUnit.MB), MIN_PART_SIZE, MAX_PART_SIZE,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Number of parts uploaded concurrently per repository, which also bounds the number of part buffers. */
+    public static final Setting<Integer> MAX_CONCURRENT_PARTS =
+            intSetting("max_concurrent_parts", 4, 1, 64, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Whether part buffers are allocated outside the heap, as direct buffers counted against the JVM's direct memory limit. */
+    public static final Setting<Boolean> DIRECT_PART_BUFFERS =
+            boolSetting("direct_part_buffers", false, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /**
+     * Size of the byte ranges large blobs are downloaded in. Each stream over a large blob holds up to
+     * {@code max_concurrent_download_chunks + 1} of them in memory.
+     */
+    public static final Setting<ByteSizeValue> DOWNLOAD_CHUNK_SIZE =
+            byteSizeSetting("download_chunk_size", new ByteSizeValue(4, ByteSizeUnit.MB), MIN_PART_SIZE, MAX_PART_SIZE,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Number of byte ranges of a single blob downloaded concurrently, {@code 1} reads blobs with a single GET. */
+    public static final Setting<Integer> MAX_CONCURRENT_DOWNLOAD_CHUNKS =
+            intSetting("max_concurrent_download_chunks", 2, 1, 64, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Number of bulk delete requests of up to 1000 keys each sent concurrently when deleting many blobs. */
+    public static final Setting<Integer> MAX_CONCURRENT_DELETES =
+            intSetting("max_concurrent_deletes", 4, 1, 64, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Whether the number of requests in flight is adapted to the latency and throttling of the bucket. */
+    public static final Setting<Boolean> ADAPTIVE_CONCURRENCY =
+            boolSetting("adaptive_concurrency", false, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /**
+     * Number of requests in flight the adaptive concurrency limit starts from and never goes below, at most
+     * {@link #MAX_CONCURRENT_REQUESTS}.
+     */
+    public static final Setting<Integer> MIN_CONCURRENT_REQUESTS =
+            new Setting<>("min_concurrent_requests", "2", s -> parseInt(s, 1, "min_concurrent_requests"),
+                    new MinConcurrentRequestsValidator(), Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Number of requests in flight the adaptive concurrency limit never goes above. */
+    public static final Setting<Integer> MAX_CONCURRENT_REQUESTS =
+            intSetting("max_concurrent_requests", 64, 1, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Whether reads and listings slower than most recent ones are sent a second time, using whichever answer comes first. */
+    public static final Setting<Boolean> HEDGE_REQUESTS =
+            boolSetting("hedge_requests", false, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Percentile of the recent latencies of an operation after which a request of that operation is hedged. */
+    public static final Setting<Double> HEDGE_PERCENTILE =
+            doubleSetting("hedge_percentile", 95.0, 50.0, 99.9, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Maximum number of hedges per read or listing, which caps the extra load hedging puts on COS. */
+    public static final Setting<Double> MAX_HEDGED_REQUESTS_RATIO =
+            doubleSetting("max_hedged_requests_ratio", 0.05, 0.0, 1.0, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** How long listings are cached by a repository, {@code 0} disables the listing cache. */
+    public static final Setting<TimeValue> LISTING_CACHE_TTL =
+            timeSetting("listing_cache_ttl", TimeValue.ZERO, TimeValue.ZERO, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Maximum number of blob and child entries held by the listing cache of a repository. */
+    public static final Setting<Integer> LISTING_CACHE_SIZE =
+            intSetting("listing_cache_size", 100_000, 1, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Memory used to cache small metadata blobs of a repository, {@code 0} disables the blob cache. */
+    public static final Setting<ByteSizeValue> BLOB_CACHE_SIZE =
+            byteSizeSetting("blob_cache_size", new ByteSizeValue(0), Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Largest metadata blob kept in the blob cache. */
+    public static final Setting<ByteSizeValue> BLOB_CACHE_MAX_BLOB_SIZE =
+            byteSizeSetting("blob_cache_max_blob_size", new ByteSizeValue(1, ByteSizeUnit.MB), Setting.Property.NodeScope,
+                    Setting.Property.Dynamic);
+    /** How long cached blobs are served without checking their ETag with COS. */
+    public static final Setting<TimeValue> BLOB_CACHE_TTL =
+            timeSetting("blob_cache_ttl", TimeValue.timeValueMinutes(1), TimeValue.ZERO, Setting.Property.NodeScope,
+                    Setting.Property.Dynamic);
+    /** Disk space used on the node to cache downloaded data blobs of a repository, {@code 0} disables the disk cache. */
+    public static final Setting<ByteSizeValue> DISK_CACHE_SIZE =
+            byteSizeSetting("disk_cache_size", new ByteSizeValue(0), Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Number of parts of a chunked file fetched in the background while the part before them is read, {@code 0} to disable. */
+    public static final Setting<Integer> PREFETCH_PARTS =
+            intSetting("prefetch_parts", 2, 0, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Memory a repository holds prefetched parts in, each prefetch taking at most {@code download_chunk_size}. */
+    public static final Setting<ByteSizeValue> PREFETCH_MAX_MEMORY =
+            byteSizeSetting("prefetch_max_memory", new ByteSizeValue(64, ByteSizeUnit.MB), Setting.Property.NodeScope,
+                    Setting.Property.Dynamic);
+    /** Codec data blobs are compressed with on upload, {@code none} or {@code deflate}; reads follow each blob's metadata. */
+    public static final Setting<COSBlobCodec> DATA_COMPRESSION =
+            new Setting<>("data_compression", COSBlobCodec.NONE.id(), COSBlobCodec::fromId,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Compression level of data blobs, from {@code 1} (fastest) to {@code 9} (smallest). */
+    public static final Setting<Integer> DATA_COMPRESSION_LEVEL =
+            intSetting("data_compression_level", 1, 1, 9, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Number of times a download is resumed from the last received byte after the connection failed mid-transfer. */
+    public static final Setting<Integer> MAX_READ_RETRIES =
+            intSetting("max_read_retries", 3, 0, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Whether uploads and full downloads are checked against the CRC64 checksum COS computes for every object. */
+    public static final Setting<Boolean> VERIFY_CHECKSUMS =
+            boolSetting("verify_checksums", true, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** How often the elected master deletes orphaned temporary blobs of atomic writes, {@code 0} disables the sweeper. */
+    public static final Setting<TimeValue> PENDING_BLOB_SWEEP_INTERVAL =
+            timeSetting("pending_blob_sweep_interval", TimeValue.timeValueHours(6), TimeValue.ZERO,
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+    /** Age after which a temporary blob of an atomic write is considered orphaned. */
+    public static final Setting<TimeValue> PENDING_BLOB_MAX_AGE =
+            timeSetting("pending_blob_max_age", TimeValue.timeValueHours(1), TimeValue.timeValueMinutes(1),
+                    Setting.Property.NodeScope, Setting.Property.Dynamic);
+
+    private static final class MinConcurrentRequestsValidator implements Setting.Validator<Integer> {
+
+        @Override
+        public void validate(Integer value) {
+        }
+
+        @Override
+        public void validate(Integer value, Map<Setting<?>, Object> settings) {
+            final int max = (Integer) settings.get(MAX_CONCURRENT_REQUESTS);
+            if (value > max) {
+                throw new IllegalArgumentException("[" + MIN_CONCURRENT_REQUESTS.getKey() + "] must be at most ["
+                        + MAX_CONCURRENT_REQUESTS.getKey() + "] but was [" + value + "] while the maximum is [" + max + "]");
+            }
+        }
+
+        @Override
+        public Iterator<Setting<?>> settings() {
+            return Collections.<Setting<?>>singletonList(MAX_CONCURRENT_REQUESTS).iterator();
+        }
+    }
 }
@@ -0,0 +1,231 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.qcloud.cos.exception.CosServiceException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Limits the number of requests a repository has in flight to COS and adapts the limit to what the bucket sustains with
+ * additive increase and multiplicative decrease. The limit starts at the minimum and doubles every round trip until the
+ * first sign of congestion, then grows by one request per round trip. It is halved when COS throttles a request, a
+ * request times out or a request takes much longer than the usual latency of its operation, which is the first sign of
+ * requests queueing up in COS or on the network. Only the latency of requests whose duration does not depend on the size
+ * of what they send is compared, since a large upload is slow without any congestion. The limit is decreased at most
+ * once per round trip, so that a burst of failing requests that were all sent at the same limit only counts once.
+ */
+final class COSConcurrencyLimiter implements ToXContentFragment {
+
+    // how much slower than usual a request must be to count as a sign of congestion
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final double DECREASE_RATIO = 0.5;
+    // requests of an operation needed before its latency baseline is trusted
+    private static final int LATENCY_WARMUP_REQUESTS = 10;
+    private static final int HISTORY_SIZE = 100;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongSupplier nanoTime;
+    private final long[] baselineLatencyNanos = new long[COSOperation.values().length];
+    private final int[] latencySamples = new int[COSOperation.values().length];
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private final Deque<Change> history = new ArrayDeque<>();
+    private double limit;
+    private boolean slowStart = true;
+    private int inFlight;
+    private long lastDecreaseNanos;
+    private long increases;
+    private long decreases;
+
+    COSConcurrencyLimiter(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, System::nanoTime);
+    }
+
+    COSConcurrencyLimiter(int minLimit, int maxLimit, LongSupplier nanoTime) {
+        assert minLimit <= maxLimit : "minimum concurrency [" + minLimit + "] is larger than maximum [" + maxLimit + "]";
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.nanoTime = nanoTime;
+        this.limit = minLimit;
+        this.lastDecreaseNanos = nanoTime.getAsLong();
+    }
+
+    /**
+     * Blocks until the caller may send a request, which it must report with {@link #release} once it completed.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= currentLimit()) {
+            wait();
+        }
+        inFlight += 1;
+    }
+
+    /**
+     * Runs {@code onAcquired} once the caller may send a request, right away if the limit allows it and otherwise on the
+     * thread that releases the next permit, so {@code onAcquired} should only hand the request off to an executor.
+     */
+    void acquire(Runnable onAcquired) {
+        synchronized (this) {
+            if (inFlight >= currentLimit()) {
+                waiting.add(onAcquired);
+                return;
+            }
+            inFlight += 1;
+        }
+        onAcquired.run();
+    }
+
+    /**
+     * Reports that a request of the given operation completed after {@code tookNanos} with the given failure, if any, and
+     * passes its permit on. A negative {@code tookNanos} returns the permit of a request that was never sent.
+     */
+    void release(COSOperation operation, long tookNanos, @Nullable Exception failure) {
+        final List<Runnable> toRun = new ArrayList<>();
+        synchronized (this) {
+            inFlight -= 1;
+            if (tookNanos < 0L) {
+                // nothing was learned about the bucket
+            } else if (isCongestion(operation, tookNanos, failure)) {
+                decrease(tookNanos, failure);
+            } else if (failure == null) {
+                increase();
+            }
+            while (inFlight < currentLimit() && waiting.isEmpty() == false) {
+                inFlight += 1;
+                toRun.add(waiting.poll());
+            }
+            notifyAll();
+        }
+        toRun.forEach(Runnable::run);
+    }
+
+    private boolean isCongestion(COSOperation operation, long tookNanos, @Nullable Exception failure) {
+        if (failure != null) {
+            return isThrottlingOrTimeout(failure);
+        }
+        if (hasSizeIndependentLatency(operation) == false) {
+            return false;
+        }
+        final int index = operation.ordinal();
+        final long baseline = baselineLatencyNanos[index];
+        final boolean slow = latencySamples[index] >= LATENCY_WARMUP_REQUESTS && tookNanos > baseline * LATENCY_TOLERANCE;
+        // the baseline follows faster latencies quickly and slower ones slowly, so it tracks the latency of an unloaded bucket
+        if (baseline == 0L || tookNanos < baseline) {
+            baselineLatencyNanos[index] = baseline == 0L ? tookNanos : (baseline + tookNanos) / 2;
+        } else {
+            baselineLatencyNanos[index] = baseline + (tookNanos - baseline) / 64;
+        }
+        latencySamples[index] = Math.min(latencySamples[index] + 1, LATENCY_WARMUP_REQUESTS);
+        return slow;
+    }
+
+    /**
+     * Returns whether the requests of an operation take about the same time whatever the size of the blob, which holds for
+     * requests that are timed until the response headers or that only send and receive small bodies. Uploads take as long
+     * as it takes to send their body, and server side copies as long as it takes to copy the source.
+     */
+    static boolean hasSizeIndependentLatency(COSOperation operation) {
+        return operation != COSOperation.PUT && operation != COSOperation.UPLOAD_PART;
+    }
+
+    static boolean isThrottlingOrTimeout(Exception failure) {
+        if (failure instanceof CosServiceException && COSRetryPolicy.isThrottling((CosServiceException) failure)) {
+            return true;
+        }
+        return ExceptionsHelper.unwrap(failure, SocketTimeoutException.class, ConnectTimeoutException.class) != null;
+    }
+
+    private void increase() {
+        if (limit >= maxLimit) {
+            return;
+        }
+        // every request in flight completes once per round trip: the limit grows by one, or doubles in slow start, per round trip
+        final int previous = currentLimit();
+        limit = Math.min(maxLimit, limit + (slowStart ? 1.0 : 1.0 / limit));
+        increases += 1;
+        if (currentLimit() != previous) {
+            record(slowStart ? "slow_start" : "increase");
+        }
+    }
+
+    private void decrease(long tookNanos, @Nullable Exception failure) {
+        final long now = nanoTime.getAsLong();
+        // requests that were sent before the last decrease do not tell anything about the decreased limit
+        if (now - lastDecreaseNanos < tookNanos) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        slowStart = false;
+        limit = Math.max(minLimit, limit * DECREASE_RATIO);
+        decreases += 1;
+        record(failure == null ? "latency" : failure instanceof CosServiceException ? "throttled" : "timeout");
+    }
+
+    private void record(String reason) {
+        if (history.size() == HISTORY_SIZE) {
+            history.removeFirst();
+        }
+        history.addLast(new Change(System.currentTimeMillis(), currentLimit(), reason));
+    }
+
+    synchronized int currentLimit() {
+        return (int) limit;
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("concurrency");
+        builder.field("limit", currentLimit());
+        builder.field("min", minLimit);
+        builder.field("max", maxLimit);
+        builder.field("in_flight", inFlight);
+        builder.field("waiting", waiting.size());
+        builder.field("slow_start", slowStart);
+        builder.field("increases", increases);
+        builder.field("decreases", decreases);
+        builder.startObject("latency_baseline_micros");
+        for (COSOperation operation : COSOperation.values()) {
+            final long baselineNanos = baselineLatencyNanos[operation.ordinal()];
+            builder.field(operation.name().toLowerCase(Locale.ROOT), TimeUnit.NANOSECONDS.toMicros(baselineNanos));
+        }
+        builder.endObject();
+        builder.startArray("history");
+        for (Change change : history) {
+            builder.startObject();
+            builder.field("timestamp", change.timestampMillis);
+            builder.field("limit", change.limit);
+            builder.field("reason", change.reason);
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder.endObject();
+    }
+
+    private static final class Change {
+        private final long timestampMillis;
+        private final int limit;
+        private final String reason;
+
+        private Change(long timestampMillis, int limit, String reason) {
+            this.timestampMillis = timestampMillis;
+            this.limit = limit;
+            this.reason = reason;
+        }
+    }
+}
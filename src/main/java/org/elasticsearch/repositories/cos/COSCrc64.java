@@ -0,0 +1,185 @@
+package org.elasticsearch.repositories.cos;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.zip.Checksum;
+
+import com.qcloud.cos.model.ObjectMetadata;
+import org.elasticsearch.common.Nullable;
+
+/**
+ * The CRC64 (ECMA-182, as used by xz) that COS computes for every object and returns in the
+ * {@code x-cos-hash-crc64ecma} response header. Updates process eight bytes per step, and {@link #combine} derives the
+ * checksum of a concatenation from the checksums of its parts, so multipart uploads never read a part twice.
+ */
+final class COSCrc64 implements Checksum {
+
+    static final String HEADER = "x-cos-hash-crc64ecma";
+
+    // ECMA-182 polynomial, bit reversed
+    private static final long POLY = 0xC96C5795D7870F42L;
+    private static final long[][] TABLES = new long[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            long crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1L) != 0L ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLES[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            long crc = TABLES[0][n];
+            for (int k = 1; k < 8; k++) {
+                crc = TABLES[0][(int) (crc & 0xFF)] ^ (crc >>> 8);
+                TABLES[k][n] = crc;
+            }
+        }
+    }
+
+    private long crc = -1L;
+
+    @Override
+    public void update(int b) {
+        crc = TABLES[0][(int) ((crc ^ b) & 0xFF)] ^ (crc >>> 8);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        long value = crc;
+        int i = off;
+        final int end = off + len;
+        for (; i + 8 <= end; i += 8) {
+            value ^= (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16 | (b[i + 3] & 0xFFL) << 24
+                    | (b[i + 4] & 0xFFL) << 32 | (b[i + 5] & 0xFFL) << 40 | (b[i + 6] & 0xFFL) << 48 | (b[i + 7] & 0xFFL) << 56;
+            value = TABLES[7][(int) (value & 0xFF)] ^ TABLES[6][(int) ((value >>> 8) & 0xFF)]
+                    ^ TABLES[5][(int) ((value >>> 16) & 0xFF)] ^ TABLES[4][(int) ((value >>> 24) & 0xFF)]
+                    ^ TABLES[3][(int) ((value >>> 32) & 0xFF)] ^ TABLES[2][(int) ((value >>> 40) & 0xFF)]
+                    ^ TABLES[1][(int) ((value >>> 48) & 0xFF)] ^ TABLES[0][(int) (value >>> 56)];
+        }
+        for (; i < end; i++) {
+            value = TABLES[0][(int) ((value ^ b[i]) & 0xFF)] ^ (value >>> 8);
+        }
+        crc = value;
+    }
+
+    /**
+     * Updates the checksum with the remaining bytes of the buffer, reading direct buffers in place, and moves the position
+     * of the buffer to its limit.
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        final ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long value = crc;
+        int i = view.position();
+        final int end = view.limit();
+        for (; i + 8 <= end; i += 8) {
+            value ^= view.getLong(i);
+            value = TABLES[7][(int) (value & 0xFF)] ^ TABLES[6][(int) ((value >>> 8) & 0xFF)]
+                    ^ TABLES[5][(int) ((value >>> 16) & 0xFF)] ^ TABLES[4][(int) ((value >>> 24) & 0xFF)]
+                    ^ TABLES[3][(int) ((value >>> 32) & 0xFF)] ^ TABLES[2][(int) ((value >>> 40) & 0xFF)]
+                    ^ TABLES[1][(int) ((value >>> 48) & 0xFF)] ^ TABLES[0][(int) (value >>> 56)];
+        }
+        for (; i < end; i++) {
+            value = TABLES[0][(int) ((value ^ view.get(i)) & 0xFF)] ^ (value >>> 8);
+        }
+        crc = value;
+        buffer.position(end);
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc;
+    }
+
+    @Override
+    public void reset() {
+        crc = -1L;
+    }
+
+    /**
+     * Returns the checksum of the concatenation of two byte sequences given their checksums and the length of the second
+     * one, in {@code O(log(length2))} time. This is zlib's {@code crc32_combine} carried over to 64 bits.
+     */
+    static long combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0L) {
+            return crc1;
+        }
+        final long[] even = new long[64];
+        final long[] odd = new long[64];
+        // operator for one zero bit
+        odd[0] = POLY;
+        long row = 1L;
+        for (int n = 1; n < 64; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // operators for two and four zero bits
+        square(even, odd);
+        square(odd, even);
+        // apply length2 zero bytes to crc1, the first squaring gives the operator for one zero byte
+        long len = length2;
+        do {
+            square(even, odd);
+            if ((len & 1L) != 0L) {
+                crc1 = times(even, crc1);
+            }
+            len >>>= 1;
+            if (len == 0L) {
+                break;
+            }
+            square(odd, even);
+            if ((len & 1L) != 0L) {
+                crc1 = times(odd, crc1);
+            }
+            len >>>= 1;
+        } while (len != 0L);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0L;
+        for (int i = 0; vector != 0L; i++, vector >>>= 1) {
+            if ((vector & 1L) != 0L) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 64; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * Returns the checksum COS reported in the given response metadata, or {@code null} if it did not report one, for
+     * instance because the bucket is served by a COS compatible gateway that does not compute it.
+     */
+    @Nullable
+    static Long fromMetadata(@Nullable ObjectMetadata metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        for (Map.Entry<String, Object> entry : metadata.getRawMetadata().entrySet()) {
+            if (HEADER.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null) {
+                try {
+                    return Long.parseUnsignedLong(entry.getValue().toString().trim());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    static String toString(long crc) {
+        return Long.toUnsignedString(crc);
+    }
+}
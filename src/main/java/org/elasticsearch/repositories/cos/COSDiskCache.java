@@ -0,0 +1,296 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.hash.MessageDigests;
+
+/**
+ * A node-local read-through cache of downloaded data blobs, so that restoring the same snapshot again reads from local
+ * disk instead of COS. Every cached file holds one byte range of one version of a blob and is named after the hash of
+ * the bucket, key, ETag and range, so a blob that changes in COS is never served from a stale file. A file is written
+ * while its bytes stream to the reader and only becomes visible once the whole range was read and verified. The least
+ * recently read files are deleted once the cached files exceed the configured size. The cache survives restarts: the
+ * directory is scanned on startup and files are ordered by the time they were last read.
+ */
+final class COSDiskCache {
+
+    private static final Logger logger = LogManager.getLogger(COSDiskCache.class);
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    // access ordered, so that iteration starts with the least recently read file
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    COSDiskCache(Path directory, long maxBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        final List<Tuple<Path, BasicFileAttributes>> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (attributes.isRegularFile() == false) {
+                    continue;
+                }
+                if (file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+                    // left behind by a read that did not complete before the node stopped
+                    Files.deleteIfExists(file);
+                } else {
+                    files.add(Tuple.tuple(file, attributes));
+                }
+            }
+        }
+        files.sort(Comparator.comparing(file -> file.v2().lastModifiedTime()));
+        synchronized (this) {
+            for (Tuple<Path, BasicFileAttributes> file : files) {
+                entries.put(file.v1().getFileName().toString(), file.v2().size());
+                totalBytes += file.v2().size();
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Returns whether reads of the blob with the given name go through the disk cache.
+     */
+    static boolean isCacheable(String blobName) {
+        return COSBlobContainer.isDataBlob(blobName);
+    }
+
+    /**
+     * Returns the name of the cache file holding the bytes {@code start} to {@code end} (inclusive) of the given version
+     * of a blob.
+     */
+    static String entryName(String bucket, String key, String eTag, long start, long end) {
+        final MessageDigest digest = MessageDigests.sha256();
+        digest.update((bucket + '/' + key + '\n' + eTag + '\n' + start + '-' + end).getBytes(StandardCharsets.UTF_8));
+        return MessageDigests.toHexString(digest.digest());
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns a stream over the cached file with the given name, or {@code null} if the file is not cached.
+     */
+    InputStream open(String entry) throws IOException {
+        synchronized (this) {
+            if (entries.get(entry) == null) {
+                return null;
+            }
+        }
+        final Path file = directory.resolve(entry);
+        try {
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                // the modification time orders the files by last read when the cache is loaded after a restart
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                logger.trace(new ParameterizedMessage("failed to update the last read time of cached blob [{}]", file), e);
+            }
+            return Channels.newInputStream(channel);
+        } catch (NoSuchFileException e) {
+            // evicted concurrently
+            synchronized (this) {
+                remove(entry);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns a stream that reads through the given stream of {@code length} bytes and caches them in the file with the
+     * given name once the stream was read to its end.
+     */
+    InputStream populate(String entry, long length, InputStream stream) {
+        if (length <= 0L || length > maxBytes) {
+            return stream;
+        }
+        final Path temp = directory.resolve(entry + '.' + UUID.randomUUID() + TEMP_FILE_SUFFIX);
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            logger.debug(new ParameterizedMessage("failed to create cache file [{}]", temp), e);
+            return stream;
+        }
+        return new PopulatingInputStream(stream, entry, length, temp, channel);
+    }
+
+    private void onPopulated(String entry, Path temp, long length) throws IOException {
+        Files.move(temp, directory.resolve(entry), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        synchronized (this) {
+            remove(entry);
+            entries.put(entry, length);
+            totalBytes += length;
+            evict();
+        }
+    }
+
+    private void remove(String entry) {
+        final Long length = entries.remove(entry);
+        if (length != null) {
+            totalBytes -= length;
+        }
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue();
+            try {
+                // readers that already opened the file keep reading it
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                logger.warn(new ParameterizedMessage("failed to evict cached blob [{}]", directory.resolve(eldest.getKey())), e);
+            }
+        }
+    }
+
+    /**
+     * Copies the bytes it reads into a temporary file, which replaces the cache file once all {@code length} bytes were
+     * read and the underlying stream reported its end, that is after it verified the checksum of the blob. The temporary
+     * file is deleted if the stream is closed early, fails or writing to disk fails.
+     */
+    private final class PopulatingInputStream extends FilterInputStream {
+
+        private final String entry;
+        private final long length;
+        private final Path temp;
+        private FileChannel channel;
+        private long written;
+
+        PopulatingInputStream(InputStream in, String entry, long length, Path temp, FileChannel channel) {
+            super(in);
+            this.entry = entry;
+            this.length = length;
+            this.temp = temp;
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int n = read(b, 0, 1);
+            return n == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (IOException | RuntimeException e) {
+                abandon(null);
+                throw e;
+            }
+            if (channel != null) {
+                if (n == -1) {
+                    complete();
+                } else if (n > 0) {
+                    write(b, off, n);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes would leave a hole in the cached file
+            abandon(null);
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void write(byte[] b, int off, int len) {
+            try {
+                final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                written += len;
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        private void complete() {
+            try {
+                channel.close();
+                channel = null;
+                if (written == length) {
+                    onPopulated(entry, temp, length);
+                } else {
+                    abandon(null);
+                }
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        private void abandon(Exception failure) {
+            if (failure != null) {
+                logger.debug(new ParameterizedMessage("failed to cache blob in [{}]", temp), failure);
+            }
+            try {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                logger.debug(new ParameterizedMessage("failed to delete cache file [{}]", temp), e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (channel != null) {
+                    abandon(null);
+                }
+            }
+        }
+    }
+}
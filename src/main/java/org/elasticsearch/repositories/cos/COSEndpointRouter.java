@@ -0,0 +1,291 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Routes the requests of a repository over one or more COS endpoints, such as the regional, internal and global
+ * acceleration domains of the same bucket. Every endpoint keeps a moving average of the latency of each operation and
+ * of its error rate, and each request goes to the endpoint with the lowest expected time to a successful response.
+ * Endpoints that have not been measured for an operation yet are tried first, and a small share of requests goes to
+ * another endpoint so that the estimates of all endpoints stay current. An endpoint that fails several requests in a
+ * row because of the network or server errors is taken out of rotation for a while and then probed with a single
+ * request. Downloads and uploads of blob content prefer the transfer endpoints if any are configured.
+ */
+final class COSEndpointRouter implements Closeable, ToXContentFragment {
+
+    private static final Logger logger = LogManager.getLogger(COSEndpointRouter.class);
+
+    // weight of the latest request in the moving averages
+    private static final double LATENCY_ALPHA = 0.2;
+    private static final double ERROR_ALPHA = 0.05;
+    // requests of an operation each endpoint serves before the endpoints are compared
+    private static final int WARMUP_REQUESTS = 3;
+    static final double EXPLORE_RATIO = 0.05;
+
+    private final List<Endpoint> endpoints;
+    private final List<Endpoint> transferEndpoints;
+    private final int failureThreshold;
+    private final long retryIntervalNanos;
+    private final LongSupplier nanoTime;
+    private final Supplier<Random> random;
+
+    COSEndpointRouter(List<Endpoint> endpoints, List<Endpoint> transferEndpoints, int failureThreshold, TimeValue retryInterval) {
+        this(endpoints, transferEndpoints, failureThreshold, retryInterval, System::nanoTime, ThreadLocalRandom::current);
+    }
+
+    COSEndpointRouter(List<Endpoint> endpoints, List<Endpoint> transferEndpoints, int failureThreshold, TimeValue retryInterval,
+                      LongSupplier nanoTime, Supplier<Random> random) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("at least one endpoint is required");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.transferEndpoints = Collections.unmodifiableList(new ArrayList<>(transferEndpoints));
+        this.failureThreshold = failureThreshold;
+        this.retryIntervalNanos = retryInterval.nanos();
+        this.nanoTime = nanoTime;
+        this.random = random;
+    }
+
+    /**
+     * Returns a router that sends every request to the given client.
+     */
+    static COSEndpointRouter single(COSClientReference clientReference) {
+        return new COSEndpointRouter(Collections.singletonList(new Endpoint("", clientReference)), Collections.emptyList(),
+                Integer.MAX_VALUE, TimeValue.ZERO);
+    }
+
+    /**
+     * Returns whether requests of the given operation move blob content, and prefer the transfer endpoints.
+     */
+    static boolean isTransfer(COSOperation operation) {
+        return operation == COSOperation.GET || operation == COSOperation.PUT || operation == COSOperation.UPLOAD_PART;
+    }
+
+    /**
+     * Returns the endpoint that serves the client whose settings the repository was created with.
+     */
+    Endpoint primary() {
+        return endpoints.get(0);
+    }
+
+    List<Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Picks the endpoint to send a request of the given operation to. A retry avoids the endpoint the previous attempt
+     * failed on if another endpoint is available.
+     */
+    synchronized Endpoint select(COSOperation operation, @Nullable Endpoint previous) {
+        final long now = nanoTime.getAsLong();
+        List<Endpoint> candidates = isTransfer(operation) ? available(transferEndpoints, previous, now) : Collections.emptyList();
+        if (candidates.isEmpty()) {
+            candidates = available(endpoints, previous, now);
+        }
+        if (candidates.isEmpty()) {
+            // every endpoint is out of rotation, the one that has been out the longest is the most likely to have recovered
+            Endpoint oldest = endpoints.get(0);
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.downUntilNanos - oldest.downUntilNanos < 0L) {
+                    oldest = endpoint;
+                }
+            }
+            return oldest;
+        }
+        final int index = operation.ordinal();
+        for (Endpoint endpoint : candidates) {
+            if (endpoint.samples[index] < WARMUP_REQUESTS) {
+                return probe(endpoint, now);
+            }
+        }
+        final Random random = this.random.get();
+        if (candidates.size() > 1 && random.nextDouble() < EXPLORE_RATIO) {
+            return probe(candidates.get(random.nextInt(candidates.size())), now);
+        }
+        Endpoint best = null;
+        for (Endpoint endpoint : candidates) {
+            if (best == null || endpoint.expectedNanos(index) < best.expectedNanos(index)) {
+                best = endpoint;
+            }
+        }
+        return probe(best, now);
+    }
+
+    private List<Endpoint> available(List<Endpoint> endpoints, @Nullable Endpoint previous, long now) {
+        final List<Endpoint> available = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (isAvailable(endpoint, now)) {
+                available.add(endpoint);
+            }
+        }
+        if (previous != null && previous.consecutiveFailures > 0 && available.size() > 1) {
+            available.remove(previous);
+        }
+        return available;
+    }
+
+    private boolean isAvailable(Endpoint endpoint, long now) {
+        return endpoint.consecutiveFailures < failureThreshold || endpoint.downUntilNanos - now <= 0L;
+    }
+
+    /**
+     * An endpoint whose time out of rotation elapsed gets a single request until that request completes.
+     */
+    private Endpoint probe(Endpoint endpoint, long now) {
+        if (endpoint.consecutiveFailures >= failureThreshold) {
+            endpoint.downUntilNanos = now + retryIntervalNanos;
+        }
+        return endpoint;
+    }
+
+    /**
+     * Records the outcome of a request of the given operation sent to the given endpoint.
+     */
+    synchronized void onResult(Endpoint endpoint, COSOperation operation, long tookNanos, @Nullable Exception failure) {
+        endpoint.requests += 1;
+        final boolean endpointFailure = failure instanceof CosClientException && isEndpointFailure((CosClientException) failure);
+        endpoint.errorRate += ERROR_ALPHA * ((endpointFailure ? 1.0 : 0.0) - endpoint.errorRate);
+        if (endpointFailure == false) {
+            final int index = operation.ordinal();
+            endpoint.latencyNanos[index] = endpoint.samples[index] == 0
+                    ? tookNanos : endpoint.latencyNanos[index] + LATENCY_ALPHA * (tookNanos - endpoint.latencyNanos[index]);
+            endpoint.samples[index] = Math.min(endpoint.samples[index] + 1, WARMUP_REQUESTS);
+            if (endpoint.consecutiveFailures >= failureThreshold) {
+                logger.info("cos endpoint [{}] recovered", endpoint.displayName());
+            }
+            endpoint.consecutiveFailures = 0;
+            return;
+        }
+        endpoint.errors += 1;
+        endpoint.consecutiveFailures += 1;
+        if (endpoint.consecutiveFailures >= failureThreshold) {
+            if (endpoint.consecutiveFailures == failureThreshold) {
+                logger.warn(() -> new ParameterizedMessage(
+                        "cos endpoint [{}] failed [{}] requests in a row, taking it out of rotation for [{}]", endpoint.displayName(),
+                        failureThreshold, TimeValue.timeValueNanos(retryIntervalNanos)), failure);
+            }
+            endpoint.downUntilNanos = nanoTime.getAsLong() + retryIntervalNanos;
+        }
+    }
+
+    /**
+     * Returns whether a failure says something about the endpoint, rather than about the request or the bucket. Throttling
+     * applies to the bucket whichever endpoint the request went through.
+     */
+    static boolean isEndpointFailure(CosClientException e) {
+        if (e instanceof CosServiceException && COSRetryPolicy.isThrottling((CosServiceException) e)) {
+            return false;
+        }
+        return COSRetryPolicy.isRetryable(e);
+    }
+
+    @Override
+    public void close() {
+        final Set<Endpoint> distinct = new LinkedHashSet<>(endpoints);
+        distinct.addAll(transferEndpoints);
+        distinct.forEach(endpoint -> endpoint.clientReference.close());
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startArray("endpoints");
+        final long now = nanoTime.getAsLong();
+        for (Endpoint endpoint : endpoints) {
+            endpoint.toXContent(builder, transferEndpoints.contains(endpoint), isAvailable(endpoint, now));
+        }
+        for (Endpoint endpoint : transferEndpoints) {
+            if (endpoints.contains(endpoint) == false) {
+                endpoint.toXContent(builder, true, isAvailable(endpoint, now));
+            }
+        }
+        return builder.endArray();
+    }
+
+    /**
+     * A COS endpoint, named by the domain suffix its client was built with, and what the router learned about it.
+     */
+    static final class Endpoint {
+
+        private final String name;
+        private final COSClientReference clientReference;
+        private final double[] latencyNanos = new double[COSOperation.values().length];
+        private final int[] samples = new int[COSOperation.values().length];
+        private double errorRate;
+        private int consecutiveFailures;
+        private long downUntilNanos;
+        private long requests;
+        private long errors;
+
+        Endpoint(String name, COSClientReference clientReference) {
+            this.name = name;
+            this.clientReference = clientReference;
+        }
+
+        String name() {
+            return name;
+        }
+
+        String displayName() {
+            return Strings.hasLength(name) ? name : "default";
+        }
+
+        COSClient client() {
+            return clientReference.client();
+        }
+
+        COSClientReference clientReference() {
+            return clientReference;
+        }
+
+        /**
+         * Returns the expected time until a request succeeds, counting a round trip for every failed attempt.
+         */
+        private double expectedNanos(int operation) {
+            return latencyNanos[operation] / (1.0 - Math.min(errorRate, 0.9));
+        }
+
+        private void toXContent(XContentBuilder builder, boolean transfer, boolean available) throws IOException {
+            builder.startObject();
+            builder.field("name", displayName());
+            builder.field("transfer", transfer);
+            builder.field("available", available);
+            builder.field("requests", requests);
+            builder.field("errors", errors);
+            builder.field("consecutive_failures", consecutiveFailures);
+            builder.field("error_rate", errorRate);
+            builder.startObject("latency_micros");
+            for (COSOperation operation : COSOperation.values()) {
+                if (samples[operation.ordinal()] > 0) {
+                    builder.field(operation.name().toLowerCase(Locale.ROOT),
+                            TimeUnit.NANOSECONDS.toMicros((long) latencyNanos[operation.ordinal()]));
+                }
+            }
+            builder.endObject();
+            builder.endObject();
+        }
+    }
+}
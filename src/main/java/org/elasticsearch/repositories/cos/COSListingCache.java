@@ -0,0 +1,95 @@
+package org.elasticsearch.repositories.cos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.blobstore.BlobMetaData;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Caches the results of listings made through a {@link COSBlobStore}, keyed by the listed key prefix. Cached listings
+ * expire after a fixed time and are evicted once the total number of cached entries exceeds the configured size. Every
+ * write or delete made through the same blob store invalidates the listings it could have changed, so that a node
+ * always sees its own modifications. Changes made by other nodes are only seen once the cached listing expires.
+ */
+final class COSListingCache {
+
+    private final Cache<String, Map<String, BlobMetaData>> blobListings;
+    private final Cache<String, Set<String>> childListings;
+    // bumped on every invalidation so that listings started before a modification are never cached after it, listings are
+    // only put while holding the lock of the cache, which invalidations hold too
+    private final AtomicLong generation = new AtomicLong();
+
+    COSListingCache(TimeValue ttl, long maxEntries) {
+        this.blobListings = CacheBuilder.<String, Map<String, BlobMetaData>>builder()
+                .setExpireAfterWrite(ttl)
+                .setMaximumWeight(maxEntries)
+                .weigher((prefix, blobs) -> blobs.size() + 1)
+                .build();
+        this.childListings = CacheBuilder.<String, Set<String>>builder()
+                .setExpireAfterWrite(ttl)
+                .setMaximumWeight(maxEntries)
+                .weigher((prefix, children) -> children.size() + 1)
+                .build();
+    }
+
+    long generation() {
+        return generation.get();
+    }
+
+    Map<String, BlobMetaData> getBlobs(String prefix) {
+        return blobListings.get(prefix);
+    }
+
+    /**
+     * Caches the blobs listed under {@code prefix} unless the cache was invalidated since {@code generation} was read.
+     */
+    synchronized Map<String, BlobMetaData> putBlobs(String prefix, Map<String, BlobMetaData> blobs, long generation) {
+        final Map<String, BlobMetaData> listing = Collections.unmodifiableMap(blobs);
+        if (this.generation.get() == generation) {
+            blobListings.put(prefix, listing);
+        }
+        return listing;
+    }
+
+    Set<String> getChildren(String prefix) {
+        return childListings.get(prefix);
+    }
+
+    synchronized Set<String> putChildren(String prefix, Set<String> children, long generation) {
+        final Set<String> listing = Collections.unmodifiableSet(children);
+        if (this.generation.get() == generation) {
+            childListings.put(prefix, listing);
+        }
+        return listing;
+    }
+
+    /**
+     * Invalidates every listing that contains, or is contained in, one of the given keys or key prefixes.
+     */
+    synchronized void invalidate(Collection<String> keys) {
+        generation.incrementAndGet();
+        invalidate(blobListings, keys);
+        invalidate(childListings, keys);
+    }
+
+    private static void invalidate(Cache<String, ?> cache, Collection<String> keys) {
+        final List<String> toInvalidate = new ArrayList<>();
+        for (String prefix : cache.keys()) {
+            for (String key : keys) {
+                if (key.startsWith(prefix) || prefix.startsWith(key)) {
+                    toInvalidate.add(prefix);
+                    break;
+                }
+            }
+        }
+        toInvalidate.forEach(cache::invalidate);
+    }
+}
@@ -0,0 +1,83 @@
+package org.elasticsearch.repositories.cos;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.qcloud.cos.model.ListObjectsRequest;
+import com.qcloud.cos.model.ObjectListing;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.lease.Releasable;
+
+/**
+ * Lazily pages through a COS listing. The next page is only requested once the caller asks for it, so callers can stop
+ * early and never hold more than one page in memory. Closing the iterator logs, at trace level, the number of pages
+ * fetched and the bytes allocated by the calling thread while the listing was consumed.
+ */
+final class COSListingIterator implements Iterator<ObjectListing>, Releasable {
+
+    private static final Logger logger = LogManager.getLogger(COSListingIterator.class);
+
+    private final COSBlobStore blobStore;
+    private final ListObjectsRequest request;
+    private final long startAllocatedBytes;
+    private ObjectListing previous;
+    private int pages;
+    private long entries;
+
+    COSListingIterator(COSBlobStore blobStore, ListObjectsRequest request) {
+        this.blobStore = blobStore;
+        this.request = request;
+        this.startAllocatedBytes = logger.isTraceEnabled() ? allocatedBytes() : -1L;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return previous == null || previous.isTruncated();
+    }
+
+    @Override
+    public ObjectListing next() {
+        if (hasNext() == false) {
+            throw new NoSuchElementException();
+        }
+        final ObjectListing list;
+        if (previous != null) {
+            final ObjectListing finalPrevListing = previous;
+            list = blobStore.executeHedged(COSOperation.LIST, client -> client.listNextBatchOfObjects(finalPrevListing), l -> {});
+        } else {
+            list = blobStore.executeHedged(COSOperation.LIST, client -> client.listObjects(request), l -> {});
+        }
+        pages += 1;
+        entries += list.getObjectSummaries().size() + list.getCommonPrefixes().size();
+        previous = list;
+        return list;
+    }
+
+    int pages() {
+        return pages;
+    }
+
+    @Override
+    public void close() {
+        if (logger.isTraceEnabled()) {
+            final long allocated = startAllocatedBytes < 0L ? -1L : allocatedBytes() - startAllocatedBytes;
+            logger.trace("listing [{}] of bucket [{}] fetched [{}] pages with [{}] entries{}, allocated [{}] bytes",
+                    request.getPrefix(), request.getBucketName(), pages, entries, hasNext() ? " (terminated early)" : "", allocated);
+        }
+    }
+
+    private static long allocatedBytes() {
+        try {
+            final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        } catch (SecurityException | UnsupportedOperationException e) {
+            // allocation tracking is best effort
+        }
+        return -1L;
+    }
+}
@@ -0,0 +1,16 @@
+package org.elasticsearch.repositories.cos;
+
+/**
+ * The classes of requests the plugin sends to COS.
+ */
+enum COSOperation {
+    GET,
+    /** Reading the metadata of an object without its content. */
+    HEAD,
+    PUT,
+    /** Initiating, completing and aborting multipart uploads. */
+    MULTIPART,
+    UPLOAD_PART,
+    LIST,
+    DELETE
+}
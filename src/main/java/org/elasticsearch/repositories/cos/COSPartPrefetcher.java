@@ -0,0 +1,229 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.qcloud.cos.model.ObjectMetadata;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Holds the beginning of the parts of chunked files that are about to be read. A file larger than the repository's
+ * {@code chunk_size} is stored as {@code name.part0}, {@code name.part1} and so on, and restores read the parts one
+ * after the other. When a part is read, the first bytes of the following parts are fetched in the background, so that
+ * reading the next part starts without waiting for a GET round trip. Prefetched bytes are bounded by a memory limit and
+ * dropped if they are not read within a minute.
+ */
+final class COSPartPrefetcher implements ToXContentFragment {
+
+    private static final Pattern PART = Pattern.compile("(.+)\\.part(\\d+)");
+    static final long MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final int depth;
+    private final long maxBytes;
+    private final LongSupplier nanoTime;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long reservedBytes;
+    private long prefetched;
+    private long hits;
+    private long wasted;
+    private long skipped;
+
+    COSPartPrefetcher(int depth, long maxBytes) {
+        this(depth, maxBytes, System::nanoTime);
+    }
+
+    COSPartPrefetcher(int depth, long maxBytes, LongSupplier nanoTime) {
+        this.depth = depth;
+        this.maxBytes = maxBytes;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Returns the names of the parts that follow the given part, or an empty list if the blob is not a part.
+     */
+    List<String> followingParts(String blobName) {
+        final Matcher matcher = PART.matcher(blobName);
+        if (matcher.matches() == false) {
+            return Collections.emptyList();
+        }
+        final long part;
+        try {
+            part = Long.parseLong(matcher.group(2));
+        } catch (NumberFormatException e) {
+            return Collections.emptyList();
+        }
+        final List<String> parts = new ArrayList<>(depth);
+        for (int i = 1; i <= depth; i++) {
+            parts.add(matcher.group(1) + ".part" + (part + i));
+        }
+        return parts;
+    }
+
+    /**
+     * Reserves {@code bytes} for prefetching the blob with the given key and returns the future to complete with the
+     * prefetched part, or {@code null} if the blob is already being prefetched or the memory limit is reached.
+     */
+    synchronized CompletableFuture<Part> start(String key, long bytes) {
+        if (entries.containsKey(key)) {
+            return null;
+        }
+        final long now = nanoTime.getAsLong();
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            final Entry entry = iterator.next();
+            if (now - entry.startNanos > MAX_AGE_NANOS) {
+                iterator.remove();
+                drop(entry);
+            }
+        }
+        if (reservedBytes + bytes > maxBytes) {
+            skipped += 1;
+            return null;
+        }
+        final Entry entry = new Entry(new CompletableFuture<>(), bytes, now);
+        entries.put(key, entry);
+        reservedBytes += bytes;
+        prefetched += 1;
+        entry.future.whenComplete((part, e) -> {
+            if (e != null) {
+                onFailure(key, entry);
+            }
+        });
+        return entry.future;
+    }
+
+    /**
+     * Removes and returns the prefetch of the blob with the given key, if any. The caller owns the prefetched bytes from
+     * then on, so they no longer count against the memory limit.
+     */
+    @Nullable
+    synchronized CompletableFuture<Part> take(String key) {
+        final Entry entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        reservedBytes -= entry.bytes;
+        hits += 1;
+        return entry.future;
+    }
+
+    /**
+     * Drops the prefetched parts whose keys start with one of the given keys or key prefixes.
+     */
+    synchronized void invalidate(Collection<String> keys) {
+        for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+            final Map.Entry<String, Entry> entry = iterator.next();
+            for (String key : keys) {
+                if (entry.getKey().startsWith(key)) {
+                    iterator.remove();
+                    drop(entry.getValue());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the memory of a failed prefetch. The failure stays until it expires, so that a part that does not exist,
+     * such as the one after the last part, is not requested again by the read of every part before it.
+     */
+    private synchronized void onFailure(String key, Entry entry) {
+        if (entries.get(key) == entry && entry.bytes > 0L) {
+            reservedBytes -= entry.bytes;
+            entry.bytes = 0L;
+            wasted += 1;
+        }
+    }
+
+    private void drop(Entry entry) {
+        if (entry.bytes > 0L) {
+            reservedBytes -= entry.bytes;
+            entry.bytes = 0L;
+            wasted += 1;
+        }
+        entry.future.cancel(false);
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long wasted() {
+        return wasted;
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("prefetch");
+        builder.field("depth", depth);
+        builder.field("max_bytes", maxBytes);
+        builder.field("reserved_bytes", reservedBytes);
+        builder.field("prefetched", prefetched);
+        builder.field("hits", hits);
+        builder.field("wasted", wasted);
+        builder.field("skipped", skipped);
+        return builder.endObject();
+    }
+
+    /**
+     * The first bytes of a part, and the metadata of the object they were read from.
+     */
+    static final class Part {
+
+        private final byte[] head;
+        private final ObjectMetadata metadata;
+
+        Part(byte[] head, ObjectMetadata metadata) {
+            this.head = head;
+            this.metadata = metadata;
+        }
+
+        byte[] head() {
+            return head;
+        }
+
+        ObjectMetadata metadata() {
+            return metadata;
+        }
+
+        /**
+         * Returns the length of the whole part, which may be longer than the prefetched bytes.
+         */
+        long length() {
+            return metadata.getInstanceLength();
+        }
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<Part> future;
+        private final long startNanos;
+        // memory held by the prefetch, released when it fails
+        private long bytes;
+
+        private Entry(CompletableFuture<Part> future, long bytes, long startNanos) {
+            this.future = future;
+            this.bytes = bytes;
+            this.startNanos = startNanos;
+        }
+    }
+}
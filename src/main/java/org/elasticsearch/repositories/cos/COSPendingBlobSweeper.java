@@ -0,0 +1,116 @@
+package org.elasticsearch.repositories.cos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import com.qcloud.cos.model.COSObjectSummary;
+import com.qcloud.cos.model.DeleteObjectsRequest;
+import com.qcloud.cos.model.ListObjectsRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.blobstore.fs.FsBlobContainer;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Deletes the temporary blobs that {@link COSBlobContainer#writeBlobAtomic} leaves behind when a node fails between
+ * uploading a blob and promoting it to its final name. Only temporary blobs older than a maximum age are deleted, so
+ * atomic writes that are still in progress are never disturbed.
+ * <p>
+ * Snapshots only write blobs atomically at the root of the repository and in the shard directories
+ * {@code indices/<index>/<shard>/}, so only those directories are searched, each with a listing of its temporary blobs
+ * alone. The data blobs of the shards, which make up nearly all blobs of a repository, are never listed.
+ */
+final class COSPendingBlobSweeper implements Runnable {
+
+    private static final Logger logger = LogManager.getLogger(COSPendingBlobSweeper.class);
+
+    private static final String INDICES_DIRECTORY = "indices/";
+    // the prefix of the names FsBlobContainer#tempBlobName gives temporary blobs
+    private static final String TEMP_BLOB_PREFIX = "pending-";
+
+    private final COSBlobStore blobStore;
+    private final String prefix;
+    private final TimeValue maxAge;
+    private final LongSupplier currentTimeMillis;
+
+    COSPendingBlobSweeper(COSBlobStore blobStore, BlobPath basePath, TimeValue maxAge, LongSupplier currentTimeMillis) {
+        this.blobStore = blobStore;
+        this.prefix = basePath.buildAsString();
+        this.maxAge = maxAge;
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    @Override
+    public void run() {
+        try {
+            final int deleted = sweep();
+            if (deleted > 0) {
+                logger.info("deleted [{}] orphaned temporary blobs under [{}] in bucket [{}]", deleted, prefix, blobStore.bucket());
+            }
+        } catch (RuntimeException e) {
+            logger.warn(new ParameterizedMessage("failed to sweep orphaned temporary blobs under [{}] in bucket [{}]",
+                    prefix, blobStore.bucket()), e);
+        }
+    }
+
+    /**
+     * Deletes the expired temporary blobs of the repository, returning how many were deleted.
+     */
+    int sweep() {
+        final long expiry = currentTimeMillis.getAsLong() - maxAge.millis();
+        final List<String> expired = new ArrayList<>();
+        collectExpired(prefix, expiry, expired);
+        for (String index : listDirectories(prefix + INDICES_DIRECTORY)) {
+            for (String shard : listDirectories(index)) {
+                collectExpired(shard, expiry, expired);
+            }
+        }
+        for (int from = 0; from < expired.size(); from += COSBlobContainer.MAX_BULK_DELETES) {
+            final List<String> batch = expired.subList(from, Math.min(expired.size(), from + COSBlobContainer.MAX_BULK_DELETES));
+            final DeleteObjectsRequest deleteRequest = COSBlobContainer.bulkDelete(blobStore.bucket(), batch);
+            try {
+                blobStore.executeVoid(COSOperation.DELETE, client -> client.deleteObjects(deleteRequest));
+            } finally {
+                blobStore.onModified(batch);
+            }
+        }
+        return expired.size();
+    }
+
+    /**
+     * Adds the keys of the temporary blobs directly in the given directory that were last modified before the expiry.
+     */
+    private void collectExpired(String directory, long expiry, List<String> expired) {
+        try (COSListingIterator listing = new COSListingIterator(blobStore, listRequest(directory + TEMP_BLOB_PREFIX))) {
+            while (listing.hasNext()) {
+                for (COSObjectSummary summary : listing.next().getObjectSummaries()) {
+                    final String key = summary.getKey();
+                    if (FsBlobContainer.isTempBlobName(key.substring(directory.length())) && summary.getLastModified() != null
+                            && summary.getLastModified().getTime() < expiry) {
+                        expired.add(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the prefixes of the directories directly in the given directory.
+     */
+    private List<String> listDirectories(String directory) {
+        final List<String> directories = new ArrayList<>();
+        try (COSListingIterator listing = new COSListingIterator(blobStore, listRequest(directory))) {
+            while (listing.hasNext()) {
+                directories.addAll(listing.next().getCommonPrefixes());
+            }
+        }
+        return directories;
+    }
+
+    private ListObjectsRequest listRequest(String prefix) {
+        return new ListObjectsRequest().withBucketName(blobStore.bucket()).withPrefix(prefix).withDelimiter("/");
+    }
+}
@@ -2,15 +2,21 @@ package org.elasticsearch.repositories.cos;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
 import org.elasticsearch.cluster.metadata.RepositoryMetaData;
 import org.elasticsearch.common.blobstore.BlobPath;
 import org.elasticsearch.common.logging.DeprecationLogger;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.repositories.RepositoryException;
 import org.elasticsearch.repositories.blobstore.BlobStoreRepository;
+import org.elasticsearch.threadpool.Scheduler;
 import org.elasticsearch.threadpool.ThreadPool;
 
 public class COSRepository extends BlobStoreRepository {
@@ -23,6 +29,10 @@ public class COSRepository extends BlobStoreRepository {
     private final ByteSizeValue chunkSize;
     private final COSService service;
     private final String bucket;
+    private final boolean sweepPendingBlobs;
+    private final BooleanSupplier localNodeElectedMaster;
+    private final Path diskCacheDirectory;
+    private volatile Scheduler.Cancellable pendingBlobSweeper;
 
     /**
      * When set to true metadata files are stored in compressed format. This setting doesn’t affect index
@@ -34,9 +44,15 @@ public class COSRepository extends BlobStoreRepository {
     COSRepository(RepositoryMetaData metadata,
                   NamedXContentRegistry namedXContentRegistry,
                   COSService cos,
-                  ThreadPool threadpool) {
+                  ThreadPool threadpool,
+                  boolean sweepPendingBlobs,
+                  BooleanSupplier localNodeElectedMaster,
+                  Path diskCacheDirectory) {
         super(metadata, COMPRESS_SETTING.get(metadata.settings()), namedXContentRegistry, threadpool);
         this.service = cos;
+        this.sweepPendingBlobs = sweepPendingBlobs;
+        this.localNodeElectedMaster = localNodeElectedMaster;
+        this.diskCacheDirectory = diskCacheDirectory;
         String bucket = COSClientSettings.BUCKET.get(metadata.settings());
         if (bucket == null || !Strings.hasLength(bucket)) {
             throw new RepositoryException(metadata.name(), "No bucket defined for cos repository");
@@ -63,14 +79,47 @@ public class COSRepository extends BlobStoreRepository {
         }
         this.compress = COSClientSettings.COMPRESS.get(metadata.settings());
         this.chunkSize = COSClientSettings.CHUNK_SIZE.get(metadata.settings());
+        // the blob store is created lazily, a minimum concurrency above the maximum fails the creation of the repository
+        COSClientSettings.MIN_CONCURRENT_REQUESTS.get(metadata.settings());
 
         logger.trace("using bucket [{}], base_path [{}], chunk_size [{}], compress [{}]", bucket,
                 basePath, chunkSize, compress);
     }
 
     @Override
-    protected COSBlobStore createBlobStore() {
-        return new COSBlobStore(this.service.createClient(metaData), this.bucket);
+    protected COSBlobStore createBlobStore() throws IOException {
+        final long diskCacheSize = COSClientSettings.DISK_CACHE_SIZE.get(metadata.settings()).getBytes();
+        final COSDiskCache diskCache =
+                diskCacheSize > 0 ? new COSDiskCache(diskCacheDirectory.resolve(metadata.name()), diskCacheSize) : null;
+        final COSBlobStore blobStore =
+                new COSBlobStore(this.service.endpointRouter(metadata), this.bucket, metadata, threadPool, diskCache);
+        service.registerBlobStore(metadata.name(), blobStore);
+        final TimeValue sweepInterval = COSClientSettings.PENDING_BLOB_SWEEP_INTERVAL.get(metadata.settings());
+        if (sweepPendingBlobs && isReadOnly() == false && sweepInterval.millis() > 0) {
+            // the sweeper is scheduled on master eligible nodes, any of which may be elected, but only the elected master
+            // lists the whole repository on each run
+            final COSPendingBlobSweeper sweeper = new COSPendingBlobSweeper(blobStore, basePath,
+                    COSClientSettings.PENDING_BLOB_MAX_AGE.get(metadata.settings()), threadPool::absoluteTimeInMillis);
+            pendingBlobSweeper = threadPool.scheduleWithFixedDelay(() -> {
+                if (localNodeElectedMaster.getAsBoolean()) {
+                    sweeper.run();
+                }
+            }, sweepInterval, ThreadPool.Names.SNAPSHOT);
+        }
+        return blobStore;
+    }
+
+    @Override
+    protected void doClose() {
+        final Scheduler.Cancellable sweeper = pendingBlobSweeper;
+        if (sweeper != null) {
+            sweeper.cancel();
+        }
+        final COSBlobStore blobStore = (COSBlobStore) getBlobStore();
+        if (blobStore != null) {
+            service.unregisterBlobStore(metadata.name(), blobStore);
+        }
+        super.doClose();
     }
 
     @Override
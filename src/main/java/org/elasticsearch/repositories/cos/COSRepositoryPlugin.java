@@ -1,32 +1,67 @@
 package org.elasticsearch.repositories.cos;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.lucene.util.SetOnce;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.RepositoryPlugin;
 import org.elasticsearch.plugins.ReloadablePlugin;
 import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.repositories.Repository;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Created by Ethan-Zhang on 30/03/2018.
  */
-public class COSRepositoryPlugin extends Plugin implements RepositoryPlugin , ReloadablePlugin {
+public class COSRepositoryPlugin extends Plugin implements RepositoryPlugin , ReloadablePlugin, ActionPlugin {
 
     private final Logger logger = LogManager.getLogger(COSRepositoryPlugin.class);
 
+    // directory under the first data path holding the disk caches of the repositories, one sub directory per repository
+    static final String DISK_CACHE_DIRECTORY = "cos_cache";
+
     final COSService service;
+    private final Settings settings;
+    private final SetOnce<ClusterService> clusterService = new SetOnce<>();
 
     public COSRepositoryPlugin(Settings settings) {
         this.service = new COSService(settings);
+        this.settings = settings;
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry, Environment environment,
+                                               NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry) {
+        this.clusterService.set(clusterService);
+        return Collections.emptyList();
     }
 
     @Override
@@ -34,22 +69,56 @@ public class COSRepositoryPlugin extends Plugin implements RepositoryPlugin , Re
                                                            final NamedXContentRegistry namedXContentRegistry,
                                                             final ThreadPool threadPool) {
         return Collections.singletonMap(COSRepository.TYPE,
-                (metadata) -> new COSRepository(metadata, namedXContentRegistry, service, clusterService, recoverySettings));
+                (metadata) -> new COSRepository(metadata, namedXContentRegistry, service, threadPool,
+                        DiscoveryNode.isMasterNode(settings), () -> clusterService.get().state().nodes().isLocalNodeElectedMaster(),
+                        env.dataFiles()[0].resolve(DISK_CACHE_DIRECTORY)));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Collections.singletonList(new RestCOSStatsAction(restController, service));
     }
 
     @Override
     public List<Setting<?>> getSettings() {
         return Arrays.asList(COSClientSettings.ACCOUNT, COSClientSettings.REGION,
                 COSClientSettings.APP_ID, COSClientSettings.BUCKET,
-                COSClientSettings.BASE_PATH, COSClientSettings.COMPRESS, COSClientSettings.CHUNK_SIZE, COSClientSettings.END_POINT);
+                COSClientSettings.BASE_PATH, COSClientSettings.COMPRESS, COSClientSettings.CHUNK_SIZE, COSClientSettings.END_POINT,
+                COSClientSettings.ENDPOINT_OVERRIDE, COSClientSettings.PROTOCOL, COSClientSettings.END_POINTS,
+                COSClientSettings.TRANSFER_END_POINTS, COSClientSettings.END_POINT_FAILURE_THRESHOLD,
+                COSClientSettings.END_POINT_RETRY_INTERVAL,
+                COSClientSettings.MULTIPART_THRESHOLD, COSClientSettings.PART_SIZE, COSClientSettings.MAX_CONCURRENT_PARTS,
+                COSClientSettings.DIRECT_PART_BUFFERS,
+                COSClientSettings.DOWNLOAD_CHUNK_SIZE, COSClientSettings.MAX_CONCURRENT_DOWNLOAD_CHUNKS,
+                COSClientSettings.MAX_READ_RETRIES, COSClientSettings.VERIFY_CHECKSUMS, COSClientSettings.MAX_CONCURRENT_DELETES,
+                COSClientSettings.LISTING_CACHE_TTL, COSClientSettings.LISTING_CACHE_SIZE,
+                COSClientSettings.BLOB_CACHE_SIZE, COSClientSettings.BLOB_CACHE_MAX_BLOB_SIZE, COSClientSettings.BLOB_CACHE_TTL,
+                COSClientSettings.PREFETCH_PARTS, COSClientSettings.PREFETCH_MAX_MEMORY,
+                COSClientSettings.DISK_CACHE_SIZE, COSClientSettings.ADAPTIVE_CONCURRENCY, COSClientSettings.MIN_CONCURRENT_REQUESTS,
+                COSClientSettings.MAX_CONCURRENT_REQUESTS, COSClientSettings.HEDGE_REQUESTS, COSClientSettings.HEDGE_PERCENTILE,
+                COSClientSettings.MAX_HEDGED_REQUESTS_RATIO, COSClientSettings.DATA_COMPRESSION, COSClientSettings.DATA_COMPRESSION_LEVEL,
+                COSClientSettings.PENDING_BLOB_SWEEP_INTERVAL, COSClientSettings.PENDING_BLOB_MAX_AGE,
+                COSClientSettings.MAX_CONNECTIONS, COSClientSettings.CONNECTION_TIMEOUT, COSClientSettings.SOCKET_TIMEOUT,
+                COSClientSettings.CONNECTION_REQUEST_TIMEOUT, COSClientSettings.CONNECTION_IDLE_TIMEOUT, COSClientSettings.MAX_RETRIES,
+                COSClientSettings.RETRY_BASE_DELAY, COSClientSettings.RETRY_MAX_DELAY, COSClientSettings.RETRY_BUDGET,
+                COSClientSettings.MAX_LIST_REQUESTS_PER_SEC, COSClientSettings.MAX_PUT_REQUESTS_PER_SEC,
+                COSClientSettings.MAX_GET_REQUESTS_PER_SEC, COSClientSettings.MAX_DELETE_REQUESTS_PER_SEC);
     }
     
+    @Override
+    public void close() {
+        service.close();
+    }
+
     @Override
     public void reload(Settings settings) {
         final Map<String, COSClientSecretSettings> cosSettings = COSClientSecretSettings.load(settings);
         if (cosSettings.isEmpty()) {
             logger.warn("If you want to use an cos repository, you need to define a cos secret configuration.");
         }
-        service.refreshAndClearCache(clientsSettings);
+        service.refreshAndClearCache(cosSettings);
     }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Decides when a read request that is slow to answer gets a duplicate, or hedge. A request is hedged once it took longer
+ * than the given percentile of the recent latencies of its operation, so that about {@code 100 - percentile} percent of
+ * requests would be hedged, and the hedges are capped to a share of the requests with a budget: every request adds
+ * {@code maxRatio} to the budget and every hedge takes one from it.
+ */
+final class COSRequestHedger implements ToXContentFragment {
+
+    // latencies of the most recent requests of each operation the percentile is taken from
+    private static final int WINDOW_SIZE = 512;
+    // requests of an operation needed before its percentile is trusted
+    static final int WARMUP_REQUESTS = 20;
+    // the percentile is computed again after this many new latencies
+    private static final int RECOMPUTE_INTERVAL = 32;
+    // hedges that can be sent in a burst
+    static final double MAX_BUDGET = 10.0;
+
+    private final double percentile;
+    private final double maxRatio;
+    private final long[][] latencies = new long[COSOperation.values().length][WINDOW_SIZE];
+    private final long[] samples = new long[COSOperation.values().length];
+    private final long[] thresholdNanos = new long[COSOperation.values().length];
+    private double budget;
+    private long hedged;
+    private long wins;
+    private long skipped;
+
+    COSRequestHedger(double percentile, double maxRatio) {
+        this.percentile = percentile;
+        this.maxRatio = maxRatio;
+        this.budget = MAX_BUDGET;
+        Arrays.fill(thresholdNanos, -1L);
+    }
+
+    /**
+     * Returns whether requests of the given operation are hedged, which are the reads whose response is small or can be
+     * streamed from either request.
+     */
+    static boolean isHedged(COSOperation operation) {
+        return operation == COSOperation.GET || operation == COSOperation.HEAD || operation == COSOperation.LIST;
+    }
+
+    /**
+     * Records the latency of a successful request of the given operation.
+     */
+    synchronized void onLatency(COSOperation operation, long tookNanos) {
+        if (isHedged(operation) == false) {
+            return;
+        }
+        final int index = operation.ordinal();
+        // the window wraps around, so that it holds the most recent latencies
+        latencies[index][(int) (samples[index] % WINDOW_SIZE)] = tookNanos;
+        samples[index] += 1;
+        if (samples[index] >= WARMUP_REQUESTS && (samples[index] - WARMUP_REQUESTS) % RECOMPUTE_INTERVAL == 0) {
+            final long[] sorted = Arrays.copyOf(latencies[index], (int) Math.min(samples[index], WINDOW_SIZE));
+            Arrays.sort(sorted);
+            thresholdNanos[index] = sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1)];
+        }
+    }
+
+    /**
+     * Returns how long a request of the given operation is waited for before it is hedged, or {@code -1} if it is not
+     * hedged. Every call adds to the hedging budget.
+     */
+    synchronized long hedgeDelayNanos(COSOperation operation) {
+        if (isHedged(operation) == false) {
+            return -1L;
+        }
+        budget = Math.min(MAX_BUDGET, budget + maxRatio);
+        return thresholdNanos[operation.ordinal()];
+    }
+
+    /**
+     * Returns whether a request that is slower than the threshold may be hedged, taking a hedge from the budget if so.
+     */
+    synchronized boolean tryHedge() {
+        if (budget < 1.0) {
+            skipped += 1;
+            return false;
+        }
+        budget -= 1.0;
+        hedged += 1;
+        return true;
+    }
+
+    /**
+     * Records that the hedge of a request answered before the request itself.
+     */
+    synchronized void onHedgeWin() {
+        wins += 1;
+    }
+
+    synchronized long hedged() {
+        return hedged;
+    }
+
+    synchronized long wins() {
+        return wins;
+    }
+
+    synchronized long skipped() {
+        return skipped;
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("hedging");
+        builder.field("percentile", percentile);
+        builder.field("hedged", hedged);
+        builder.field("wins", wins);
+        builder.field("skipped", skipped);
+        builder.startObject("threshold_micros");
+        for (COSOperation operation : COSOperation.values()) {
+            final long threshold = thresholdNanos[operation.ordinal()];
+            if (isHedged(operation) && threshold >= 0L) {
+                builder.field(operation.name().toLowerCase(Locale.ROOT), TimeUnit.NANOSECONDS.toMicros(threshold));
+            }
+        }
+        builder.endObject();
+        return builder.endObject();
+    }
+}
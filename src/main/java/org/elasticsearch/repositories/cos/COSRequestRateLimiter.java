@@ -0,0 +1,104 @@
+package org.elasticsearch.repositories.cos;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Shapes the rate of requests a repository sends to COS with one token bucket per class of operation: listings, uploads
+ * (single PUTs, parts and multipart management), downloads and deletes. A bucket holds up to one second worth of
+ * requests, so short bursts pass through unthrottled while sustained traffic is spread evenly. Callers that find a bucket
+ * empty wait for their token instead of sending a request COS would reject with 503 SlowDown.
+ */
+final class COSRequestRateLimiter {
+
+    private final Map<COSOperation, TokenBucket> buckets = new EnumMap<>(COSOperation.class);
+
+    /**
+     * @param listRate   maximum list requests per second, {@code 0} for no limit
+     * @param uploadRate maximum upload requests per second, {@code 0} for no limit
+     * @param getRate    maximum get requests per second, {@code 0} for no limit
+     * @param deleteRate maximum delete requests per second, {@code 0} for no limit
+     */
+    COSRequestRateLimiter(double listRate, double uploadRate, double getRate, double deleteRate) {
+        this(listRate, uploadRate, getRate, deleteRate, System::nanoTime);
+    }
+
+    COSRequestRateLimiter(double listRate, double uploadRate, double getRate, double deleteRate, LongSupplier nanoTime) {
+        final TokenBucket list = TokenBucket.create(listRate, nanoTime);
+        final TokenBucket upload = TokenBucket.create(uploadRate, nanoTime);
+        final TokenBucket get = TokenBucket.create(getRate, nanoTime);
+        final TokenBucket delete = TokenBucket.create(deleteRate, nanoTime);
+        for (COSOperation operation : COSOperation.values()) {
+            switch (operation) {
+                case LIST:
+                    buckets.put(operation, list);
+                    break;
+                case PUT:
+                case MULTIPART:
+                case UPLOAD_PART:
+                    buckets.put(operation, upload);
+                    break;
+                case GET:
+                case HEAD:
+                    buckets.put(operation, get);
+                    break;
+                case DELETE:
+                    buckets.put(operation, delete);
+                    break;
+                default:
+                    throw new AssertionError("unknown operation [" + operation + "]");
+            }
+        }
+    }
+
+    /**
+     * Blocks until a request of the given operation may be sent.
+     */
+    void acquire(COSOperation operation) throws InterruptedException {
+        final long waitNanos = reserve(operation);
+        if (waitNanos > 0L) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a token for a request of the given operation and returns how many nanoseconds the caller has to wait before
+     * sending the request.
+     */
+    long reserve(COSOperation operation) {
+        final TokenBucket bucket = buckets.get(operation);
+        return bucket == null ? 0L : bucket.reserve();
+    }
+
+    private static final class TokenBucket {
+
+        private final double nanosPerToken;
+        private final double capacity;
+        private final LongSupplier nanoTime;
+        private double tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(double rate, LongSupplier nanoTime) {
+            this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / rate;
+            this.capacity = Math.max(1.0, rate);
+            this.nanoTime = nanoTime;
+            this.tokens = capacity;
+            this.lastRefillNanos = nanoTime.getAsLong();
+        }
+
+        static TokenBucket create(double rate, LongSupplier nanoTime) {
+            return rate > 0.0 ? new TokenBucket(rate, nanoTime) : null;
+        }
+
+        synchronized long reserve() {
+            final long now = nanoTime.getAsLong();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / nanosPerToken);
+            lastRefillNanos = now;
+            // tokens may go negative: waiting callers queue up behind each other in the order they reserved
+            tokens -= 1.0;
+            return tokens >= 0.0 ? 0L : (long) Math.ceil(-tokens * nanosPerToken);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Counts the requests a repository sends to COS per {@link COSOperation}, together with the bytes they transfer, their
+ * failures and their latency. Latencies are recorded into a histogram with power of two microsecond buckets, which costs
+ * a single counter increment per request and is precise enough to tell a 10ms response from a 100ms one.
+ */
+final class COSRequestStats implements ToXContentFragment {
+
+    // bucket i counts latencies below 2^i microseconds, the last bucket everything from about 2 minutes on
+    static final int LATENCY_BUCKETS = 28;
+
+    private final Map<COSOperation, OperationStats> stats = new EnumMap<>(COSOperation.class);
+
+    COSRequestStats() {
+        for (COSOperation operation : COSOperation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    /**
+     * Records a request attempt that took {@code tookNanos} and either succeeded or failed with {@code failure}.
+     */
+    void onRequest(COSOperation operation, long tookNanos, @Nullable CosClientException failure) {
+        final OperationStats operationStats = stats.get(operation);
+        operationStats.requests.increment();
+        final long tookMicros = TimeUnit.NANOSECONDS.toMicros(tookNanos);
+        operationStats.latencyHistogram[bucket(tookMicros)].increment();
+        operationStats.maxLatencyMicros.accumulate(tookMicros);
+        if (failure != null) {
+            operationStats.errors.increment();
+            if (failure instanceof CosServiceException && COSRetryPolicy.isThrottling((CosServiceException) failure)) {
+                operationStats.throttled.increment();
+            }
+        }
+    }
+
+    /**
+     * Records bytes uploaded or downloaded by a successful request.
+     */
+    void onBytes(COSOperation operation, long bytes) {
+        stats.get(operation).bytes.add(bytes);
+    }
+
+    long requests(COSOperation operation) {
+        return stats.get(operation).requests.sum();
+    }
+
+    long bytes(COSOperation operation) {
+        return stats.get(operation).bytes.sum();
+    }
+
+    long errors(COSOperation operation) {
+        return stats.get(operation).errors.sum();
+    }
+
+    /**
+     * Returns an upper bound of the given latency percentile of the operation in microseconds, {@code 0} if no request
+     * was made.
+     */
+    long latencyPercentileMicros(COSOperation operation, double percentile) {
+        final OperationStats operationStats = stats.get(operation);
+        final long[] counts = new long[LATENCY_BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            counts[i] = operationStats.latencyHistogram[i].sum();
+            total += counts[i];
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        final long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0L;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, operationStats.maxLatencyMicros.get());
+            }
+        }
+        return operationStats.maxLatencyMicros.get();
+    }
+
+    static int bucket(long micros) {
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("operations");
+        for (Map.Entry<COSOperation, OperationStats> entry : stats.entrySet()) {
+            final COSOperation operation = entry.getKey();
+            final OperationStats operationStats = entry.getValue();
+            builder.startObject(operation.name().toLowerCase(Locale.ROOT));
+            builder.field("requests", operationStats.requests.sum());
+            builder.field("errors", operationStats.errors.sum());
+            builder.field("throttled", operationStats.throttled.sum());
+            builder.field("bytes", operationStats.bytes.sum());
+            builder.startObject("latency_micros");
+            builder.field("p50", latencyPercentileMicros(operation, 50.0));
+            builder.field("p90", latencyPercentileMicros(operation, 90.0));
+            builder.field("p99", latencyPercentileMicros(operation, 99.0));
+            builder.field("max", operationStats.maxLatencyMicros.get());
+            builder.startObject("histogram");
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                final long count = operationStats.latencyHistogram[i].sum();
+                if (count > 0L) {
+                    builder.field(i == LATENCY_BUCKETS - 1 ? "+Inf" : Long.toString(1L << i), count);
+                }
+            }
+            builder.endObject();
+            builder.endObject();
+            builder.endObject();
+        }
+        return builder.endObject();
+    }
+
+    private static final class OperationStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAccumulator maxLatencyMicros = new LongAccumulator(Math::max, 0L);
+        private final LongAdder[] latencyHistogram = new LongAdder[LATENCY_BUCKETS];
+
+        private OperationStats() {
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                latencyHistogram[i] = new LongAdder();
+            }
+        }
+    }
+}
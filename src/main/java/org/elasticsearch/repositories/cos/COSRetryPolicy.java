@@ -0,0 +1,100 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import com.qcloud.cos.exception.MultiObjectDeleteException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Decides whether a failed COS request is retried and how long to wait before retrying it. Delays grow exponentially
+ * from the base delay up to the max delay and are drawn with full jitter. Retries are paid for out of a per-repository
+ * budget that only refills as requests succeed, so that a service brownout cannot turn into a retry storm.
+ */
+final class COSRetryPolicy {
+
+    // the budget is kept in tenths of a retry, each successful request earns back one tenth
+    private static final int RETRY_COST = 10;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxBudget;
+    private long budget;
+
+    COSRetryPolicy(int maxRetries, TimeValue baseDelay, TimeValue maxDelay, int retryBudget) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelay.millis();
+        this.maxDelayMillis = maxDelay.millis();
+        this.maxBudget = (long) retryBudget * RETRY_COST;
+        this.budget = maxBudget;
+    }
+
+    int maxRetries() {
+        return maxRetries;
+    }
+
+    void onSuccess() {
+        synchronized (this) {
+            if (budget < maxBudget) {
+                budget += 1;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the request that failed with the given exception on its {@code attempt}th try should be retried,
+     * taking a retry from the budget if so.
+     */
+    boolean shouldRetry(CosClientException e, int attempt) {
+        if (attempt > maxRetries || isRetryable(e) == false) {
+            return false;
+        }
+        synchronized (this) {
+            if (budget < RETRY_COST) {
+                return false;
+            }
+            budget -= RETRY_COST;
+            return true;
+        }
+    }
+
+    /**
+     * Sleeps for a random delay between zero and the exponential backoff delay of the given attempt.
+     */
+    void backoff(int attempt) throws InterruptedException {
+        final long delay = backoffDelayMillis(attempt);
+        if (delay > 0) {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        }
+    }
+
+    /**
+     * Returns a random delay between zero and the exponential backoff delay of the given attempt.
+     */
+    long backoffDelayMillis(int attempt) {
+        final long delay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        return delay > 0 ? ThreadLocalRandom.current().nextLong(delay + 1) : 0L;
+    }
+
+    static boolean isRetryable(CosClientException e) {
+        if (e instanceof MultiObjectDeleteException) {
+            return false;
+        }
+        if (e instanceof CosServiceException) {
+            final CosServiceException serviceException = (CosServiceException) e;
+            return serviceException.getStatusCode() >= 500 || isThrottling(serviceException)
+                    || "RequestTimeout".equals(serviceException.getErrorCode());
+        }
+        // client side failures are only retried when caused by the network
+        return ExceptionsHelper.unwrap(e, IOException.class) != null;
+    }
+
+    static boolean isThrottling(CosServiceException e) {
+        return e.getStatusCode() == 503 || e.getStatusCode() == 429 || "SlowDown".equals(e.getErrorCode());
+    }
+}
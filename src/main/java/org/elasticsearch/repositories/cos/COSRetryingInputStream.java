@@ -0,0 +1,159 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import com.qcloud.cos.model.COSObject;
+import com.qcloud.cos.model.COSObjectInputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.core.internal.io.IOUtils;
+
+/**
+ * Wrapper around the content of a {@link COSObject} that resumes the download with a ranged GET from the last delivered
+ * byte when the connection fails mid-transfer. Every resumed request is pinned to the ETag of the first response so that
+ * the object cannot silently change between attempts.
+ */
+final class COSRetryingInputStream extends InputStream {
+
+    private static final Logger logger = LogManager.getLogger(COSRetryingInputStream.class);
+
+    private final COSBlobContainer container;
+    private final String blobName;
+    private final long start;
+    private final long end;
+    private final int maxRetries;
+    @Nullable
+    private final String eTag;
+
+    private InputStream currentStream;
+    private long currentOffset;
+    private int attempt = 1;
+    private List<IOException> failures;
+    private boolean closed;
+    private boolean eof;
+
+    /**
+     * @param object the response of the first GET, covering the bytes {@code start} to {@code end} (inclusive) of the blob
+     */
+    COSRetryingInputStream(COSBlobContainer container, String blobName, COSObject object, long start, long end, int maxRetries) {
+        this.container = container;
+        this.blobName = blobName;
+        this.start = start;
+        this.end = end;
+        this.maxRetries = maxRetries;
+        this.eTag = object.getObjectMetadata().getETag();
+        this.currentStream = object.getObjectContent();
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        while (true) {
+            try {
+                final int result = currentStream.read();
+                if (result == -1) {
+                    eof = true;
+                    return -1;
+                }
+                currentOffset += 1;
+                return result;
+            } catch (IOException e) {
+                reopenStreamOrFail(e);
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (true) {
+            try {
+                final int bytesRead = currentStream.read(b, off, len);
+                if (bytesRead == -1) {
+                    eof = true;
+                    return -1;
+                }
+                currentOffset += bytesRead;
+                return bytesRead;
+            } catch (IOException e) {
+                reopenStreamOrFail(e);
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            assert false : "using COSRetryingInputStream after close";
+            throw new IllegalStateException("using COSRetryingInputStream after close");
+        }
+    }
+
+    private void reopenStreamOrFail(IOException e) throws IOException {
+        if (attempt > maxRetries) {
+            throw addSuppressedFailures(e);
+        }
+        logger.debug(new ParameterizedMessage("failed reading [{}] at offset [{}], attempt [{}] of [{}], resuming",
+                blobName, start + currentOffset, attempt, maxRetries), e);
+        attempt += 1;
+        if (failures == null) {
+            failures = new ArrayList<>();
+        }
+        failures.add(e);
+        abortQuietly(currentStream);
+        try {
+            final COSObject object = container.getObjectRange(blobName, start + currentOffset, end, eTag);
+            if (eTag != null && Objects.equals(eTag, object.getObjectMetadata().getETag()) == false) {
+                IOUtils.closeWhileHandlingException(object.getObjectContent());
+                throw new IOException("Blob object [" + blobName + "] changed while being read");
+            }
+            currentStream = object.getObjectContent();
+        } catch (IOException | RuntimeException reopenFailure) {
+            throw addSuppressedFailures(reopenFailure instanceof IOException ? (IOException) reopenFailure
+                    : new IOException("Failed to resume reading blob object [" + blobName + "]", reopenFailure));
+        }
+    }
+
+    private IOException addSuppressedFailures(IOException e) {
+        if (failures != null) {
+            for (IOException failure : failures) {
+                if (failure != e) {
+                    e.addSuppressed(failure);
+                }
+            }
+        }
+        return e;
+    }
+
+    private void abortQuietly(InputStream stream) {
+        // aborting drops the connection instead of draining the rest of the response we are not going to read
+        if (stream instanceof COSObjectInputStream && eof == false) {
+            ((COSObjectInputStream) stream).abort();
+        }
+        IOUtils.closeWhileHandlingException(stream);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed == false) {
+            closed = true;
+            if (eof) {
+                currentStream.close();
+            } else {
+                abortQuietly(currentStream);
+            }
+        }
+    }
+
+    // skip is left to InputStream, which reads and discards the bytes so that the offset to resume from stays accurate
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
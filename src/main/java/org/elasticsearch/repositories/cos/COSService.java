@@ -4,77 +4,287 @@ import com.qcloud.cos.COSClient;
 import com.qcloud.cos.ClientConfig;
 import com.qcloud.cos.auth.BasicCOSCredentials;
 import com.qcloud.cos.auth.COSCredentials;
+import com.qcloud.cos.endpoint.EndpointBuilder;
+import com.qcloud.cos.endpoint.EndpointResolver;
+import com.qcloud.cos.http.HttpProtocol;
 import com.qcloud.cos.region.Region;
 import org.elasticsearch.cluster.metadata.RepositoryMetaData;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.collect.MapBuilder;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 import org.elasticsearch.repositories.RepositoryException;
 
 import java.io.Closeable;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static java.util.Collections.emptyMap;
 
-//TODO: 考虑是否需要继承closeable，处理连接池等问题
 public class COSService implements Closeable {
 
     public static final ByteSizeValue MAX_SINGLE_FILE_SIZE = new ByteSizeValue(5, ByteSizeUnit.GB);
 
     volatile Map<String, COSClientSecretSettings> secretSettings = emptyMap();
 
+    /**
+     * Clients shared by all repositories with the same effective client settings. The cache holds one reference to
+     * each client, every repository using a client holds another one.
+     */
+    private volatile Map<ClientSettingsKey, COSClientReference> clientsCache = emptyMap();
+
+    /**
+     * The blob stores of the repositories currently open on this node, by repository name.
+     */
+    private final Map<String, COSBlobStore> blobStores = ConcurrentCollections.newConcurrentMap();
+
     public COSService(Settings settings) {
         // eagerly load client settings so that secure settings are read
         final Map<String, COSClientSecretSettings> clientsSettings = COSClientSecretSettings.load(settings);
         refreshAndClearCache(clientsSettings);
     }
 
-    public synchronized COSClient createClient(RepositoryMetadata metaData) {
-        Tuple<String, String> secret = getSecret(COSClientSettings.ACCOUNT.get(metaData.settings()));
-        String access_key_id = secret.v1();
-        String access_key_secret = secret.v2();
+    /**
+     * Returns a shared client for the given repository. The caller must {@link COSClientReference#close()} the reference
+     * once it does not use the client anymore.
+     */
+    public COSClientReference client(RepositoryMetaData metaData) {
+        return client(metaData, COSClientSettings.END_POINT.get(metaData.settings()));
+    }
+
+    /**
+     * Returns a shared client for the given repository that talks to the endpoint with the given domain suffix.
+     */
+    COSClientReference client(RepositoryMetaData metaData, String endPoint) {
+        final ClientSettingsKey key = clientSettingsKey(metaData, endPoint);
+        {
+            final COSClientReference clientReference = clientsCache.get(key);
+            if (clientReference != null && clientReference.tryIncRef()) {
+                return clientReference;
+            }
+        }
+        synchronized (this) {
+            final COSClientReference existing = clientsCache.get(key);
+            if (existing != null && existing.tryIncRef()) {
+                return existing;
+            }
+            final COSClientReference clientReference = new COSClientReference(createClient(key),
+                    TimeValue.timeValueMillis(key.idleConnectionTimeoutMillis));
+            clientReference.incRef();
+            clientsCache = MapBuilder.newMapBuilder(clientsCache).put(key, clientReference).immutableMap();
+            return clientReference;
+        }
+    }
+
+    /**
+     * Returns a router over clients for every endpoint configured for the given repository, which releases the clients
+     * when it is closed.
+     */
+    COSEndpointRouter endpointRouter(RepositoryMetaData metaData) {
+        final Settings settings = metaData.settings();
+        final List<String> names = COSClientSettings.END_POINTS.exists(settings)
+                ? COSClientSettings.END_POINTS.get(settings) : Collections.singletonList(COSClientSettings.END_POINT.get(settings));
+        final Map<String, COSEndpointRouter.Endpoint> byName = new LinkedHashMap<>();
+        final List<COSEndpointRouter.Endpoint> endpoints = new ArrayList<>();
+        final List<COSEndpointRouter.Endpoint> transferEndpoints = new ArrayList<>();
+        boolean success = false;
+        try {
+            for (String name : new LinkedHashSet<>(names)) {
+                endpoints.add(byName.computeIfAbsent(name, n -> new COSEndpointRouter.Endpoint(n, client(metaData, n))));
+            }
+            for (String name : new LinkedHashSet<>(COSClientSettings.TRANSFER_END_POINTS.get(settings))) {
+                transferEndpoints.add(byName.computeIfAbsent(name, n -> new COSEndpointRouter.Endpoint(n, client(metaData, n))));
+            }
+            if (endpoints.isEmpty()) {
+                throw new RepositoryException(metaData.name(), "No end_points defined for cos repository");
+            }
+            final COSEndpointRouter router = new COSEndpointRouter(endpoints, transferEndpoints,
+                    COSClientSettings.END_POINT_FAILURE_THRESHOLD.get(settings), COSClientSettings.END_POINT_RETRY_INTERVAL.get(settings));
+            success = true;
+            return router;
+        } finally {
+            if (success == false) {
+                byName.values().forEach(endpoint -> endpoint.clientReference().close());
+            }
+        }
+    }
+
+    void registerBlobStore(String repositoryName, COSBlobStore blobStore) {
+        blobStores.put(repositoryName, blobStore);
+    }
 
+    void unregisterBlobStore(String repositoryName, COSBlobStore blobStore) {
+        blobStores.remove(repositoryName, blobStore);
+    }
+
+    /**
+     * Returns the blob stores of the repositories currently open on this node, by repository name.
+     */
+    Map<String, COSBlobStore> blobStores() {
+        return Collections.unmodifiableMap(blobStores);
+    }
+
+    private ClientSettingsKey clientSettingsKey(RepositoryMetaData metaData, String endPoint) {
+        Tuple<String, String> secret = getSecret(metaData);
         String region = COSClientSettings.REGION.get(metaData.settings());
         if (region == null || !Strings.hasLength(region)) {
             throw new RepositoryException(metaData.name(), "No region defined for cos repository");
         }
-        String endPoint = COSClientSettings.END_POINT.get(metaData.settings());
+        return new ClientSettingsKey(secret.v1(), secret.v2(), region, endPoint,
+                COSClientSettings.ENDPOINT_OVERRIDE.get(metaData.settings()), COSClientSettings.PROTOCOL.get(metaData.settings()),
+                COSClientSettings.MAX_CONNECTIONS.get(metaData.settings()),
+                Math.toIntExact(COSClientSettings.CONNECTION_TIMEOUT.get(metaData.settings()).millis()),
+                Math.toIntExact(COSClientSettings.SOCKET_TIMEOUT.get(metaData.settings()).millis()),
+                Math.toIntExact(COSClientSettings.CONNECTION_REQUEST_TIMEOUT.get(metaData.settings()).millis()),
+                COSClientSettings.CONNECTION_IDLE_TIMEOUT.get(metaData.settings()).millis());
+    }
+
+    private static COSClient createClient(ClientSettingsKey key) {
+        COSCredentials cred = new BasicCOSCredentials(key.accessKeyId, key.accessKeySecret);
+        ClientConfig clientConfig = new ClientConfig(new Region(key.region));
+        if (Strings.hasLength(key.endPoint)) {
+            clientConfig.setEndPointSuffix(key.endPoint);
+        }
+        if (Strings.hasLength(key.endpointOverride)) {
+            // keep the bucket in the Host header, but send every request to the overridden address
+            final String address = key.endpointOverride;
+            clientConfig.setEndpointBuilder(new EndpointBuilder() {
+                @Override
+                public String buildGeneralApiEndpoint(String bucketName) {
+                    return bucketName + "." + address;
+                }
+
+                @Override
+                public String buildGetServiceApiEndpoint() {
+                    return address;
+                }
+            });
+            clientConfig.setEndpointResolver(new EndpointResolver() {
+                @Override
+                public String resolveGeneralApiEndpoint(String generalApiEndpoint) {
+                    return address;
+                }
 
-        COSCredentials cred = new BasicCOSCredentials(access_key_id, access_key_secret);
-        ClientConfig clientConfig = new ClientConfig(new Region(region));
-        if (Strings.hasLength(endPoint)) {
-            clientConfig.setEndPointSuffix(endPoint);
+                @Override
+                public String resolveGetServiceApiEndpoint(String getServiceApiEndpoint) {
+                    return address;
+                }
+            });
         }
+        clientConfig.setHttpProtocol(key.protocol);
+        clientConfig.setMaxConnectionsCount(key.maxConnections);
+        clientConfig.setConnectionTimeout(key.connectionTimeoutMillis);
+        clientConfig.setSocketTimeout(key.socketTimeoutMillis);
+        clientConfig.setConnectionRequestTimeout(key.connectionRequestTimeoutMillis);
 
         return new COSClient(cred, clientConfig);
     }
 
     @Override
-    public void close() throws IOException {
-        this.client.shutdown();
+    public void close() {
+        releaseCachedClients();
     }
 
-
-    public Map<String, COSClientSecretSettings> refreshAndClearCache(Map<String, COSClientSecretSettings> clientsSettings) {
+    /**
+     * Replaces the secure client settings and drops all cached clients, so that repositories created from now on use
+     * clients built from the new settings. Clients still used by existing repositories are shut down once those
+     * repositories release them.
+     */
+    public synchronized Map<String, COSClientSecretSettings> refreshAndClearCache(Map<String, COSClientSecretSettings> clientsSettings) {
         final Map<String, COSClientSecretSettings> prevSettings = this.secretSettings;
         this.secretSettings = MapBuilder.newMapBuilder(clientsSettings).immutableMap();
+        releaseCachedClients();
         return prevSettings;
     }
 
-    private Tuple<String, String> getSecret(RepositoryMetadata metaData) {
+    private synchronized void releaseCachedClients() {
+        final Map<ClientSettingsKey, COSClientReference> clients = this.clientsCache;
+        this.clientsCache = emptyMap();
+        clients.values().forEach(COSClientReference::decRef);
+    }
+
+    private Tuple<String, String> getSecret(RepositoryMetaData metaData) {
         // meta setting first
         String access_key_id = COSClientSettings.ACCESS_KEY_ID.get(metaData.settings());
         String access_key_secret = COSClientSettings.ACCESS_KEY_SECRET.get(metaData.settings());
         if (access_key_id == null || !Strings.hasLength(access_key_id)||
             access_key_secret == null || !Strings.hasLength(access_key_secret)) {
-            // secret setting 
+            // secret setting
             String account = COSClientSettings.ACCOUNT.get(metaData.settings());
             final COSClientSecretSettings cosSecretSetting = this.secretSettings.get(account);
             if (cosSecretSetting == null) {
                 throw new SettingsException("Unable to find cos repo secret settings with name [" + account + "]");
             }
-            access_key_id = secret.getSecretId();
-            access_key_secret = secret.getSecretKey();
+            access_key_id = cosSecretSetting.getSecretId();
+            access_key_secret = cosSecretSetting.getSecretKey();
         }
         return new Tuple<>(access_key_id, access_key_secret);
     }
 
+    /**
+     * The settings a {@link COSClient} is built from. Repositories whose settings resolve to equal keys share a client.
+     */
+    private static final class ClientSettingsKey {
+        private final String accessKeyId;
+        private final String accessKeySecret;
+        private final String region;
+        private final String endPoint;
+        private final String endpointOverride;
+        private final HttpProtocol protocol;
+        private final int maxConnections;
+        private final int connectionTimeoutMillis;
+        private final int socketTimeoutMillis;
+        private final int connectionRequestTimeoutMillis;
+        private final long idleConnectionTimeoutMillis;
+
+        ClientSettingsKey(String accessKeyId, String accessKeySecret, String region, String endPoint, String endpointOverride,
+                          HttpProtocol protocol, int maxConnections, int connectionTimeoutMillis, int socketTimeoutMillis,
+                          int connectionRequestTimeoutMillis, long idleConnectionTimeoutMillis) {
+            this.accessKeyId = accessKeyId;
+            this.accessKeySecret = accessKeySecret;
+            this.region = region;
+            this.endPoint = endPoint;
+            this.endpointOverride = endpointOverride;
+            this.protocol = protocol;
+            this.maxConnections = maxConnections;
+            this.connectionTimeoutMillis = connectionTimeoutMillis;
+            this.socketTimeoutMillis = socketTimeoutMillis;
+            this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+            this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final ClientSettingsKey that = (ClientSettingsKey) o;
+            return Objects.equals(accessKeyId, that.accessKeyId) && Objects.equals(accessKeySecret, that.accessKeySecret)
+                    && Objects.equals(region, that.region) && Objects.equals(endPoint, that.endPoint)
+                    && Objects.equals(endpointOverride, that.endpointOverride) && protocol == that.protocol
+                    && maxConnections == that.maxConnections && connectionTimeoutMillis == that.connectionTimeoutMillis
+                    && socketTimeoutMillis == that.socketTimeoutMillis
+                    && connectionRequestTimeoutMillis == that.connectionRequestTimeoutMillis
+                    && idleConnectionTimeoutMillis == that.idleConnectionTimeoutMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(accessKeyId, accessKeySecret, region, endPoint, endpointOverride, protocol, maxConnections,
+                    connectionTimeoutMillis, socketTimeoutMillis, connectionRequestTimeoutMillis, idleConnectionTimeoutMillis);
+        }
+    }
 }
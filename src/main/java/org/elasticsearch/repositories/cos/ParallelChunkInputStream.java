@@ -0,0 +1,129 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.elasticsearch.common.util.concurrent.FutureUtils;
+
+/**
+ * An {@link InputStream} over a large object that fetches the chunks following the one being consumed with concurrent
+ * byte-range GETs. Fetched chunks are kept in a reorder buffer of at most {@code concurrency} chunks and handed to the
+ * reader in order, so memory stays bounded to {@code (concurrency + 1) * chunkSize} bytes per stream.
+ */
+final class ParallelChunkInputStream extends InputStream {
+
+    /**
+     * Starts reading the {@code length} bytes of the object starting at {@code position}, returning a future of the bytes.
+     */
+    @FunctionalInterface
+    interface ChunkReader {
+        CompletableFuture<byte[]> read(long position, int length);
+    }
+
+    private final ChunkReader reader;
+    private final long length;
+    private final long chunkSize;
+    private final int concurrency;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private long nextChunkPosition;
+    private InputStream current;
+    private boolean closed;
+
+    /**
+     * @param firstChunk       the stream over the first {@code firstChunkLength} bytes of the object, usually the body of
+     *                         the GET that discovered the object length
+     * @param length           the total length of the object
+     */
+    ParallelChunkInputStream(InputStream firstChunk, long firstChunkLength, long length, long chunkSize, int concurrency,
+                             ChunkReader reader) {
+        this.current = firstChunk;
+        this.nextChunkPosition = firstChunkLength;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.concurrency = concurrency;
+        this.reader = reader;
+        fill();
+    }
+
+    private void fill() {
+        while (pending.size() < concurrency && nextChunkPosition < length) {
+            final long position = nextChunkPosition;
+            final int size = Math.toIntExact(Math.min(chunkSize, length - position));
+            pending.add(reader.read(position, size));
+            nextChunkPosition += size;
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        current.close();
+        final Future<byte[]> next = pending.poll();
+        if (next == null) {
+            current = null;
+            return false;
+        }
+        try {
+            current = new ByteArrayInputStream(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next chunk");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to read chunk", e.getCause());
+        }
+        fill();
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        while (current != null) {
+            final int b = current.read();
+            if (b >= 0) {
+                return b;
+            }
+            nextChunk();
+        }
+        return -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (current != null) {
+            final int read = current.read(b, off, len);
+            if (read > 0 || (read == 0 && len == 0)) {
+                return read;
+            }
+            nextChunk();
+        }
+        return -1;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed == false) {
+            closed = true;
+            pending.forEach(FutureUtils::cancel);
+            pending.clear();
+            if (current != null) {
+                current.close();
+            }
+        }
+    }
+}
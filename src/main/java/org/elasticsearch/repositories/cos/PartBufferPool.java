@@ -0,0 +1,75 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A fixed budget of reusable buffers used to stage multipart upload parts in memory. At most {@code maxBuffers}
+ * buffers are handed out at any time, so parts staged by all uploads of a blob store never take more than
+ * {@code maxBuffers * bufferSize} bytes. Pooled buffers are heap buffers unless configured to be direct buffers, which
+ * keeps the staged parts out of the heap at the cost of direct memory that is shared with the transport layer.
+ */
+final class PartBufferPool {
+
+    private final int bufferSize;
+    private final boolean direct;
+    private final Semaphore permits;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    PartBufferPool(int maxBuffers, int bufferSize, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.permits = new Semaphore(maxBuffers);
+    }
+
+    /**
+     * Blocks until a buffer is available and returns an empty buffer whose limit is {@code size} bytes. Parts larger
+     * than the configured buffer size are served from a freshly allocated heap buffer that is not returned to the pool,
+     * since allocating direct memory for a single use costs more than it saves.
+     */
+    ByteBuffer acquire(int size) throws InterruptedException {
+        permits.acquire();
+        if (size > bufferSize) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize && buffer.isDirect() == direct) {
+            buffers.offer(buffer);
+        }
+        permits.release();
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    boolean direct() {
+        return direct;
+    }
+
+    /**
+     * Reads from the channel until the buffer is full or the channel ends, and returns the buffer flipped for reading.
+     */
+    static ByteBuffer fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        // a channel over a stream may return fewer bytes than requested before it ends
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
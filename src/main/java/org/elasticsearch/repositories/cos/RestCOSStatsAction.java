@@ -0,0 +1,91 @@
+package org.elasticsearch.repositories.cos;
+
+import java.util.Map;
+
+import org.apache.http.pool.PoolStats;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Reports the request statistics of the cos repositories open on the node handling the request:
+ * {@code GET /_cos/stats} for all repositories and {@code GET /_cos/stats/{repository}} for the repositories matching
+ * a comma separated list of names or wildcard patterns.
+ */
+public class RestCOSStatsAction extends BaseRestHandler {
+
+    private final COSService service;
+
+    public RestCOSStatsAction(RestController controller, COSService service) {
+        this.service = service;
+        controller.registerHandler(GET, "/_cos/stats", this);
+        controller.registerHandler(GET, "/_cos/stats/{repository}", this);
+    }
+
+    @Override
+    public String getName() {
+        return "cos_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        final String[] repositories = Strings.splitStringByCommaToArray(request.param("repository", "_all"));
+        return channel -> {
+            final XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.startObject("repositories");
+            for (Map.Entry<String, COSBlobStore> entry : service.blobStores().entrySet()) {
+                if (matches(repositories, entry.getKey()) == false) {
+                    continue;
+                }
+                final COSBlobStore blobStore = entry.getValue();
+                builder.startObject(entry.getKey());
+                builder.field("bucket", blobStore.bucket());
+                blobStore.stats().toXContent(builder, request);
+                final COSConcurrencyLimiter concurrencyLimiter = blobStore.concurrencyLimiter();
+                if (concurrencyLimiter != null) {
+                    concurrencyLimiter.toXContent(builder, request);
+                }
+                final COSPartPrefetcher partPrefetcher = blobStore.partPrefetcher();
+                if (partPrefetcher != null) {
+                    partPrefetcher.toXContent(builder, request);
+                }
+                final COSRequestHedger hedger = blobStore.hedger();
+                if (hedger != null) {
+                    hedger.toXContent(builder, request);
+                }
+                blobStore.endpointRouter().toXContent(builder, request);
+                final PoolStats poolStats = blobStore.connectionPoolStats();
+                if (poolStats != null) {
+                    builder.startObject("connection_pool");
+                    builder.field("leased", poolStats.getLeased());
+                    builder.field("pending", poolStats.getPending());
+                    builder.field("available", poolStats.getAvailable());
+                    builder.field("max", poolStats.getMax());
+                    builder.endObject();
+                }
+                builder.endObject();
+            }
+            builder.endObject();
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+
+    private static boolean matches(String[] patterns, String repository) {
+        for (String pattern : patterns) {
+            if ("_all".equals(pattern) || Regex.simpleMatch(pattern, repository)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
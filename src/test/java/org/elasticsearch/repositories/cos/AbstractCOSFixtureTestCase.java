@@ -0,0 +1,94 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.threadpool.TestThreadPool;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.After;
+
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Base class of the tests that run the blob container against {@link COSHttpFixture}. The fixture is only started by
+ * {@link #createBlobContainer}, so that unit tests of the same feature can live next to them without it.
+ */
+public abstract class AbstractCOSFixtureTestCase extends ESTestCase {
+
+    protected static final String BUCKET = "bucket-1250000000";
+
+    protected COSHttpFixture fixture;
+    protected ThreadPool threadPool;
+    protected COSService service;
+    protected COSBlobStore blobStore;
+
+    @After
+    public void tearDownFixture() throws Exception {
+        if (blobStore != null) {
+            blobStore.close();
+        }
+        if (service != null) {
+            service.close();
+        }
+        if (threadPool != null) {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+        if (fixture != null) {
+            fixture.close();
+        }
+    }
+
+    protected BlobContainer createBlobContainer(Settings extraSettings) throws IOException {
+        return createBlobContainer(extraSettings, null);
+    }
+
+    protected BlobContainer createBlobContainer(Settings extraSettings, @Nullable COSDiskCache diskCache) throws IOException {
+        fixture = new COSHttpFixture(BUCKET);
+        threadPool = new TestThreadPool(getTestName());
+        service = new COSService(Settings.EMPTY);
+        final Settings settings = Settings.builder()
+                .put(COSClientSettings.ACCESS_KEY_ID.getKey(), "access_key_id")
+                .put(COSClientSettings.ACCESS_KEY_SECRET.getKey(), "access_key_secret")
+                .put(COSClientSettings.REGION.getKey(), "ap-guangzhou")
+                .put(COSClientSettings.BUCKET.getKey(), BUCKET)
+                .put(COSClientSettings.ENDPOINT_OVERRIDE.getKey(), fixture.address())
+                .put(COSClientSettings.PROTOCOL.getKey(), "http")
+                .put(COSClientSettings.MULTIPART_THRESHOLD.getKey(), "1mb")
+                .put(COSClientSettings.PART_SIZE.getKey(), "1mb")
+                .put(COSClientSettings.RETRY_BASE_DELAY.getKey(), "1ms")
+                .put(extraSettings)
+                .build();
+        final RepositoryMetaData metaData = new RepositoryMetaData("repository", COSRepository.TYPE, settings);
+        blobStore = new COSBlobStore(service.client(metaData), BUCKET, metaData, threadPool, diskCache);
+        return blobStore.blobContainer(new BlobPath().add("base_path"));
+    }
+
+    /**
+     * Waits until the fixture received a request of the given type. Unlike assertBusy it polls at a steady pace, so that it
+     * returns while the request is still being served.
+     */
+    protected void awaitRequest(String type) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (fixture.requests(type) == 0L) {
+            assertThat(System.nanoTime(), lessThan(deadline));
+            Thread.sleep(10L);
+        }
+    }
+
+    protected static byte[] readBlob(BlobContainer container, String blobName) throws IOException {
+        try (InputStream in = container.readBlob(blobName)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Streams.copy(in, out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+public class COSBlobCacheTests extends AbstractCOSFixtureTestCase {
+
+    public void testIsCacheable() {
+        assertTrue(COSBlobCache.isCacheable("index-5"));
+        assertTrue(COSBlobCache.isCacheable("index.latest"));
+        assertTrue(COSBlobCache.isCacheable("snap-abc.dat"));
+        assertTrue(COSBlobCache.isCacheable("meta-abc.dat"));
+        assertFalse(COSBlobCache.isCacheable("__abc"));
+        assertFalse(COSBlobCache.isCacheable("pending-index-5-abc"));
+    }
+
+    public void testFreshBlobsAreServedFromCacheAndStaleOnesRevalidated() throws IOException {
+        final AtomicLong now = new AtomicLong();
+        final COSBlobCache cache = new COSBlobCache(1024, 16, TimeValue.timeValueSeconds(1), now::get);
+        final AtomicInteger loads = new AtomicInteger();
+        final List<String> revalidatedETags = new ArrayList<>();
+        final COSBlobCache.Loader loader = stale -> {
+            loads.incrementAndGet();
+            if (stale != null) {
+                revalidatedETags.add(stale.eTag());
+                return COSBlobCache.Loaded.notModified();
+            }
+            return COSBlobCache.Loaded.cached(new COSBlobCache.CachedBlob("etag", new byte[] {1, 2}));
+        };
+        assertArrayEquals(new byte[] {1, 2}, read(cache, "key", loader));
+        assertArrayEquals(new byte[] {1, 2}, read(cache, "key", loader));
+        assertEquals(1, loads.get());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertArrayEquals(new byte[] {1, 2}, read(cache, "key", loader));
+        assertArrayEquals(new byte[] {1, 2}, read(cache, "key", loader));
+        assertEquals(2, loads.get());
+        assertEquals(Collections.singletonList("etag"), revalidatedETags);
+
+        cache.invalidate(Collections.singletonList("k"));
+        assertArrayEquals(new byte[] {1, 2}, read(cache, "key", loader));
+        assertEquals(3, loads.get());
+    }
+
+    public void testBlobsLoadedBeforeAnInvalidationAreNotCached() throws IOException {
+        final COSBlobCache cache = new COSBlobCache(1024, 16, TimeValue.timeValueSeconds(1), () -> 0L);
+        final AtomicInteger loads = new AtomicInteger();
+        final COSBlobCache.Loader loader = stale -> {
+            if (loads.incrementAndGet() == 1) {
+                // the blob is modified while its previous content is being loaded
+                cache.invalidate(Collections.singletonList("key"));
+            }
+            return COSBlobCache.Loaded.cached(new COSBlobCache.CachedBlob("etag-" + loads.get(), new byte[] {(byte) loads.get()}));
+        };
+        assertArrayEquals(new byte[] {1}, read(cache, "key", loader));
+        assertArrayEquals(new byte[] {2}, read(cache, "key", loader));
+        assertArrayEquals(new byte[] {2}, read(cache, "key", loader));
+        assertEquals(2, loads.get());
+    }
+
+    public void testBlobsTooLargeToCacheAreStreamed() throws IOException {
+        final COSBlobCache cache = new COSBlobCache(1024, 16, TimeValue.timeValueSeconds(1), () -> 0L);
+        final AtomicInteger loads = new AtomicInteger();
+        final COSBlobCache.Loader loader = stale -> {
+            assertNull(stale);
+            loads.incrementAndGet();
+            return COSBlobCache.Loaded.uncached(new ByteArrayInputStream(new byte[32]));
+        };
+        assertEquals(32, read(cache, "key", loader).length);
+        assertEquals(32, read(cache, "key", loader).length);
+        assertEquals(2, loads.get());
+    }
+
+    public void testConcurrentReadsShareOneLoad() throws Exception {
+        final COSBlobCache cache = new COSBlobCache(1024, 16, TimeValue.timeValueSeconds(1), () -> 0L);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger uncachedReads = new AtomicInteger();
+        final COSBlobCache.Loader loader = stale -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            return COSBlobCache.Loaded.cached(new COSBlobCache.CachedBlob("etag", new byte[] {7}));
+        };
+        final List<Thread> threads = new ArrayList<>();
+        final List<byte[]> results = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                try (InputStream in = cache.read("key", loader, () -> {
+                    uncachedReads.incrementAndGet();
+                    return new ByteArrayInputStream(new byte[0]);
+                })) {
+                    results.add(toBytes(in));
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }));
+        }
+        threads.get(0).start();
+        loading.await();
+        for (int i = 1; i < threads.size(); i++) {
+            threads.get(i).start();
+        }
+        assertBusy(() -> assertTrue(threads.subList(1, threads.size()).stream()
+                .allMatch(thread -> thread.getState() == Thread.State.WAITING)));
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, uncachedReads.get());
+        assertEquals(4, results.size());
+        results.forEach(bytes -> assertArrayEquals(new byte[] {7}, bytes));
+    }
+
+    public void testMetadataBlobsAreCached() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.BLOB_CACHE_SIZE.getKey(), "1mb")
+                .put(COSClientSettings.BLOB_CACHE_TTL.getKey(), "1h")
+                .build());
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(1, 1024));
+        container.writeBlob("index-1", new ByteArrayInputStream(data), data.length, true);
+        container.writeBlob("__data", new ByteArrayInputStream(data), data.length, true);
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(data, readBlob(container, "index-1"));
+            assertArrayEquals(data, readBlob(container, "__data"));
+        }
+        assertEquals(4L, fixture.requests("GET"));
+
+        // writes through the same blob store invalidate the cached blob
+        final byte[] updated = randomByteArrayOfLength(randomIntBetween(1, 1024));
+        container.writeBlob("index-1", new ByteArrayInputStream(updated), updated.length, false);
+        assertArrayEquals(updated, readBlob(container, "index-1"));
+        assertArrayEquals(updated, readBlob(container, "index-1"));
+        assertEquals(5L, fixture.requests("GET"));
+        container.deleteBlobsIgnoringIfNotExists(Collections.singletonList("index-1"));
+        expectThrows(NoSuchFileException.class, () -> container.readBlob("index-1"));
+    }
+
+    public void testExpiredCachedBlobsAreRevalidated() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.BLOB_CACHE_SIZE.getKey(), "1mb")
+                .put(COSClientSettings.BLOB_CACHE_TTL.getKey(), "0s")
+                .build());
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(1, 1024));
+        container.writeBlob("index.latest", new ByteArrayInputStream(data), data.length, true);
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(data, readBlob(container, "index.latest"));
+        }
+        // the first read transfers the blob, the others are answered with 304 Not Modified
+        assertEquals(3L, fixture.requests("GET"));
+
+        // a change made by another node is picked up by the revalidation
+        final byte[] updated = randomByteArrayOfLength(randomIntBetween(1, 1024));
+        fixture.putBlob("base_path/index.latest", updated);
+        assertArrayEquals(updated, readBlob(container, "index.latest"));
+    }
+
+    private static byte[] read(COSBlobCache cache, String key, COSBlobCache.Loader loader) throws IOException {
+        try (InputStream in = cache.read(key, loader, () -> {
+            throw new AssertionError("unexpected uncached read");
+        })) {
+            return toBytes(in);
+        }
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Streams.copy(in, out);
+        return out.toByteArray();
+    }
+}
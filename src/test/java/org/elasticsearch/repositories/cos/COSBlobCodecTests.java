@@ -0,0 +1,109 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.qcloud.cos.model.ObjectMetadata;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class COSBlobCodecTests extends AbstractCOSFixtureTestCase {
+
+    public void testEncodingRoundTrip() throws IOException {
+        for (COSBlobCodec codec : COSBlobCodec.values()) {
+            final byte[] data = randomByteArrayOfLength(randomIntBetween(0, 256 * 1024));
+            final byte[] encoded = toBytes(codec.encode(new ByteArrayInputStream(data), randomIntBetween(0, 9)));
+            // random bytes do not compress, so their encoding is as large as it gets
+            assertThat((long) encoded.length, lessThanOrEqualTo(codec.maxEncodedSize(data.length)));
+            assertArrayEquals(data, toBytes(codec.decode("blob", new ByteArrayInputStream(encoded))));
+        }
+    }
+
+    public void testTrailingBytesAreRejected() throws IOException {
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(1, 1024));
+        final byte[] encoded = toBytes(COSBlobCodec.DEFLATE.encode(new ByteArrayInputStream(data), 6));
+        final byte[] trailing = Arrays.copyOf(encoded, encoded.length + 1);
+        final IOException e = expectThrows(IOException.class,
+                () -> toBytes(COSBlobCodec.DEFLATE.decode("blob", new ByteArrayInputStream(trailing))));
+        assertThat(e.getMessage(), containsString("trailing bytes"));
+    }
+
+    public void testCodecIsReadFromMetadata() throws IOException {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        assertEquals(COSBlobCodec.NONE, COSBlobCodec.fromMetadata("blob", metadata));
+        COSBlobCodec.DEFLATE.addTo(metadata);
+        assertEquals(COSBlobCodec.DEFLATE, COSBlobCodec.fromMetadata("blob", metadata));
+        metadata.addUserMetadata(COSBlobCodec.METADATA_KEY, "zstd");
+        expectThrows(IOException.class, () -> COSBlobCodec.fromMetadata("blob", metadata));
+    }
+
+    public void testDataBlobsAreCompressed() throws IOException {
+        // the disk cache holds the compressed bytes
+        final COSDiskCache diskCache = randomBoolean() ? new COSDiskCache(createTempDir(), 8 * 1024 * 1024) : null;
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.DATA_COMPRESSION.getKey(), "deflate")
+                .put(COSClientSettings.DOWNLOAD_CHUNK_SIZE.getKey(), "1mb")
+                .build(), diskCache);
+        final byte[] text = String.join("", Collections.nCopies(100_000, "stored fields compress well ")).getBytes(StandardCharsets.UTF_8);
+        container.writeBlob("__text", new ByteArrayInputStream(text), text.length, true);
+        // the encoded blob fits in a single part
+        assertEquals(0L, fixture.requests("UPLOAD_PART"));
+        assertThat(container.listBlobs().get("__text").length(), lessThan(text.length / 10L));
+        assertEquals(Collections.singletonMap("x-cos-meta-es-codec", "deflate"), fixture.userMetadata("base_path/__text"));
+        assertArrayEquals(text, readBlob(container, "__text"));
+
+        // the encoding of an incompressible blob stays within the bound of its staging buffer
+        final byte[] small = randomByteArrayOfLength(randomIntBetween(1, 512 * 1024));
+        container.writeBlob("__small", new ByteArrayInputStream(small), small.length, true);
+        assertEquals(0L, fixture.requests("UPLOAD_PART"));
+        assertThat(container.listBlobs().get("__small").length(), greaterThan((long) small.length));
+        assertArrayEquals(small, readBlob(container, "__small"));
+
+        final byte[] random = randomByteArrayOfLength(randomIntBetween(2 * 1024 * 1024, 3 * 1024 * 1024));
+        container.writeBlob("__random", new ByteArrayInputStream(random), random.length, true);
+        assertThat(fixture.requests("UPLOAD_PART"), greaterThanOrEqualTo(3L));
+        assertEquals("deflate", fixture.userMetadata("base_path/__random").get("x-cos-meta-es-codec"));
+        assertArrayEquals(random, readBlob(container, "__random"));
+        assertArrayEquals(random, readBlob(container, "__random"));
+        // offsets of the content cannot be mapped to ranges of the stored bytes
+        expectThrows(IOException.class, () -> ((COSBlobContainer) container).readBlob("__random", 1L, 10L));
+
+        // metadata blobs and blobs written before compression was enabled are stored as is
+        container.writeBlob("index-0", new ByteArrayInputStream(text), text.length, true);
+        assertEquals(text.length, container.listBlobs().get("index-0").length());
+        fixture.putBlob("base_path/__plain", random);
+        assertArrayEquals(random, readBlob(container, "__plain"));
+    }
+
+    public void testEncodedPartsKeepWithinPartLimit() throws IOException {
+        final COSBlobContainer container = (COSBlobContainer) createBlobContainer(Settings.EMPTY);
+        final long partSize = 1024 * 1024;
+        // a blob that takes exactly the maximum number of parts as is, and more once its encoding grows
+        final long blobSize = partSize * COSBlobContainer.MAX_MULTIPART_PARTS;
+        assertEquals(partSize, container.encodedPartSize(blobSize, COSBlobCodec.NONE));
+        final long encodedPartSize = container.encodedPartSize(blobSize, COSBlobCodec.DEFLATE);
+        assertThat(encodedPartSize, greaterThan(partSize));
+        assertThat(encodedPartSize * COSBlobContainer.MAX_MULTIPART_PARTS,
+                greaterThanOrEqualTo(COSBlobCodec.DEFLATE.maxEncodedSize(blobSize)));
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Streams.copy(stream, out);
+            return out.toByteArray();
+        }
+    }
+}
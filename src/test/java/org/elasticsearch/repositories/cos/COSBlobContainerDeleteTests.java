@@ -0,0 +1,95 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+
+import static org.hamcrest.Matchers.containsString;
+
+/**
+ * Checks bulk and container deletions against {@link COSHttpFixture}.
+ */
+public class COSBlobContainerDeleteTests extends AbstractCOSFixtureTestCase {
+
+    public void testBulkDeletesAreSentConcurrently() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.MAX_CONCURRENT_DELETES.getKey(), 3)
+                .put(COSClientSettings.ADAPTIVE_CONCURRENCY.getKey(), false)
+                .build());
+        final List<String> blobNames = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            blobNames.add("blob-" + i);
+            fixture.putBlob("base_path/blob-" + i, new byte[1]);
+        }
+        fixture.denyDeletesOf("base_path/blob-7");
+        fixture.setLatency(100L);
+        final IOException e = expectThrows(IOException.class, () -> container.deleteBlobsIgnoringIfNotExists(blobNames));
+        // only the key that the service failed to delete is reported
+        assertThat(e.getMessage(), containsString("[[base_path/blob-7]]"));
+        assertEquals(Collections.singleton("base_path/blob-7"), fixture.keys());
+        assertEquals(3, fixture.maxConcurrentRequests("DELETE_MULTIPLE"));
+    }
+
+    public void testInterruptedDeletesWaitForSentBatches() throws Exception {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.MAX_CONCURRENT_DELETES.getKey(), 1)
+                .build());
+        final List<String> blobNames = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            blobNames.add("blob-" + i);
+            fixture.putBlob("base_path/blob-" + i, new byte[1]);
+        }
+        fixture.setLatency(500L);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final Thread thread = new Thread(() -> {
+            try {
+                container.deleteBlobsIgnoringIfNotExists(blobNames);
+            } catch (Exception e) {
+                failure.set(e);
+            }
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        thread.start();
+        // the first batch is sent and the thread waits for a permit to send the second one
+        awaitRequest("DELETE_MULTIPLE");
+        thread.interrupt();
+        thread.join();
+        assertThat(failure.get().getMessage(), containsString("Interrupted"));
+        assertTrue(interrupted.get());
+        // the batch that was sent completed before the deletion returned
+        assertEquals(1500, fixture.keys().size());
+        assertEquals(1L, fixture.requests("DELETE_MULTIPLE"));
+    }
+
+    public void testInterruptedContainerDeleteWaitsForSentBatches() throws Exception {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.MAX_CONCURRENT_DELETES.getKey(), 1)
+                .build());
+        for (int i = 0; i < 2500; i++) {
+            fixture.putBlob("base_path/blob-" + i, new byte[1]);
+        }
+        fixture.setLatency(500L);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                container.delete();
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        awaitRequest("DELETE_MULTIPLE");
+        thread.interrupt();
+        thread.join();
+        assertNotNull(failure.get());
+        // the batch that was sent completed before the deletion returned
+        assertEquals(1500, fixture.keys().size());
+    }
+}
@@ -0,0 +1,99 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+
+import static org.hamcrest.Matchers.containsString;
+
+/**
+ * Checks ranged, parallel and resumed downloads against {@link COSHttpFixture}.
+ */
+public class COSBlobContainerReadTests extends AbstractCOSFixtureTestCase {
+
+    public void testReadBlobResumesAfterDisconnect() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.EMPTY);
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(1024, 1024 * 1024));
+        container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+
+        fixture.disconnectNextDownloads(2);
+        assertArrayEquals(data, readBlob(container, "blob"));
+        assertEquals(3L, fixture.requests("GET"));
+
+        // skipped bytes count towards the offset the download resumes from
+        final int skip = randomIntBetween(0, data.length / 4);
+        fixture.disconnectNextDownloads(1);
+        try (InputStream in = ((COSBlobContainer) container).readBlob("blob", 0L, data.length)) {
+            assertEquals(skip, in.skip(skip));
+            expectThrows(IOException.class, in::reset);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Streams.copy(in, out);
+            assertArrayEquals(Arrays.copyOfRange(data, skip, data.length), out.toByteArray());
+        }
+    }
+
+    public void testParallelRangedReads() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.DOWNLOAD_CHUNK_SIZE.getKey(), "1mb")
+                .put(COSClientSettings.MAX_CONCURRENT_DOWNLOAD_CHUNKS.getKey(), 2)
+                .build());
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(3 * 1024 * 1024 + 1, 4 * 1024 * 1024));
+        fixture.putBlob("base_path/blob", data);
+        assertArrayEquals(data, readBlob(container, "blob"));
+        assertEquals(4L, fixture.requests("GET"));
+        assertEquals(data.length, blobStore.stats().bytes(COSOperation.GET));
+
+        final int position = randomIntBetween(0, data.length - 1);
+        final int length = randomIntBetween(1, data.length - position);
+        try (InputStream in = ((COSBlobContainer) container).readBlob("blob", position, length)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Streams.copy(in, out);
+            assertArrayEquals(Arrays.copyOfRange(data, position, position + length), out.toByteArray());
+        }
+        assertEquals(data.length + length, blobStore.stats().bytes(COSOperation.GET));
+        // ranges past the end of the blob fail like any other read
+        final IOException pastEnd = expectThrows(IOException.class,
+                () -> ((COSBlobContainer) container).readBlob("blob", data.length, 1L));
+        assertThat(pastEnd.getCause().getMessage(), containsString("not satisfiable"));
+        expectThrows(NoSuchFileException.class, () -> ((COSBlobContainer) container).readBlob("missing", 0L, 1L));
+
+        // empty objects have no satisfiable range and are read with a plain GET
+        fixture.putBlob("base_path/empty", new byte[0]);
+        assertArrayEquals(new byte[0], readBlob(container, "empty"));
+
+        // a stream closed before its end cancels the chunks it did not consume
+        try (InputStream in = container.readBlob("blob")) {
+            assertEquals(data[0], (byte) in.read());
+        }
+        assertArrayEquals(data, readBlob(container, "blob"));
+
+        // the chunks of a stream are pinned to the version of the blob its first response returned
+        try (InputStream in = container.readBlob("blob")) {
+            assertEquals(data[0], (byte) in.read());
+            fixture.putBlob("base_path/blob", randomByteArrayOfLength(data.length));
+            final IOException e = expectThrows(IOException.class, () -> Streams.copy(in, new ByteArrayOutputStream()));
+            assertThat(e.getMessage(), containsString("changed while being read"));
+        }
+    }
+
+    public void testCorruptedDownloadIsDetected() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.DOWNLOAD_CHUNK_SIZE.getKey(), "1mb")
+                .build());
+        final int size = randomFrom(randomIntBetween(1, 1024), randomIntBetween(1024 * 1024 + 1, 3 * 1024 * 1024));
+        final byte[] data = randomByteArrayOfLength(size);
+        container.writeBlob("blob", new ByteArrayInputStream(data), size, true);
+
+        fixture.corruptNextDownloads(1);
+        final IOException e = expectThrows(IOException.class, () -> readBlob(container, "blob"));
+        assertThat(e.getMessage(), containsString("is corrupted"));
+        assertArrayEquals(data, readBlob(container, "blob"));
+    }
+}
@@ -0,0 +1,122 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Checks how requests are retried when {@link COSHttpFixture} throttles requests or loses responses.
+ */
+public class COSBlobContainerRetriesTests extends AbstractCOSFixtureTestCase {
+
+    public void testThrottledRequestsAreRetried() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.EMPTY);
+        fixture.throttleNextRequests(2);
+        container.writeBlob("blob", new ByteArrayInputStream(new byte[] {1, 2, 3}), 3, true);
+
+        assertEquals(3L, fixture.requests("PUT"));
+        assertEquals(3L, blobStore.stats().requests(COSOperation.PUT));
+        assertEquals(2L, blobStore.stats().errors(COSOperation.PUT));
+        assertArrayEquals(new byte[] {1, 2, 3}, readBlob(container, "blob"));
+    }
+
+    public void testParallelTransfersAreRetried() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.DOWNLOAD_CHUNK_SIZE.getKey(), "1mb")
+                .build());
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(3 * 1024 * 1024 + 1, 4 * 1024 * 1024));
+        // the parts of the upload and the chunks of the download are sent asynchronously and retried after a backoff
+        fixture.throttleNextRequests(1);
+        container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+        fixture.throttleNextRequests(3);
+        assertArrayEquals(data, readBlob(container, "blob"));
+        assertEquals(4L, blobStore.stats().errors(COSOperation.MULTIPART) + blobStore.stats().errors(COSOperation.UPLOAD_PART)
+                + blobStore.stats().errors(COSOperation.GET));
+        assertEquals(0, fixture.pendingMultipartUploads());
+
+        final List<String> blobNames = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            blobNames.add("blob-" + i);
+            fixture.putBlob("base_path/blob-" + i, new byte[1]);
+        }
+        fixture.throttleNextRequests(2);
+        container.deleteBlobsIgnoringIfNotExists(blobNames);
+        assertEquals(Collections.singleton("base_path/blob"), fixture.keys());
+    }
+
+    public void testChunkReadsResumeWhileConcurrencyLimitShrinks() throws Exception {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.ADAPTIVE_CONCURRENCY.getKey(), true)
+                .put(COSClientSettings.MIN_CONCURRENT_REQUESTS.getKey(), 1)
+                .put(COSClientSettings.MAX_CONCURRENT_REQUESTS.getKey(), 4)
+                .put(COSClientSettings.DOWNLOAD_CHUNK_SIZE.getKey(), "1mb")
+                .put(COSClientSettings.MAX_CONCURRENT_DOWNLOAD_CHUNKS.getKey(), 4)
+                .build());
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(4 * 1024 * 1024 + 1, 5 * 1024 * 1024));
+        fixture.putBlob("base_path/blob", data);
+        assertArrayEquals(data, readBlob(container, "blob"));
+        assertThat(blobStore.concurrencyLimiter().currentLimit(), greaterThan(1));
+
+        // the throttled requests shrink the limit to a single request, which every chunk needs again to resume its read
+        fixture.throttleNextRequests(2);
+        fixture.disconnectNextDownloads(4);
+        final CompletableFuture<byte[]> read = new CompletableFuture<>();
+        final Thread reader = new Thread(() -> {
+            try {
+                read.complete(readBlob(container, "blob"));
+            } catch (Exception e) {
+                read.completeExceptionally(e);
+            }
+        });
+        reader.start();
+        assertArrayEquals(data, read.get(30L, TimeUnit.SECONDS));
+        reader.join();
+    }
+
+    public void testLostCompleteResponseIsNotAFailure() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.VERIFY_CHECKSUMS.getKey(), randomBoolean())
+                .build());
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(1024 * 1024 + 1, 3 * 1024 * 1024));
+        // the first attempt completes the upload, so the retry finds no upload
+        fixture.loseNextResponses("COMPLETE_MULTIPART", 1);
+        container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+        assertEquals(2L, fixture.requests("COMPLETE_MULTIPART"));
+        assertEquals(0L, fixture.requests("ABORT_MULTIPART"));
+        assertArrayEquals(data, readBlob(container, "blob"));
+    }
+
+    public void testFailedAbortDoesNotHideUploadFailure() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.MAX_RETRIES.getKey(), 0)
+                .build());
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(1024 * 1024 + 1, 3 * 1024 * 1024));
+        fixture.loseNextResponses("UPLOAD_PART", 10);
+        fixture.loseNextResponses("ABORT_MULTIPART", 1);
+        final IOException e = expectThrows(IOException.class,
+                () -> container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true));
+        assertThat(e.getMessage(), containsString("using multipart upload"));
+        assertEquals(1, e.getSuppressed().length);
+        assertEquals(1L, fixture.requests("ABORT_MULTIPART"));
+    }
+
+    public void testGivesUpAfterMaxRetries() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.MAX_RETRIES.getKey(), 1)
+                .build());
+        fixture.throttleNextRequests(10);
+        expectThrows(IOException.class,
+                () -> container.writeBlob("blob", new ByteArrayInputStream(new byte[] {1}), 1, true));
+        assertEquals(2L, fixture.requests("PUT"));
+    }
+}
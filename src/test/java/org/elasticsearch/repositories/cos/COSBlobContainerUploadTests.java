@@ -0,0 +1,111 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+
+import static org.hamcrest.Matchers.containsString;
+
+/**
+ * Checks uploads of single and multipart blobs against {@link COSHttpFixture}.
+ */
+public class COSBlobContainerUploadTests extends AbstractCOSFixtureTestCase {
+
+    public void testWriteAndReadBlobs() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.EMPTY);
+        for (int size : new int[] {0, randomIntBetween(1, 1024), randomIntBetween(1024 * 1024 + 1, 3 * 1024 * 1024)}) {
+            final byte[] data = randomByteArrayOfLength(size);
+            container.writeBlob("blob-" + size, new ByteArrayInputStream(data), size, true);
+            assertArrayEquals(data, readBlob(container, "blob-" + size));
+            assertEquals(size, container.listBlobs().get("blob-" + size).length());
+        }
+        assertTrue(fixture.requests("UPLOAD_PART") >= 2L);
+        assertEquals(0, fixture.pendingMultipartUploads());
+
+        container.deleteBlobsIgnoringIfNotExists(Arrays.asList("blob-0", "missing"));
+        expectThrows(NoSuchFileException.class, () -> container.readBlob("blob-0"));
+        container.delete();
+        assertTrue(fixture.keys().isEmpty());
+    }
+
+    public void testMultipartUploadsRoundTrip() throws IOException {
+        final int maxConcurrentParts = randomIntBetween(1, 3);
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.MAX_CONCURRENT_PARTS.getKey(), maxConcurrentParts)
+                .put(COSClientSettings.ADAPTIVE_CONCURRENCY.getKey(), false)
+                .build());
+        fixture.setLatency(20L);
+        final int partSize = 1024 * 1024;
+        long expectedParts = 0L;
+        // the last part is full, one byte long, or anything in between
+        for (int size : new int[] {2 * partSize, 2 * partSize + 1, randomIntBetween(3 * partSize + 2, 5 * partSize)}) {
+            final byte[] data = randomByteArrayOfLength(size);
+            container.writeBlob("blob-" + size, new ByteArrayInputStream(data), size, true);
+            expectedParts += (size + partSize - 1) / partSize;
+            assertEquals(expectedParts, fixture.requests("UPLOAD_PART"));
+            assertArrayEquals(data, readBlob(container, "blob-" + size));
+        }
+        // parts are sent concurrently, but never more than there are part buffers
+        assertEquals(maxConcurrentParts, fixture.maxConcurrentRequests("UPLOAD_PART"));
+        assertEquals(3L, fixture.requests("COMPLETE_MULTIPART"));
+        assertEquals(0, fixture.pendingMultipartUploads());
+    }
+
+    public void testFileStreamsAreUploadedAndRetried() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.DIRECT_PART_BUFFERS.getKey(), randomBoolean())
+                .build());
+        final Path file = createTempFile();
+        for (int size : new int[] {randomIntBetween(1, 1024), randomIntBetween(1024 * 1024 + 1, 3 * 1024 * 1024)}) {
+            final byte[] data = randomByteArrayOfLength(size);
+            Files.write(file, data);
+            // a file stream does not support marks, so a single PUT is retried by moving the position of its channel
+            fixture.throttleNextRequests(1);
+            try (InputStream stream = new FileInputStream(file.toFile())) {
+                container.writeBlob("blob-" + size, stream, size, true);
+            }
+            assertArrayEquals(data, readBlob(container, "blob-" + size));
+        }
+        assertEquals(2L, blobStore.stats().errors(COSOperation.PUT) + blobStore.stats().errors(COSOperation.MULTIPART));
+        assertEquals(0, fixture.pendingMultipartUploads());
+    }
+
+    public void testCorruptedUploadIsDetected() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.EMPTY);
+        for (int size : new int[] {randomIntBetween(1, 1024), randomIntBetween(1024 * 1024 + 1, 3 * 1024 * 1024)}) {
+            fixture.corruptNextUploads(1);
+            final byte[] data = randomByteArrayOfLength(size);
+            final IOException e = expectThrows(IOException.class,
+                    () -> container.writeBlob("blob-" + size, new ByteArrayInputStream(data), size, true));
+            assertThat(e.getMessage(), containsString("corrupted during upload"));
+            // the corrupted blob is removed
+            expectThrows(NoSuchFileException.class, () -> container.readBlob("blob-" + size));
+        }
+    }
+
+    public void testWriteBlobAtomicCopiesWithinCOS() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.EMPTY);
+        final int largeSize = randomIntBetween(1024 * 1024 + 1, 3 * 1024 * 1024);
+        final long parts = (largeSize + 1024 * 1024 - 1) / (1024 * 1024);
+        for (int size : new int[] {randomIntBetween(0, 1024), largeSize}) {
+            final byte[] data = randomByteArrayOfLength(size);
+            final long uploadedParts = fixture.requests("UPLOAD_PART");
+            container.writeBlobAtomic("blob-" + size, new ByteArrayInputStream(data), size, true);
+            assertArrayEquals(data, readBlob(container, "blob-" + size));
+            // only the temporary blob is uploaded, the final blob is copied from it
+            assertEquals(size == largeSize ? parts : 0L, fixture.requests("UPLOAD_PART") - uploadedParts);
+        }
+        assertEquals(1L, fixture.requests("COPY"));
+        assertEquals(parts, fixture.requests("COPY_PART"));
+        assertEquals(container.listBlobs().keySet().toString(), 2, container.listBlobs().size());
+        assertEquals(0, fixture.pendingMultipartUploads());
+    }
+}
@@ -0,0 +1,140 @@
+package org.elasticsearch.repositories.cos;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import org.elasticsearch.test.ESTestCase;
+
+public class COSConcurrencyLimiterTests extends ESTestCase {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public void testSlowStartDispatchesQueuedRequests() {
+        final COSConcurrencyLimiter limiter = new COSConcurrencyLimiter(2, 64, () -> 0L);
+        final AtomicInteger sent = new AtomicInteger();
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire(sent::incrementAndGet);
+        }
+        assertEquals(2, sent.get());
+        assertEquals(2, limiter.inFlight());
+
+        // every success raises the limit by one in slow start, so each completion lets two queued requests through
+        limiter.release(COSOperation.GET, LATENCY, null);
+        assertEquals(3, limiter.currentLimit());
+        assertEquals(4, sent.get());
+        limiter.release(COSOperation.GET, LATENCY, null);
+        assertEquals(4, limiter.currentLimit());
+        assertEquals(6, sent.get());
+        assertEquals(4, limiter.inFlight());
+    }
+
+    public void testThrottlingHalvesTheLimitOncePerRoundTrip() {
+        final AtomicLong now = new AtomicLong();
+        final COSConcurrencyLimiter limiter = new COSConcurrencyLimiter(2, 64, now::get);
+        for (int i = 0; i < 14; i++) {
+            complete(limiter, LATENCY, null);
+        }
+        assertEquals(16, limiter.currentLimit());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        complete(limiter, LATENCY, throttled());
+        assertEquals(8, limiter.currentLimit());
+        // sent before the decrease, so it says nothing about the decreased limit
+        complete(limiter, LATENCY, throttled());
+        assertEquals(8, limiter.currentLimit());
+        now.addAndGet(2 * LATENCY);
+        complete(limiter, LATENCY, throttled());
+        assertEquals(4, limiter.currentLimit());
+
+        // out of slow start, the limit grows by one per round trip
+        for (int i = 0; i < 5; i++) {
+            complete(limiter, LATENCY, null);
+        }
+        assertEquals(5, limiter.currentLimit());
+
+        for (int i = 0; i < 4; i++) {
+            now.addAndGet(2 * LATENCY);
+            complete(limiter, LATENCY, throttled());
+        }
+        assertEquals(2, limiter.currentLimit());
+    }
+
+    public void testTimeoutsAndSlowRequestsAreCongestion() {
+        final AtomicLong now = new AtomicLong();
+        final COSConcurrencyLimiter limiter = new COSConcurrencyLimiter(1, 64, now::get);
+        for (int i = 0; i < 15; i++) {
+            complete(limiter, LATENCY, null);
+        }
+        assertEquals(16, limiter.currentLimit());
+
+        // other failures are not caused by load
+        complete(limiter, LATENCY, new CosClientException("failed"));
+        assertEquals(16, limiter.currentLimit());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        complete(limiter, LATENCY, new CosClientException("timed out", new SocketTimeoutException("read timed out")));
+        assertEquals(8, limiter.currentLimit());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        complete(limiter, 5 * LATENCY, null);
+        assertEquals(4, limiter.currentLimit());
+        // the latency of each operation is tracked separately
+        complete(limiter, COSOperation.LIST, 5 * LATENCY, null);
+        assertEquals(4, limiter.currentLimit());
+    }
+
+    public void testUploadLatencyIsNotCongestion() {
+        final AtomicLong now = new AtomicLong();
+        final COSConcurrencyLimiter limiter = new COSConcurrencyLimiter(1, 64, now::get);
+        for (int i = 0; i < 15; i++) {
+            complete(limiter, COSOperation.UPLOAD_PART, LATENCY, null);
+        }
+        assertEquals(16, limiter.currentLimit());
+
+        // a large part or blob takes longer to send without any congestion
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        complete(limiter, COSOperation.UPLOAD_PART, 100 * LATENCY, null);
+        complete(limiter, COSOperation.PUT, 100 * LATENCY, null);
+        assertEquals(18, limiter.currentLimit());
+        // but throttling is
+        complete(limiter, COSOperation.UPLOAD_PART, LATENCY, throttled());
+        assertEquals(9, limiter.currentLimit());
+    }
+
+    public void testBlockingAcquireWaitsForRelease() throws Exception {
+        final COSConcurrencyLimiter limiter = new COSConcurrencyLimiter(1, 1, () -> 0L);
+        limiter.acquire();
+        final Thread thread = new Thread(() -> {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        thread.start();
+        assertBusy(() -> assertEquals(Thread.State.WAITING, thread.getState()));
+        limiter.release(COSOperation.GET, -1L, null);
+        thread.join();
+        assertEquals(1, limiter.inFlight());
+        assertEquals(1, limiter.currentLimit());
+    }
+
+    private static void complete(COSConcurrencyLimiter limiter, long tookNanos, Exception failure) {
+        complete(limiter, COSOperation.GET, tookNanos, failure);
+    }
+
+    private static void complete(COSConcurrencyLimiter limiter, COSOperation operation, long tookNanos, Exception failure) {
+        limiter.acquire(() -> {});
+        limiter.release(operation, tookNanos, failure);
+    }
+
+    private static CosServiceException throttled() {
+        final CosServiceException e = new CosServiceException("slow down");
+        e.setStatusCode(503);
+        return e;
+    }
+}
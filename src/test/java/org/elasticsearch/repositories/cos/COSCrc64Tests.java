@@ -0,0 +1,59 @@
+package org.elasticsearch.repositories.cos;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.elasticsearch.test.ESTestCase;
+
+public class COSCrc64Tests extends ESTestCase {
+
+    public void testKnownValues() {
+        assertEquals(0L, crc64(new byte[0], 0, 0));
+        final byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x995DC9BBDF1939FAL, crc64(check, 0, check.length));
+        assertEquals("11051210869376104954", COSCrc64.toString(0x995DC9BBDF1939FAL));
+    }
+
+    public void testUpdatesAreIndependentOfChunking() {
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(0, 10000));
+        final COSCrc64 crc = new COSCrc64();
+        int offset = 0;
+        while (offset < data.length) {
+            if (randomBoolean()) {
+                crc.update(data[offset++]);
+            } else {
+                final int length = randomIntBetween(0, data.length - offset);
+                crc.update(data, offset, length);
+                offset += length;
+            }
+        }
+        assertEquals(crc64(data, 0, data.length), crc.getValue());
+        crc.reset();
+        assertEquals(0L, crc.getValue());
+    }
+
+    public void testDirectBuffersMatchArrays() {
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(0, 10000));
+        final int offset = randomIntBetween(0, data.length);
+        final ByteBuffer buffer = randomBoolean() ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+        buffer.put(data).position(offset);
+        final COSCrc64 crc = new COSCrc64();
+        crc.update(buffer);
+        assertEquals(crc64(data, offset, data.length - offset), crc.getValue());
+        assertEquals(data.length, buffer.position());
+    }
+
+    public void testCombine() {
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(0, 100000));
+        final int split = randomIntBetween(0, data.length);
+        final long first = crc64(data, 0, split);
+        final long second = crc64(data, split, data.length - split);
+        assertEquals(crc64(data, 0, data.length), COSCrc64.combine(first, second, data.length - split));
+    }
+
+    private static long crc64(byte[] data, int offset, int length) {
+        final COSCrc64 crc = new COSCrc64();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+}
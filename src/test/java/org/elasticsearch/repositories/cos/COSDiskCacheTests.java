@@ -0,0 +1,110 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+
+import static org.hamcrest.Matchers.greaterThan;
+
+public class COSDiskCacheTests extends AbstractCOSFixtureTestCase {
+
+    public void testEntriesAreKeyedByVersionAndRange() {
+        final String entry = COSDiskCache.entryName("bucket", "key", "etag", 0L, 9L);
+        assertEquals(entry, COSDiskCache.entryName("bucket", "key", "etag", 0L, 9L));
+        assertNotEquals(entry, COSDiskCache.entryName("bucket", "key", "other", 0L, 9L));
+        assertNotEquals(entry, COSDiskCache.entryName("bucket", "key", "etag", 0L, 8L));
+        assertNotEquals(entry, COSDiskCache.entryName("other", "key", "etag", 0L, 9L));
+        assertTrue(COSDiskCache.isCacheable("__data"));
+        assertFalse(COSDiskCache.isCacheable("index-1"));
+    }
+
+    public void testPopulatedOnlyOnceFullyRead() throws IOException {
+        final COSDiskCache cache = new COSDiskCache(createTempDir(), 1024);
+        final byte[] data = randomByteArrayOfLength(100);
+        try (InputStream in = cache.populate("a", data.length, new ByteArrayInputStream(data))) {
+            assertEquals(data[0], (byte) in.read());
+        }
+        assertNull(cache.open("a"));
+
+        assertArrayEquals(data, toBytes(cache.populate("a", data.length, new ByteArrayInputStream(data))));
+        assertArrayEquals(data, toBytes(cache.open("a")));
+        assertEquals(100L, cache.totalBytes());
+
+        // a stream shorter than announced is not cached
+        assertEquals(50, toBytes(cache.populate("b", data.length, new ByteArrayInputStream(data, 0, 50))).length);
+        assertNull(cache.open("b"));
+    }
+
+    public void testLeastRecentlyReadEntriesAreEvicted() throws IOException {
+        final Path directory = createTempDir();
+        final COSDiskCache cache = new COSDiskCache(directory, 250);
+        for (String entry : new String[] {"a", "b"}) {
+            toBytes(cache.populate(entry, 100, new ByteArrayInputStream(new byte[100])));
+        }
+        toBytes(cache.open("a"));
+        toBytes(cache.populate("c", 100, new ByteArrayInputStream(new byte[100])));
+        assertNull(cache.open("b"));
+        assertEquals(100, toBytes(cache.open("a")).length);
+        assertEquals(100, toBytes(cache.open("c")).length);
+        assertEquals(200L, cache.totalBytes());
+        // too large to ever be cached
+        toBytes(cache.populate("d", 300, new ByteArrayInputStream(new byte[300])));
+        assertNull(cache.open("d"));
+
+        // a restarted node finds the cached entries again and removes incomplete ones
+        Files.write(directory.resolve("e.123.tmp"), new byte[10]);
+        final COSDiskCache restarted = new COSDiskCache(directory, 250);
+        assertEquals(200L, restarted.totalBytes());
+        assertEquals(100, toBytes(restarted.open("a")).length);
+        assertFalse(Files.exists(directory.resolve("e.123.tmp")));
+    }
+
+    public void testDataBlobsAreReadThroughDiskCache() throws IOException {
+        final COSDiskCache diskCache = new COSDiskCache(createTempDir(), 8 * 1024 * 1024);
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.DOWNLOAD_CHUNK_SIZE.getKey(), "1mb")
+                .build(), diskCache);
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(1, 3 * 1024 * 1024));
+        container.writeBlob("__data", new ByteArrayInputStream(data), data.length, true);
+        assertArrayEquals(data, readBlob(container, "__data"));
+        final long gets = fixture.requests("GET");
+        assertEquals(data.length, diskCache.totalBytes());
+
+        // only a HEAD request is sent to check that the cached version is still current
+        assertArrayEquals(data, readBlob(container, "__data"));
+        assertEquals(gets, fixture.requests("GET"));
+        // HEAD requests are recorded apart from GETs, whose latencies they would otherwise skew
+        assertThat(fixture.requests("HEAD"), greaterThan(0L));
+        assertEquals(fixture.requests("HEAD"), blobStore.stats().requests(COSOperation.HEAD));
+
+        final byte[] updated = randomByteArrayOfLength(randomIntBetween(1, 3 * 1024 * 1024));
+        fixture.putBlob("base_path/__data", updated);
+        assertArrayEquals(updated, readBlob(container, "__data"));
+        assertThat(fixture.requests("GET"), greaterThan(gets));
+        assertEquals(data.length + updated.length, diskCache.totalBytes());
+
+        // reads that stop early do not populate the cache
+        container.writeBlob("__other", new ByteArrayInputStream(data), data.length, true);
+        try (InputStream in = container.readBlob("__other")) {
+            assertEquals(data[0], (byte) in.read());
+        }
+        assertEquals(data.length + updated.length, diskCache.totalBytes());
+        expectThrows(NoSuchFileException.class, () -> container.readBlob("__missing"));
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Streams.copy(stream, out);
+            return out.toByteArray();
+        }
+    }
+}
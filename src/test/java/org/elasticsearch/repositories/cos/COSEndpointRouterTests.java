@@ -0,0 +1,141 @@
+package org.elasticsearch.repositories.cos;
+
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.test.ESTestCase;
+
+public class COSEndpointRouterTests extends ESTestCase {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicLong now = new AtomicLong();
+    private final COSEndpointRouter.Endpoint regional = new COSEndpointRouter.Endpoint("", null);
+    private final COSEndpointRouter.Endpoint accelerated = new COSEndpointRouter.Endpoint("accelerate", null);
+
+    public void testMeasuresEveryEndpointThenPicksTheFastest() {
+        final COSEndpointRouter router = router(Arrays.asList(regional, accelerated), Collections.emptyList());
+        for (int i = 0; i < 3; i++) {
+            assertSame(regional, send(router, COSOperation.DELETE, 2 * LATENCY, null));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertSame(accelerated, send(router, COSOperation.DELETE, LATENCY, null));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertSame(accelerated, send(router, COSOperation.DELETE, LATENCY, null));
+        }
+        // each operation is measured on its own
+        assertSame(regional, router.select(COSOperation.LIST, null));
+
+        // errors make an endpoint slower to a successful response, even when they are not consecutive
+        for (int i = 0; i < 30; i++) {
+            router.onResult(accelerated, COSOperation.DELETE, LATENCY, serverError());
+            router.onResult(accelerated, COSOperation.DELETE, LATENCY, serverError());
+            router.onResult(accelerated, COSOperation.DELETE, LATENCY, null);
+        }
+        assertSame(regional, router.select(COSOperation.DELETE, null));
+    }
+
+    public void testFailingEndpointIsTakenOutOfRotationAndProbed() {
+        final COSEndpointRouter router = router(Arrays.asList(regional, accelerated), Collections.emptyList());
+        warmUp(router, COSOperation.GET);
+        for (int i = 0; i < 3; i++) {
+            router.onResult(regional, COSOperation.GET, LATENCY, timeout());
+        }
+        for (int i = 0; i < 5; i++) {
+            assertSame(accelerated, router.select(COSOperation.GET, null));
+        }
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        // a single request probes the endpoint once it was out of rotation for the retry interval
+        assertSame(regional, router.select(COSOperation.GET, null));
+        assertSame(accelerated, router.select(COSOperation.GET, null));
+        router.onResult(regional, COSOperation.GET, LATENCY, null);
+        assertSame(regional, router.select(COSOperation.GET, null));
+    }
+
+    public void testRetryAvoidsTheEndpointThatFailed() {
+        final COSEndpointRouter router = router(Arrays.asList(regional, accelerated), Collections.emptyList());
+        warmUp(router, COSOperation.PUT);
+        router.onResult(regional, COSOperation.PUT, LATENCY, timeout());
+        assertSame(accelerated, router.select(COSOperation.PUT, regional));
+
+        // with a single endpoint the retry goes to the same endpoint
+        final COSEndpointRouter single = router(Collections.singletonList(regional), Collections.emptyList());
+        single.onResult(regional, COSOperation.PUT, LATENCY, timeout());
+        assertSame(regional, single.select(COSOperation.PUT, regional));
+    }
+
+    public void testTransfersPreferTransferEndpoints() {
+        final COSEndpointRouter router = router(Collections.singletonList(regional), Collections.singletonList(accelerated));
+        assertSame(accelerated, router.select(COSOperation.GET, null));
+        assertSame(accelerated, router.select(COSOperation.UPLOAD_PART, null));
+        assertSame(regional, router.select(COSOperation.LIST, null));
+        assertSame(regional, router.select(COSOperation.DELETE, null));
+
+        for (int i = 0; i < 3; i++) {
+            router.onResult(accelerated, COSOperation.GET, LATENCY, timeout());
+        }
+        assertSame(regional, router.select(COSOperation.GET, null));
+    }
+
+    public void testThrottlingIsNotAnEndpointFailure() {
+        final CosServiceException throttled = new CosServiceException("slow down");
+        throttled.setStatusCode(503);
+        assertFalse(COSEndpointRouter.isEndpointFailure(throttled));
+        assertTrue(COSEndpointRouter.isEndpointFailure(timeout()));
+        final CosServiceException notFound = new CosServiceException("not found");
+        notFound.setStatusCode(404);
+        assertFalse(COSEndpointRouter.isEndpointFailure(notFound));
+
+        final COSEndpointRouter router = router(Arrays.asList(regional, accelerated), Collections.emptyList());
+        warmUp(router, COSOperation.GET);
+        for (int i = 0; i < 10; i++) {
+            router.onResult(regional, COSOperation.GET, LATENCY, throttled);
+        }
+        assertSame(regional, router.select(COSOperation.GET, null));
+    }
+
+    private COSEndpointRouter router(List<COSEndpointRouter.Endpoint> endpoints, List<COSEndpointRouter.Endpoint> transferEndpoints) {
+        // never explores, so that the choices are deterministic
+        final Random random = new Random(randomLong()) {
+            @Override
+            public double nextDouble() {
+                return 1.0;
+            }
+        };
+        return new COSEndpointRouter(endpoints, transferEndpoints, 3, TimeValue.timeValueSeconds(30), now::get, () -> random);
+    }
+
+    private static COSEndpointRouter.Endpoint send(COSEndpointRouter router, COSOperation operation, long tookNanos,
+                                                   Exception failure) {
+        final COSEndpointRouter.Endpoint endpoint = router.select(operation, null);
+        router.onResult(endpoint, operation, tookNanos, failure);
+        return endpoint;
+    }
+
+    private void warmUp(COSEndpointRouter router, COSOperation operation) {
+        for (int i = 0; i < 3; i++) {
+            router.onResult(regional, operation, LATENCY, null);
+            router.onResult(accelerated, operation, 2 * LATENCY, null);
+        }
+    }
+
+    private static CosServiceException serverError() {
+        final CosServiceException e = new CosServiceException("internal error");
+        e.setStatusCode(500);
+        return e;
+    }
+
+    private static CosClientException timeout() {
+        return new CosClientException("timed out", new SocketTimeoutException("read timed out"));
+    }
+}
@@ -0,0 +1,915 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process HTTP server emulating the parts of the COS API used by the repository: object PUT, GET with ranges and
+ * If-Match or If-None-Match ETag preconditions, HEAD, DELETE, multipart uploads, server-side copies of objects and parts,
+ * listings with prefix, marker and delimiter, and multi-object deletes. Requests are routed by the bucket name in the
+ * {@code Host} header, so clients reach it with the {@code endpoint_override} repository setting. Authentication is not
+ * checked.
+ * <p>
+ * Like COS, it reports the CRC64 of objects in the {@code x-cos-hash-crc64ecma} header and keeps the user metadata
+ * ({@code x-cos-meta-*} headers) objects are created with. The fixture can inject
+ * latency, limit the bandwidth of every connection, and answer with {@code 503 SlowDown} responses or downloads that
+ * disconnect half way, either for the next few requests or at random with a given probability. It can also corrupt the
+ * next few uploads or downloads by flipping a bit of the stored or sent content, fail the bulk deletion of given keys,
+ * and lose the responses to requests it handled. It speaks plain HTTP/1.1 over sockets rather than using the JDK's HTTP
+ * server, which rewrites the case of response header names that the COS SDK looks up case-sensitively.
+ * <p>
+ * Started through {@link #main(String[])}, it writes its {@code pid} and {@code ports} files into the given working
+ * directory as expected by the Elasticsearch build's {@code AntFixture}.
+ */
+public class COSHttpFixture implements Closeable {
+
+    private static final DateTimeFormatter LAST_MODIFIED = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter ISO_8601 = DateTimeFormatter.ISO_INSTANT;
+    private static final String COPY_SOURCE = "x-cos-copy-source";
+    private static final String COPY_SOURCE_RANGE = "x-cos-copy-source-range";
+    private static final String USER_METADATA_PREFIX = "x-cos-meta-";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern DELETE_KEY = Pattern.compile("<Key>(.*?)</Key>", Pattern.DOTALL);
+    private static final Pattern PART_NUMBER = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+
+    private final String bucket;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final NavigableMap<String, Blob> blobs = new ConcurrentSkipListMap<>();
+    private final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+    private volatile boolean closed;
+
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile double throttleProbability;
+    private volatile double disconnectProbability;
+    private final AtomicInteger throttleNext = new AtomicInteger();
+    private final AtomicInteger delayNext = new AtomicInteger();
+    private volatile long delayNextMillis;
+    private final AtomicInteger disconnectNext = new AtomicInteger();
+    private final AtomicInteger corruptNextUploads = new AtomicInteger();
+    private final AtomicInteger corruptNextDownloads = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final Map<String, AtomicLong> requestsByType = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlightByType = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> maxInFlightByType = new ConcurrentHashMap<>();
+    private final Set<String> undeletableKeys = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicInteger> loseNextByType = new ConcurrentHashMap<>();
+
+    public COSHttpFixture(String bucket) throws IOException {
+        this.bucket = bucket;
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        this.executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "cos-http-fixture");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::acceptConnections);
+    }
+
+    /**
+     * Returns the {@code host:port} address to use as {@code endpoint_override}.
+     */
+    public String address() {
+        return serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    public String bucket() {
+        return bucket;
+    }
+
+    /** Delays every response by the given time. */
+    public void setLatency(long millis) {
+        this.latencyMillis = millis;
+    }
+
+    /** Limits every connection to the given number of bytes per second in each direction, {@code 0} for no limit. */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** Answers every request with {@code 503 SlowDown} with the given probability. */
+    public void setThrottleProbability(double probability) {
+        this.throttleProbability = probability;
+    }
+
+    /** Disconnects half way through every download with the given probability. */
+    public void setDisconnectProbability(double probability) {
+        this.disconnectProbability = probability;
+    }
+
+    /** Delays the response to the next {@code count} requests by the given time, on top of the latency. */
+    public void delayNextRequests(int count, long millis) {
+        delayNextMillis = millis;
+        delayNext.set(count);
+    }
+
+    /** Answers the next {@code count} requests with {@code 503 SlowDown}. */
+    public void throttleNextRequests(int count) {
+        throttleNext.set(count);
+    }
+
+    /**
+     * Handles the next {@code count} requests of the given type but answers them with {@code 503 SlowDown}, as if their
+     * responses were lost on the way back.
+     */
+    public void loseNextResponses(String type, int count) {
+        loseNextByType.computeIfAbsent(type, t -> new AtomicInteger()).set(count);
+    }
+
+    /** Disconnects half way through the next {@code count} downloads. */
+    public void disconnectNextDownloads(int count) {
+        disconnectNext.set(count);
+    }
+
+    /** Stores a corrupted copy of the next {@code count} uploaded objects, while acknowledging the bytes received. */
+    public void corruptNextUploads(int count) {
+        corruptNextUploads.set(count);
+    }
+
+    /** Flips a bit in the content sent by the next {@code count} downloads. */
+    public void corruptNextDownloads(int count) {
+        corruptNextDownloads.set(count);
+    }
+
+    /** Returns the number of requests received, including throttled ones. */
+    public long requests() {
+        return requests.get();
+    }
+
+    /** Returns the number of requests received of the given type, such as {@code GET}, {@code LIST} or {@code UPLOAD_PART}. */
+    public long requests(String type) {
+        final AtomicLong count = requestsByType.get(type);
+        return count == null ? 0L : count.get();
+    }
+
+    /** Returns the largest number of requests of the given type that were handled at the same time. */
+    public int maxConcurrentRequests(String type) {
+        final AtomicInteger max = maxInFlightByType.get(type);
+        return max == null ? 0 : max.get();
+    }
+
+    /** Makes bulk deletes report the given key as failed with {@code AccessDenied} and keep the blob. */
+    public void denyDeletesOf(String key) {
+        undeletableKeys.add(key);
+    }
+
+    /** Stores a blob directly, without going through HTTP, to set up tests. */
+    public void putBlob(String key, byte[] data) {
+        blobs.put(key, new Blob(data, md5Hex(data), new TreeMap<>()));
+    }
+
+    /** Returns the user metadata of a blob, keyed by header name. */
+    public Map<String, String> userMetadata(String key) {
+        final Blob blob = blobs.get(key);
+        return blob == null ? null : blob.userMetadata;
+    }
+
+    public Set<String> keys() {
+        return blobs.keySet();
+    }
+
+    public int pendingMultipartUploads() {
+        return uploads.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        connections.forEach(COSHttpFixture::closeQuietly);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptConnections() {
+        while (closed == false) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.add(socket);
+                executor.execute(() -> serveConnection(socket));
+            } catch (IOException e) {
+                if (closed == false) {
+                    throw new AssertionError("fixture failed to accept connections", e);
+                }
+            }
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try (Socket s = socket;
+             InputStream in = new BufferedInputStream(s.getInputStream());
+             OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            while (closed == false) {
+                final Request request = Request.read(in, out);
+                if (request == null) {
+                    return;
+                }
+                pace(System.nanoTime(), request.body.length);
+                final Response response = handleSafely(request);
+                if (response.write(out, "HEAD".equals(request.method), this::pace) == false) {
+                    // the response was cut short on purpose, drop the connection
+                    return;
+                }
+            }
+        } catch (SocketException | EOFException e) {
+            // the client closed the connection
+        } catch (IOException e) {
+            if (closed == false) {
+                throw new AssertionError("fixture failed to serve a connection", e);
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    private Response handleSafely(Request request) {
+        final String type = requestType(request.method, request.key, request.params, request.headers);
+        final AtomicInteger inFlight = inFlightByType.computeIfAbsent(type, t -> new AtomicInteger());
+        maxInFlightByType.computeIfAbsent(type, t -> new AtomicInteger()).accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            final Response response = handle(request);
+            final AtomicInteger loseNext = loseNextByType.get(type);
+            if (loseNext != null && decrementIfPositive(loseNext)) {
+                return error(request, 503, "SlowDown", "Please reduce your request rate.");
+            }
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return error(request, 500, "InternalError", e.toString());
+        } catch (RuntimeException e) {
+            return error(request, 500, "InternalError", e.toString());
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private Response handle(Request request) throws InterruptedException {
+        requests.incrementAndGet();
+        final String type = requestType(request.method, request.key, request.params, request.headers);
+        requestsByType.computeIfAbsent(type, t -> new AtomicLong()).incrementAndGet();
+
+        if (latencyMillis > 0L) {
+            Thread.sleep(latencyMillis);
+        }
+        if (decrementIfPositive(delayNext)) {
+            Thread.sleep(delayNextMillis);
+        }
+        if (decrementIfPositive(throttleNext) || (throttleProbability > 0.0 && nextDouble() < throttleProbability)) {
+            return error(request, 503, "SlowDown", "Please reduce your request rate.");
+        }
+        final String host = request.headers.get("Host");
+        if (host == null || host.startsWith(bucket + ".") == false) {
+            return error(request, 404, "NoSuchBucket", "The specified bucket does not exist.");
+        }
+
+        final String key = request.key;
+        switch (type) {
+            case "PUT": {
+                final Blob blob = new Blob(maybeCorrupt(request.body, corruptNextUploads), md5Hex(request.body),
+                        userMetadata(request.headers));
+                blobs.put(key, blob);
+                return new Response(200).header("ETag", "\"" + blob.eTag + "\"").header(COSCrc64.HEADER, blob.crc64);
+            }
+            case "UPLOAD_PART": {
+                final MultipartUpload upload = uploads.get(request.params.get("uploadId"));
+                if (upload == null) {
+                    return error(request, 404, "NoSuchUpload", "The specified multipart upload does not exist.");
+                }
+                upload.parts.put(Integer.parseInt(request.params.get("partNumber")), request.body);
+                return new Response(200).header("ETag", "\"" + md5Hex(request.body) + "\"")
+                        .header(COSCrc64.HEADER, crc64(request.body));
+            }
+            case "COPY":
+            case "COPY_PART":
+                return copyObject(request, type);
+            case "INITIATE_MULTIPART": {
+                final String uploadId = UUID.randomUUID().toString();
+                uploads.put(uploadId, new MultipartUpload(key, userMetadata(request.headers)));
+                return xml(200, "<InitiateMultipartUploadResult><Bucket>" + bucket + "</Bucket><Key>" + escape(key) + "</Key>"
+                        + "<UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+            }
+            case "COMPLETE_MULTIPART":
+                return completeMultipartUpload(request);
+            case "ABORT_MULTIPART":
+                uploads.remove(request.params.get("uploadId"));
+                return new Response(204);
+            case "GET":
+            case "HEAD":
+                return getObject(request);
+            case "DELETE":
+                blobs.remove(key);
+                return new Response(204);
+            case "DELETE_MULTIPLE":
+                return deleteObjects(new String(request.body, StandardCharsets.UTF_8));
+            case "LIST":
+                return listObjects(request.params);
+            default:
+                return error(request, 405, "MethodNotAllowed", "Unsupported request [" + request.method + " " + request.uri + "]");
+        }
+    }
+
+    private static String requestType(String method, String key, Map<String, String> params, Map<String, String> headers) {
+        switch (method) {
+            case "PUT":
+                if (headers.containsKey(COPY_SOURCE)) {
+                    return params.containsKey("uploadId") ? "COPY_PART" : "COPY";
+                }
+                return params.containsKey("uploadId") ? "UPLOAD_PART" : "PUT";
+            case "POST":
+                if (params.containsKey("uploads")) {
+                    return "INITIATE_MULTIPART";
+                }
+                if (params.containsKey("uploadId")) {
+                    return "COMPLETE_MULTIPART";
+                }
+                return params.containsKey("delete") ? "DELETE_MULTIPLE" : "UNKNOWN";
+            case "DELETE":
+                return params.containsKey("uploadId") ? "ABORT_MULTIPART" : "DELETE";
+            case "GET":
+                return key.isEmpty() ? "LIST" : "GET";
+            case "HEAD":
+                return "HEAD";
+            default:
+                return "UNKNOWN";
+        }
+    }
+
+    private Response copyObject(Request request, String type) {
+        // the copy source is "<bucket host>/<key>"
+        final String copySource = request.headers.get(COPY_SOURCE);
+        final String sourceKey;
+        try {
+            sourceKey = URLDecoder.decode(copySource.substring(copySource.indexOf('/') + 1), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        final Blob source = blobs.get(sourceKey);
+        if (source == null) {
+            return error(request, 404, "NoSuchKey", "The specified copy source does not exist.");
+        }
+        final String lastModified = "<LastModified>" + ISO_8601.format(Instant.now()) + "</LastModified>";
+        if ("COPY".equals(type)) {
+            final boolean replace = "Replaced".equalsIgnoreCase(request.headers.get("x-cos-metadata-directive"));
+            blobs.put(request.key, new Blob(source.data, source.eTag, replace ? userMetadata(request.headers) : source.userMetadata));
+            return xml(200, "<CopyObjectResult><ETag>\"" + source.eTag + "\"</ETag>" + lastModified + "</CopyObjectResult>");
+        }
+        final MultipartUpload upload = uploads.get(request.params.get("uploadId"));
+        if (upload == null) {
+            return error(request, 404, "NoSuchUpload", "The specified multipart upload does not exist.");
+        }
+        byte[] part = source.data;
+        final String range = request.headers.get(COPY_SOURCE_RANGE);
+        if (range != null) {
+            final Matcher matcher = RANGE.matcher(range);
+            if (matcher.matches() == false || matcher.group(2).isEmpty()
+                    || Long.parseLong(matcher.group(2)) >= source.data.length) {
+                return error(request, 400, "InvalidArgument", "Invalid copy source range [" + range + "]");
+            }
+            part = Arrays.copyOfRange(source.data, Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)) + 1);
+        }
+        upload.parts.put(Integer.parseInt(request.params.get("partNumber")), part);
+        return xml(200, "<CopyPartResult><ETag>\"" + md5Hex(part) + "\"</ETag>" + lastModified + "</CopyPartResult>");
+    }
+
+    private Response completeMultipartUpload(Request request) {
+        final MultipartUpload upload = uploads.remove(request.params.get("uploadId"));
+        if (upload == null || upload.key.equals(request.key) == false) {
+            return error(request, 404, "NoSuchUpload", "The specified multipart upload does not exist.");
+        }
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final Matcher matcher = PART_NUMBER.matcher(new String(request.body, StandardCharsets.UTF_8));
+        int parts = 0;
+        while (matcher.find()) {
+            final byte[] part = upload.parts.get(Integer.parseInt(matcher.group(1)));
+            if (part == null) {
+                return error(request, 400, "InvalidPart", "Part [" + matcher.group(1) + "] was not uploaded.");
+            }
+            content.write(part, 0, part.length);
+            parts += 1;
+        }
+        final byte[] data = content.toByteArray();
+        final Blob blob = new Blob(maybeCorrupt(data, corruptNextUploads), md5Hex(data) + "-" + parts, upload.userMetadata);
+        blobs.put(request.key, blob);
+        return xml(200, "<CompleteMultipartUploadResult><Location>" + bucket + "/" + escape(request.key) + "</Location>"
+                + "<Bucket>" + bucket + "</Bucket><Key>" + escape(request.key) + "</Key><ETag>\"" + blob.eTag + "\"</ETag>"
+                + "</CompleteMultipartUploadResult>");
+    }
+
+    private Response getObject(Request request) {
+        final Blob blob = blobs.get(request.key);
+        if (blob == null) {
+            return error(request, 404, "NoSuchKey", "The specified key does not exist.");
+        }
+        final String ifMatch = request.headers.get("If-Match");
+        if (ifMatch != null && unquote(ifMatch).equals(blob.eTag) == false) {
+            return error(request, 412, "PreconditionFailed", "At least one of the preconditions you specified did not hold.");
+        }
+        final String ifNoneMatch = request.headers.get("If-None-Match");
+        if (ifNoneMatch != null && unquote(ifNoneMatch).equals(blob.eTag)) {
+            return new Response(304).header("ETag", "\"" + blob.eTag + "\"");
+        }
+        final Response response = new Response(200)
+                .header("ETag", "\"" + blob.eTag + "\"")
+                .header(COSCrc64.HEADER, blob.crc64)
+                .header("Last-Modified", LAST_MODIFIED.format(blob.lastModified))
+                .header("Content-Type", "application/octet-stream");
+        blob.userMetadata.forEach(response::header);
+        int start = 0;
+        int end = blob.data.length - 1;
+        final String range = request.headers.get("Range");
+        if (range != null) {
+            final Matcher matcher = RANGE.matcher(range);
+            if (matcher.matches() == false) {
+                return error(request, 400, "InvalidArgument", "Invalid range [" + range + "]");
+            }
+            start = Math.toIntExact(Long.parseLong(matcher.group(1)));
+            if (start >= blob.data.length) {
+                return error(request, 416, "InvalidRange", "The requested range is not satisfiable.");
+            }
+            if (matcher.group(2).isEmpty() == false) {
+                end = Math.toIntExact(Math.min(end, Long.parseLong(matcher.group(2))));
+            }
+            response.status = 206;
+            response.header("Content-Range", "bytes " + start + "-" + end + "/" + blob.data.length);
+        }
+        if ("GET".equals(request.method) && decrementIfPositive(corruptNextDownloads)) {
+            final byte[] corrupted = Arrays.copyOfRange(blob.data, start, end + 1);
+            corrupted[corrupted.length / 2] ^= 1;
+            response.body(corrupted, 0, corrupted.length);
+        } else {
+            response.body(blob.data, start, end - start + 1);
+        }
+        if ("GET".equals(request.method) && response.length > 1 && (decrementIfPositive(disconnectNext)
+                || (disconnectProbability > 0.0 && nextDouble() < disconnectProbability))) {
+            response.truncateAt = response.length / 2;
+        }
+        return response;
+    }
+
+    private Response deleteObjects(String body) {
+        final boolean quiet = body.contains("<Quiet>true</Quiet>");
+        final StringBuilder result = new StringBuilder("<DeleteResult>");
+        final Matcher matcher = DELETE_KEY.matcher(body);
+        while (matcher.find()) {
+            final String key = unescape(matcher.group(1));
+            if (undeletableKeys.contains(key)) {
+                // errors are reported in quiet mode too
+                result.append("<Error><Key>").append(escape(key)).append("</Key><Code>AccessDenied</Code>")
+                        .append("<Message>Access Denied</Message></Error>");
+                continue;
+            }
+            blobs.remove(key);
+            if (quiet == false) {
+                result.append("<Deleted><Key>").append(escape(key)).append("</Key></Deleted>");
+            }
+        }
+        return xml(200, result.append("</DeleteResult>").toString());
+    }
+
+    private Response listObjects(Map<String, String> params) {
+        final String prefix = params.getOrDefault("prefix", "");
+        final String marker = params.getOrDefault("marker", "");
+        final String delimiter = params.get("delimiter");
+        final int maxKeys = params.containsKey("max-keys") ? Integer.parseInt(params.get("max-keys")) : 1000;
+
+        final StringBuilder contents = new StringBuilder();
+        final Set<String> commonPrefixes = new TreeSet<>();
+        int count = 0;
+        String lastEntry = null;
+        boolean truncated = false;
+        for (Map.Entry<String, Blob> entry : blobs.tailMap(marker.compareTo(prefix) > 0 ? marker : prefix, true).entrySet()) {
+            final String key = entry.getKey();
+            if (key.startsWith(prefix) == false) {
+                break;
+            }
+            if (key.compareTo(marker) <= 0) {
+                continue;
+            }
+            String commonPrefix = null;
+            if (delimiter != null && delimiter.isEmpty() == false) {
+                final int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) {
+                    commonPrefix = key.substring(0, index + delimiter.length());
+                }
+            }
+            if (commonPrefix != null && (commonPrefixes.contains(commonPrefix) || commonPrefix.equals(marker))) {
+                continue;
+            }
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+            count += 1;
+            if (commonPrefix != null) {
+                commonPrefixes.add(commonPrefix);
+                lastEntry = commonPrefix;
+            } else {
+                final Blob blob = entry.getValue();
+                contents.append("<Contents><Key>").append(escape(key)).append("</Key>")
+                        .append("<LastModified>").append(ISO_8601.format(blob.lastModified)).append("</LastModified>")
+                        .append("<ETag>\"").append(blob.eTag).append("\"</ETag>")
+                        .append("<Size>").append(blob.data.length).append("</Size>")
+                        .append("<Owner><ID>fixture</ID><DisplayName>fixture</DisplayName></Owner>")
+                        .append("<StorageClass>STANDARD</StorageClass></Contents>");
+                lastEntry = key;
+            }
+        }
+        final StringBuilder response = new StringBuilder("<ListBucketResult>");
+        response.append("<Name>").append(bucket).append("</Name>");
+        response.append("<Prefix>").append(escape(prefix)).append("</Prefix>");
+        response.append("<Marker>").append(escape(marker)).append("</Marker>");
+        response.append("<MaxKeys>").append(maxKeys).append("</MaxKeys>");
+        if (delimiter != null) {
+            response.append("<Delimiter>").append(escape(delimiter)).append("</Delimiter>");
+        }
+        response.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) {
+            response.append("<NextMarker>").append(escape(lastEntry)).append("</NextMarker>");
+        }
+        response.append(contents);
+        for (String commonPrefix : commonPrefixes) {
+            response.append("<CommonPrefixes><Prefix>").append(escape(commonPrefix)).append("</Prefix></CommonPrefixes>");
+        }
+        return xml(200, response.append("</ListBucketResult>").toString());
+    }
+
+    private static Response error(Request request, int status, String code, String message) {
+        return xml(status, "<Error><Code>" + code + "</Code><Message>" + escape(message) + "</Message>"
+                + "<Resource>" + escape("/" + request.key) + "</Resource>"
+                + "<RequestId>" + UUID.randomUUID() + "</RequestId></Error>");
+    }
+
+    private static Response xml(int status, String xml) {
+        final byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8);
+        return new Response(status).header("Content-Type", "application/xml").body(body, 0, body.length);
+    }
+
+    /**
+     * Waits until transferring {@code bytes} since {@code startNanos} stays within the configured bandwidth.
+     */
+    private void pace(long startNanos, long bytes) throws IOException {
+        final long limit = bytesPerSecond;
+        if (limit <= 0L || bytes <= 0L) {
+            return;
+        }
+        final long waitNanos = startNanos + bytes * TimeUnit.SECONDS.toNanos(1) / limit - System.nanoTime();
+        if (waitNanos > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while limiting bandwidth", e);
+            }
+        }
+    }
+
+    private interface Pacer {
+        void pace(long startNanos, long bytes) throws IOException;
+    }
+
+    private static Map<String, String> userMetadata(Map<String, String> headers) {
+        final Map<String, String> metadata = new TreeMap<>();
+        headers.forEach((name, value) -> {
+            if (name.toLowerCase(Locale.ROOT).startsWith(USER_METADATA_PREFIX)) {
+                metadata.put(name.toLowerCase(Locale.ROOT), value);
+            }
+        });
+        return metadata;
+    }
+
+    private static boolean decrementIfPositive(AtomicInteger counter) {
+        return counter.getAndUpdate(c -> c > 0 ? c - 1 : 0) > 0;
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private static byte[] maybeCorrupt(byte[] data, AtomicInteger corruptNext) {
+        if (data.length == 0 || decrementIfPositive(corruptNext) == false) {
+            return data;
+        }
+        final byte[] corrupted = data.clone();
+        corrupted[corrupted.length / 2] ^= 1;
+        return corrupted;
+    }
+
+    static String crc64(byte[] data) {
+        final COSCrc64 crc = new COSCrc64();
+        crc.update(data, 0, data.length);
+        return COSCrc64.toString(crc.getValue());
+    }
+
+    static String md5Hex(byte[] data) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format(Locale.ROOT, "%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String unquote(String eTag) {
+        return eTag.length() > 1 && eTag.startsWith("\"") && eTag.endsWith("\"") ? eTag.substring(1, eTag.length() - 1) : eTag;
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;").replace("'", "&apos;");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static final class Request {
+        private final String method;
+        private final URI uri;
+        private final String key;
+        private final Map<String, String> params;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        private Request(String method, URI uri, Map<String, String> params, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.uri = uri;
+            this.key = uri.getPath().substring(1);
+            this.params = params;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * Reads the next request of a connection, or returns {@code null} if the client closed the connection.
+         */
+        static Request read(InputStream in, OutputStream out) throws IOException {
+            final String requestLine = readLine(in);
+            if (requestLine == null) {
+                return null;
+            }
+            final String[] parts = requestLine.split(" ");
+            if (parts.length != 3) {
+                throw new IOException("invalid request line [" + requestLine + "]");
+            }
+            final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            String line;
+            while ((line = readLine(in)) != null && line.isEmpty() == false) {
+                final int index = line.indexOf(':');
+                headers.put(line.substring(0, index).trim(), line.substring(index + 1).trim());
+            }
+            if ("100-continue".equalsIgnoreCase(headers.get("Expect"))) {
+                out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+            final byte[] body;
+            if ("chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+                final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                int chunkSize;
+                while ((chunkSize = Integer.parseInt(readLine(in).split(";")[0].trim(), 16)) > 0) {
+                    content.write(readFully(in, chunkSize));
+                    readLine(in);
+                }
+                readLine(in);
+                body = content.toByteArray();
+            } else {
+                final String contentLength = headers.get("Content-Length");
+                body = readFully(in, contentLength == null ? 0 : Integer.parseInt(contentLength));
+            }
+            final URI uri = URI.create(parts[1]);
+            return new Request(parts[0], uri, queryParams(uri.getRawQuery()), headers, body);
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    final byte[] bytes = line.toByteArray();
+                    final int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                    return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+                }
+                line.write(b);
+            }
+            if (line.size() == 0) {
+                return null;
+            }
+            throw new EOFException("connection closed in the middle of a line");
+        }
+
+        private static byte[] readFully(InputStream in, int length) throws IOException {
+            final byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                final int read = in.read(bytes, offset, length - offset);
+                if (read == -1) {
+                    throw new EOFException("connection closed after " + offset + " of " + length + " bytes");
+                }
+                offset += read;
+            }
+            return bytes;
+        }
+
+        private static Map<String, String> queryParams(String rawQuery) throws IOException {
+            final Map<String, String> params = new HashMap<>();
+            if (rawQuery != null) {
+                for (String param : rawQuery.split("&")) {
+                    if (param.isEmpty()) {
+                        continue;
+                    }
+                    final int index = param.indexOf('=');
+                    final String name = index < 0 ? param : param.substring(0, index);
+                    final String value = index < 0 ? "" : param.substring(index + 1);
+                    params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+                }
+            }
+            return params;
+        }
+    }
+
+    private static final class Response {
+        private int status;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private byte[] body = new byte[0];
+        private int offset;
+        private int length;
+        private int truncateAt = -1;
+
+        private Response(int status) {
+            this.status = status;
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        Response body(byte[] body, int offset, int length) {
+            this.body = body;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        /**
+         * Writes the response and returns whether the connection can be reused.
+         */
+        boolean write(OutputStream out, boolean headOnly, Pacer pacer) throws IOException {
+            final StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(length).append("\r\n");
+            head.append("x-cos-request-id: ").append(UUID.randomUUID()).append("\r\n");
+            head.append("\r\n");
+            out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (headOnly == false) {
+                final int toWrite = truncateAt >= 0 ? truncateAt : length;
+                final long startNanos = System.nanoTime();
+                for (int written = 0; written < toWrite; ) {
+                    final int slice = Math.min(toWrite - written, 64 * 1024);
+                    out.write(body, offset + written, slice);
+                    written += slice;
+                    pacer.pace(startNanos, written);
+                }
+            }
+            out.flush();
+            return truncateAt < 0 || headOnly;
+        }
+
+        private static String reason(int status) {
+            switch (status) {
+                case 200:
+                    return "OK";
+                case 204:
+                    return "No Content";
+                case 206:
+                    return "Partial Content";
+                case 304:
+                    return "Not Modified";
+                case 404:
+                    return "Not Found";
+                case 412:
+                    return "Precondition Failed";
+                case 416:
+                    return "Requested Range Not Satisfiable";
+                case 503:
+                    return "Service Unavailable";
+                default:
+                    return "Status " + status;
+            }
+        }
+    }
+
+    private static final class Blob {
+        private final byte[] data;
+        private final String eTag;
+        private final String crc64;
+        private final Map<String, String> userMetadata;
+        private final Instant lastModified = Instant.now();
+
+        private Blob(byte[] data, String eTag, Map<String, String> userMetadata) {
+            this.data = data;
+            this.eTag = eTag;
+            this.userMetadata = userMetadata;
+            this.crc64 = COSHttpFixture.crc64(data);
+        }
+    }
+
+    private static final class MultipartUpload {
+        private final String key;
+        private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+        private final Map<String, String> userMetadata;
+
+        private MultipartUpload(String key, Map<String, String> userMetadata) {
+            this.key = key;
+            this.userMetadata = userMetadata;
+        }
+    }
+
+    /**
+     * Runs the fixture until the process is killed: {@code COSHttpFixture <working directory> <bucket>}.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args == null || args.length != 2) {
+            throw new IllegalArgumentException("COSHttpFixture expects 2 arguments [working directory, bucket], got "
+                    + (args == null ? 0 : args.length));
+        }
+        final Path workingDirectory = Paths.get(args[0]);
+        final COSHttpFixture fixture = new COSHttpFixture(args[1]);
+        final String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        writeFile(workingDirectory, "pid", pid);
+        writeFile(workingDirectory, "ports", fixture.address());
+        // serve until the process is killed
+        Thread.currentThread().join();
+    }
+
+    private static void writeFile(Path directory, String name, String content) throws IOException {
+        final Path tempFile = Files.createTempFile(directory, null, null);
+        Files.write(tempFile, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    }
+}
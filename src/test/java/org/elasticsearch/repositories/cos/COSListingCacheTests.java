@@ -0,0 +1,98 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobMetaData;
+import org.elasticsearch.common.blobstore.support.PlainBlobMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+public class COSListingCacheTests extends AbstractCOSFixtureTestCase {
+
+    public void testListingsAreServedUntilInvalidated() {
+        final COSListingCache cache = new COSListingCache(TimeValue.timeValueHours(1), 1000);
+        assertNull(cache.getBlobs("a/"));
+        cache.putBlobs("a/", blobs("x", "y"), cache.generation());
+        cache.putBlobs("b/", blobs("z"), cache.generation());
+        cache.putChildren("a/", new HashSet<>(Arrays.asList("c")), cache.generation());
+        assertEquals(blobs("x", "y").keySet(), cache.getBlobs("a/").keySet());
+        assertEquals(Collections.singleton("c"), cache.getChildren("a/"));
+
+        // a blob invalidates the listings of its parents, and a prefix those of its children
+        cache.invalidate(Collections.singletonList("a/c/blob"));
+        assertNull(cache.getBlobs("a/"));
+        assertNull(cache.getChildren("a/"));
+        assertNotNull(cache.getBlobs("b/"));
+        cache.putBlobs("b/c/", blobs("w"), cache.generation());
+        cache.invalidate(Collections.singletonList("b/"));
+        assertNull(cache.getBlobs("b/"));
+        assertNull(cache.getBlobs("b/c/"));
+    }
+
+    public void testListingsStartedBeforeAnInvalidationAreNotCached() {
+        final COSListingCache cache = new COSListingCache(TimeValue.timeValueHours(1), 1000);
+        final long generation = cache.generation();
+        // a blob is written while the listing is on its way
+        cache.invalidate(Collections.singletonList("a/x"));
+        final Map<String, BlobMetaData> listing = cache.putBlobs("a/", blobs("y"), generation);
+        assertEquals(Collections.singleton("y"), listing.keySet());
+        assertNull(cache.getBlobs("a/"));
+        cache.putChildren("a/", Collections.singleton("c"), generation);
+        assertNull(cache.getChildren("a/"));
+
+        cache.putBlobs("a/", blobs("x", "y"), cache.generation());
+        assertNotNull(cache.getBlobs("a/"));
+    }
+
+    public void testListingsExpire() throws Exception {
+        final COSListingCache cache = new COSListingCache(TimeValue.timeValueMillis(1), 1000);
+        cache.putBlobs("a/", blobs("x"), cache.generation());
+        assertBusy(() -> assertNull(cache.getBlobs("a/")));
+    }
+
+    public void testWritesAndDeletesInvalidateListings() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.LISTING_CACHE_TTL.getKey(), "1h")
+                .build());
+        fixture.putBlob("base_path/a", new byte[1]);
+        fixture.putBlob("base_path/child/b", new byte[1]);
+        assertEquals(Collections.singleton("a"), container.listBlobs().keySet());
+        assertEquals(Collections.singleton("child"), container.children().keySet());
+        assertEquals(Collections.singleton("a"), container.listBlobs().keySet());
+        assertEquals(Collections.singleton("child"), container.children().keySet());
+        assertEquals(2L, fixture.requests("LIST"));
+
+        // changes made by other nodes are not seen until the listing expires
+        fixture.putBlob("base_path/c", new byte[1]);
+        assertEquals(Collections.singleton("a"), container.listBlobs().keySet());
+
+        container.writeBlob("d", new ByteArrayInputStream(new byte[1]), 1, true);
+        assertEquals(new HashSet<>(Arrays.asList("a", "c", "d")), container.listBlobs().keySet());
+        assertEquals(3L, fixture.requests("LIST"));
+
+        container.deleteBlob("d");
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), container.listBlobs().keySet());
+        container.deleteBlobsIgnoringIfNotExists(Arrays.asList("a", "c"));
+        assertEquals(Collections.emptySet(), container.listBlobs().keySet());
+        assertEquals(5L, fixture.requests("LIST"));
+
+        // deleting a child container invalidates the children of its parent
+        container.children().get("child").delete();
+        assertEquals(Collections.emptySet(), container.children().keySet());
+    }
+
+    private static Map<String, BlobMetaData> blobs(String... names) {
+        final Map<String, BlobMetaData> blobs = new HashMap<>();
+        for (String name : names) {
+            blobs.put(name, new PlainBlobMetaData(name, 1L));
+        }
+        return blobs;
+    }
+}
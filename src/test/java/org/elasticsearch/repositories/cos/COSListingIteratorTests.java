@@ -0,0 +1,62 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.qcloud.cos.model.ListObjectsRequest;
+import com.qcloud.cos.model.ObjectListing;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobMetaData;
+import org.elasticsearch.common.settings.Settings;
+
+public class COSListingIteratorTests extends AbstractCOSFixtureTestCase {
+
+    public void testPagesAreFetchedLazily() throws IOException {
+        createBlobContainer(Settings.EMPTY);
+        for (int i = 0; i < 2500; i++) {
+            fixture.putBlob("base_path/blob-" + i, new byte[1]);
+        }
+        final ListObjectsRequest request = new ListObjectsRequest().withBucketName(BUCKET).withPrefix("base_path/").withDelimiter("/");
+        final Set<String> keys = new HashSet<>();
+        try (COSListingIterator listing = new COSListingIterator(blobStore, request)) {
+            assertTrue(listing.hasNext());
+            assertEquals(0L, fixture.requests("LIST"));
+            listing.next().getObjectSummaries().forEach(summary -> keys.add(summary.getKey()));
+            assertEquals(1L, fixture.requests("LIST"));
+            assertEquals(1000, keys.size());
+            while (listing.hasNext()) {
+                final ObjectListing page = listing.next();
+                page.getObjectSummaries().forEach(summary -> keys.add(summary.getKey()));
+            }
+            assertEquals(3, listing.pages());
+        }
+        assertEquals(3L, fixture.requests("LIST"));
+        assertEquals(2500, keys.size());
+    }
+
+    public void testBlobsAndChildrenAreListedInOnePass() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.EMPTY);
+        for (int i = 0; i < 1500; i++) {
+            fixture.putBlob("base_path/blob-" + i, new byte[i % 7]);
+        }
+        for (int i = 0; i < 1200; i++) {
+            fixture.putBlob("base_path/child-" + i + "/blob-0", new byte[1]);
+            fixture.putBlob("base_path/child-" + i + "/blob-1", new byte[1]);
+        }
+        // the 2700 blobs and common prefixes of the container take three pages of up to 1000 entries
+        final Map<String, BlobMetaData> blobs = container.listBlobs();
+        assertEquals(1500, blobs.size());
+        assertEquals(3L, blobs.get("blob-10").length());
+        assertEquals(3L, fixture.requests("LIST"));
+
+        final Map<String, BlobContainer> children = container.children();
+        assertEquals(1200, children.size());
+        assertEquals("base_path/child-7/", children.get("child-7").path().buildAsString());
+        assertEquals(6L, fixture.requests("LIST"));
+
+        assertEquals(2, children.get("child-7").listBlobs().size());
+        assertEquals(7L, fixture.requests("LIST"));
+    }
+}
@@ -0,0 +1,87 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.qcloud.cos.model.ObjectMetadata;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+
+public class COSPartPrefetcherTests extends AbstractCOSFixtureTestCase {
+
+    public void testFollowingParts() {
+        final COSPartPrefetcher prefetcher = new COSPartPrefetcher(2, 100L);
+        assertEquals(Arrays.asList("__a1b2.part10", "__a1b2.part11"), prefetcher.followingParts("__a1b2.part9"));
+        assertEquals(Collections.emptyList(), prefetcher.followingParts("__a1b2"));
+        assertEquals(Collections.emptyList(), prefetcher.followingParts("__a1b2.part"));
+        assertEquals(Collections.emptyList(), prefetcher.followingParts(".part1"));
+    }
+
+    public void testPrefetchesAreBoundedByMemory() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        final COSPartPrefetcher prefetcher = new COSPartPrefetcher(2, 100L, now::get);
+        final CompletableFuture<COSPartPrefetcher.Part> first = prefetcher.start("a.part1", 60L);
+        assertNotNull(first);
+        assertNull(prefetcher.start("a.part1", 60L));
+        assertNull(prefetcher.start("a.part2", 60L));
+        assertEquals(60L, prefetcher.reservedBytes());
+
+        // the reader owns the bytes it took
+        first.complete(new COSPartPrefetcher.Part(new byte[60], new ObjectMetadata()));
+        assertSame(first, prefetcher.take("a.part1"));
+        assertNull(prefetcher.take("a.part1"));
+        assertEquals(0L, prefetcher.reservedBytes());
+        assertEquals(1L, prefetcher.hits());
+
+        // prefetches that are not read in time are dropped
+        final CompletableFuture<COSPartPrefetcher.Part> stale = prefetcher.start("a.part2", 60L);
+        now.addAndGet(COSPartPrefetcher.MAX_AGE_NANOS + 1);
+        assertNotNull(prefetcher.start("a.part3", 60L));
+        assertTrue(stale.isCancelled());
+        assertEquals(1L, prefetcher.wasted());
+
+        // failed prefetches release their memory, but are remembered so that a missing part is not requested again
+        prefetcher.start("b.part1", 40L).completeExceptionally(new RuntimeException("not found"));
+        assertEquals(2L, prefetcher.wasted());
+        assertEquals(60L, prefetcher.reservedBytes());
+        assertNull(prefetcher.start("b.part1", 40L));
+        assertTrue(prefetcher.take("b.part1").isCompletedExceptionally());
+
+        // prefetches of modified blobs are dropped
+        prefetcher.invalidate(Collections.singletonList("a."));
+        assertEquals(3L, prefetcher.wasted());
+        assertEquals(0L, prefetcher.reservedBytes());
+    }
+
+    public void testFollowingPartsArePrefetched() throws Exception {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.DOWNLOAD_CHUNK_SIZE.getKey(), "1mb")
+                .put(COSClientSettings.DATA_COMPRESSION.getKey(), randomFrom("none", "deflate"))
+                .build());
+        final List<byte[]> parts = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final byte[] data = randomByteArrayOfLength(randomIntBetween(1, 3 * 1024 * 1024));
+            container.writeBlob("__file.part" + i, new ByteArrayInputStream(data), data.length, true);
+            parts.add(data);
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            assertArrayEquals(parts.get(i), readBlob(container, "__file.part" + i));
+        }
+        final COSPartPrefetcher prefetcher = blobStore.partPrefetcher();
+        assertEquals(3L, prefetcher.hits());
+        // the two parts after the last one do not exist
+        assertBusy(() -> assertEquals(2L, prefetcher.wasted()));
+        assertEquals(0L, prefetcher.reservedBytes());
+
+        // other blobs are read as before
+        assertArrayEquals(parts.get(0), readBlob(container, "__file.part0"));
+        container.deleteBlobsIgnoringIfNotExists(Collections.singletonList("__file.part1"));
+        expectThrows(NoSuchFileException.class, () -> container.readBlob("__file.part1"));
+    }
+}
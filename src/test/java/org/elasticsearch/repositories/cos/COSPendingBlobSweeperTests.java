@@ -0,0 +1,34 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+public class COSPendingBlobSweeperTests extends AbstractCOSFixtureTestCase {
+
+    public void testSweeperDeletesExpiredTemporaryBlobs() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.EMPTY);
+        fixture.putBlob("base_path/indices/index-uuid/0/pending-index-1-uuid", new byte[1]);
+        fixture.putBlob("base_path/indices/index-uuid/0/__data", new byte[1]);
+        fixture.putBlob("base_path/indices/index-uuid/meta-uuid.dat", new byte[1]);
+        fixture.putBlob("base_path/pending-index-2-uuid", new byte[1]);
+        fixture.putBlob("base_path/index-2", new byte[1]);
+        fixture.putBlob("other_path/pending-index-3-uuid", new byte[1]);
+
+        final BlobPath basePath = new BlobPath().add("base_path");
+        final TimeValue maxAge = TimeValue.timeValueHours(1);
+        assertEquals(0, new COSPendingBlobSweeper(blobStore, basePath, maxAge, System::currentTimeMillis).sweep());
+        // the root, the indices, the index and its shard are each listed once
+        assertEquals(4L, fixture.requests("LIST"));
+        final long later = System.currentTimeMillis() + maxAge.millis() + 1000L;
+        assertEquals(2, new COSPendingBlobSweeper(blobStore, basePath, maxAge, () -> later).sweep());
+        assertEquals(new TreeSet<>(Arrays.asList("base_path/index-2", "base_path/indices/index-uuid/0/__data",
+                "base_path/indices/index-uuid/meta-uuid.dat", "other_path/pending-index-3-uuid")), fixture.keys());
+        assertTrue(container.listBlobs().containsKey("index-2"));
+    }
+}
@@ -0,0 +1,98 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+
+import static org.hamcrest.Matchers.lessThan;
+
+public class COSRequestHedgerTests extends AbstractCOSFixtureTestCase {
+
+    public void testHedgesAfterPercentileOfRecentLatencies() {
+        final COSRequestHedger hedger = new COSRequestHedger(90.0, 0.05);
+        for (int i = 1; i < COSRequestHedger.WARMUP_REQUESTS; i++) {
+            hedger.onLatency(COSOperation.GET, TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        // not hedged until enough latencies were seen
+        assertEquals(-1L, hedger.hedgeDelayNanos(COSOperation.GET));
+        hedger.onLatency(COSOperation.GET, TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(18), hedger.hedgeDelayNanos(COSOperation.GET));
+        // each operation has its own latencies
+        assertEquals(-1L, hedger.hedgeDelayNanos(COSOperation.LIST));
+        assertEquals(-1L, hedger.hedgeDelayNanos(COSOperation.HEAD));
+        for (int i = 0; i < COSRequestHedger.WARMUP_REQUESTS; i++) {
+            hedger.onLatency(COSOperation.HEAD, TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2), hedger.hedgeDelayNanos(COSOperation.HEAD));
+
+        // the window follows the recent latencies
+        for (int i = 0; i < 1024; i++) {
+            hedger.onLatency(COSOperation.GET, TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), hedger.hedgeDelayNanos(COSOperation.GET));
+
+        // writes are never hedged
+        for (int i = 0; i < COSRequestHedger.WARMUP_REQUESTS; i++) {
+            hedger.onLatency(COSOperation.PUT, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertEquals(-1L, hedger.hedgeDelayNanos(COSOperation.PUT));
+    }
+
+    public void testHedgesAreCappedByBudget() {
+        final COSRequestHedger hedger = new COSRequestHedger(95.0, 0.25);
+        // a burst of slow requests is hedged up to the budget
+        for (int i = 0; i < COSRequestHedger.MAX_BUDGET; i++) {
+            assertTrue(hedger.tryHedge());
+        }
+        assertFalse(hedger.tryHedge());
+        assertEquals(1L, hedger.skipped());
+
+        // then one hedge per four requests
+        for (int i = 0; i < 3; i++) {
+            hedger.hedgeDelayNanos(COSOperation.GET);
+        }
+        assertFalse(hedger.tryHedge());
+        hedger.hedgeDelayNanos(COSOperation.LIST);
+        assertTrue(hedger.tryHedge());
+        assertEquals(11L, hedger.hedged());
+        assertEquals(2L, hedger.skipped());
+    }
+
+    public void testSlowReadsAreHedged() throws IOException {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.HEDGE_REQUESTS.getKey(), true)
+                .build());
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(1, 1024));
+        container.writeBlob("index-0", new ByteArrayInputStream(data), data.length, true);
+        for (int i = 0; i < COSRequestHedger.WARMUP_REQUESTS; i++) {
+            assertArrayEquals(data, readBlob(container, "index-0"));
+        }
+        assertEquals(0L, blobStore.hedger().hedged());
+
+        final long gets = fixture.requests("GET");
+        fixture.delayNextRequests(1, 3000L);
+        final long startNanos = System.nanoTime();
+        assertArrayEquals(data, readBlob(container, "index-0"));
+        assertThat(System.nanoTime() - startNanos, lessThan(TimeUnit.MILLISECONDS.toNanos(3000L)));
+        assertEquals(1L, blobStore.hedger().hedged());
+        assertEquals(1L, blobStore.hedger().wins());
+        assertEquals(gets + 2L, fixture.requests("GET"));
+
+        // reads sent from a transfer thread, like the resume of a chunk read, are not hedged
+        fixture.delayNextRequests(1, 1000L);
+        final byte[] read = blobStore.executeAsync(COSOperation.GET, client -> {
+            try {
+                return readBlob(container, "index-0");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).join();
+        assertArrayEquals(data, read);
+        assertEquals(1L, blobStore.hedger().hedged());
+        assertEquals(gets + 3L, fixture.requests("GET"));
+    }
+}
@@ -0,0 +1,38 @@
+package org.elasticsearch.repositories.cos;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.test.ESTestCase;
+
+public class COSRequestRateLimiterTests extends ESTestCase {
+
+    public void testUnlimitedOperationsNeverWait() {
+        final COSRequestRateLimiter limiter = new COSRequestRateLimiter(0.0, 0.0, 0.0, 0.0, () -> 0L);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0L, limiter.reserve(randomFrom(COSOperation.values())));
+        }
+    }
+
+    public void testBurstThenSteadyRate() {
+        final AtomicLong now = new AtomicLong();
+        final COSRequestRateLimiter limiter = new COSRequestRateLimiter(10.0, 0.0, 0.0, 0.0, now::get);
+        // a full bucket lets one second worth of requests through
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0L, limiter.reserve(COSOperation.LIST));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.reserve(COSOperation.LIST));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), limiter.reserve(COSOperation.LIST));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0L, limiter.reserve(COSOperation.LIST));
+        // other operation classes are not limited by the list bucket
+        assertEquals(0L, limiter.reserve(COSOperation.GET));
+    }
+
+    public void testUploadOperationsShareOneBucket() {
+        final COSRequestRateLimiter limiter = new COSRequestRateLimiter(0.0, 1.0, 0.0, 0.0, () -> 0L);
+        assertEquals(0L, limiter.reserve(COSOperation.UPLOAD_PART));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), limiter.reserve(COSOperation.MULTIPART));
+        assertEquals(TimeUnit.SECONDS.toNanos(2), limiter.reserve(COSOperation.PUT));
+    }
+}
@@ -0,0 +1,38 @@
+package org.elasticsearch.repositories.cos;
+
+import java.util.concurrent.TimeUnit;
+
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import org.elasticsearch.test.ESTestCase;
+
+public class COSRequestStatsTests extends ESTestCase {
+
+    public void testLatencyBuckets() {
+        assertEquals(0, COSRequestStats.bucket(0L));
+        assertEquals(1, COSRequestStats.bucket(1L));
+        assertEquals(10, COSRequestStats.bucket(1000L));
+        assertEquals(COSRequestStats.LATENCY_BUCKETS - 1, COSRequestStats.bucket(Long.MAX_VALUE));
+    }
+
+    public void testCountsAndPercentiles() {
+        final COSRequestStats stats = new COSRequestStats();
+        assertEquals(0L, stats.latencyPercentileMicros(COSOperation.GET, 99.0));
+        for (int i = 0; i < 99; i++) {
+            stats.onRequest(COSOperation.GET, TimeUnit.MILLISECONDS.toNanos(1), null);
+        }
+        final CosServiceException throttled = new CosServiceException("slow down");
+        throttled.setStatusCode(503);
+        stats.onRequest(COSOperation.GET, TimeUnit.MILLISECONDS.toNanos(100), throttled);
+        stats.onRequest(COSOperation.LIST, 0L, new CosClientException("failed"));
+
+        assertEquals(100L, stats.requests(COSOperation.GET));
+        assertEquals(1L, stats.errors(COSOperation.GET));
+        assertEquals(1L, stats.errors(COSOperation.LIST));
+        assertEquals(0L, stats.requests(COSOperation.PUT));
+        // 1ms falls into the bucket below 1024 micros, the single slow request only shows in the tail
+        assertEquals(1024L, stats.latencyPercentileMicros(COSOperation.GET, 50.0));
+        assertEquals(1024L, stats.latencyPercentileMicros(COSOperation.GET, 99.0));
+        assertEquals(100_000L, stats.latencyPercentileMicros(COSOperation.GET, 100.0));
+    }
+}
@@ -0,0 +1,76 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.IOException;
+
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import com.qcloud.cos.exception.MultiObjectDeleteException;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.test.ESTestCase;
+
+import static java.util.Collections.emptyList;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class COSRetryPolicyTests extends ESTestCase {
+
+    public void testRetryableFailures() {
+        assertTrue(COSRetryPolicy.isRetryable(serviceException(500, "InternalError")));
+        assertTrue(COSRetryPolicy.isRetryable(serviceException(503, "ServiceUnavailable")));
+        assertTrue(COSRetryPolicy.isRetryable(serviceException(429, "TooManyRequests")));
+        assertTrue(COSRetryPolicy.isRetryable(serviceException(400, "RequestTimeout")));
+        assertTrue(COSRetryPolicy.isRetryable(new CosClientException("connection reset", new IOException("reset"))));
+        assertFalse(COSRetryPolicy.isRetryable(serviceException(404, "NoSuchKey")));
+        assertFalse(COSRetryPolicy.isRetryable(serviceException(403, "AccessDenied")));
+        assertFalse(COSRetryPolicy.isRetryable(new CosClientException("bad request")));
+        assertFalse(COSRetryPolicy.isRetryable(new MultiObjectDeleteException(emptyList(), emptyList())));
+        assertTrue(COSRetryPolicy.isThrottling(serviceException(503, "SlowDown")));
+        assertFalse(COSRetryPolicy.isThrottling(serviceException(500, "InternalError")));
+    }
+
+    public void testRetriesAreBoundedByAttemptsAndBudget() {
+        final COSRetryPolicy policy = new COSRetryPolicy(2, TimeValue.ZERO, TimeValue.ZERO, 3);
+        final CosServiceException throttled = serviceException(503, "SlowDown");
+        assertTrue(policy.shouldRetry(throttled, 1));
+        assertTrue(policy.shouldRetry(throttled, 2));
+        assertFalse(policy.shouldRetry(throttled, 3));
+        assertFalse(policy.shouldRetry(serviceException(404, "NoSuchKey"), 1));
+
+        // the budget has one retry left, and then only earns retries back as requests succeed
+        assertTrue(policy.shouldRetry(throttled, 1));
+        assertFalse(policy.shouldRetry(throttled, 1));
+        for (int i = 0; i < 9; i++) {
+            policy.onSuccess();
+        }
+        assertFalse(policy.shouldRetry(throttled, 1));
+        policy.onSuccess();
+        assertTrue(policy.shouldRetry(throttled, 1));
+    }
+
+    public void testBackoffDelaysGrowExponentiallyWithJitter() {
+        final COSRetryPolicy policy = new COSRetryPolicy(10, TimeValue.timeValueMillis(10), TimeValue.timeValueMillis(100), 10);
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.backoffDelayMillis(1), lessThanOrEqualTo(10L));
+            assertThat(policy.backoffDelayMillis(3), lessThanOrEqualTo(40L));
+            assertThat(policy.backoffDelayMillis(10), lessThanOrEqualTo(100L));
+            assertThat(policy.backoffDelayMillis(64), lessThanOrEqualTo(100L));
+        }
+        // full jitter spreads the delays down to zero
+        long min = Long.MAX_VALUE;
+        long max = 0L;
+        for (int i = 0; i < 1000; i++) {
+            final long delay = policy.backoffDelayMillis(10);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertThat(min, lessThanOrEqualTo(20L));
+        assertThat(80L, lessThanOrEqualTo(max));
+        assertEquals(0L, new COSRetryPolicy(3, TimeValue.ZERO, TimeValue.ZERO, 10).backoffDelayMillis(2));
+    }
+
+    private static CosServiceException serviceException(int statusCode, String errorCode) {
+        final CosServiceException e = new CosServiceException(errorCode);
+        e.setStatusCode(statusCode);
+        e.setErrorCode(errorCode);
+        return e;
+    }
+}
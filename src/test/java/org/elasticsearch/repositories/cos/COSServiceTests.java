@@ -0,0 +1,78 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.pool.PoolStats;
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+
+public class COSServiceTests extends AbstractCOSFixtureTestCase {
+
+    public void testClientsAreSharedAndReleasedOnceUnused() {
+        final COSService service = new COSService(Settings.EMPTY);
+        final COSClientReference first = service.client(repository("first", "ap-guangzhou"));
+        final COSClientReference second = service.client(repository("second", "ap-guangzhou"));
+        final COSClientReference other = service.client(repository("other", "ap-shanghai"));
+        assertSame(first, second);
+        assertNotSame(first, other);
+        // the cache holds a reference too
+        assertEquals(3, first.refCount());
+
+        first.close();
+        other.close();
+        assertEquals(2, second.refCount());
+        assertEquals(1, other.refCount());
+        service.close();
+        assertEquals(1, second.refCount());
+        assertEquals(0, other.refCount());
+        second.close();
+        assertEquals(0, second.refCount());
+    }
+
+    public void testClientsInUseSurviveReload() {
+        final COSService service = new COSService(Settings.EMPTY);
+        final RepositoryMetaData metaData = repository("repository", "ap-guangzhou");
+        final COSClientReference before = service.client(metaData);
+
+        service.refreshAndClearCache(Collections.emptyMap());
+        // the repository keeps using its client until it releases it
+        assertEquals(1, before.refCount());
+        assertNotNull(before.client().getClientConfig());
+        final COSClientReference after = service.client(metaData);
+        assertNotSame(before, after);
+
+        before.close();
+        assertEquals(0, before.refCount());
+        assertFalse(before.tryIncRef());
+        assertEquals(2, after.refCount());
+        after.close();
+        service.close();
+        assertEquals(0, after.refCount());
+    }
+
+    public void testIdleConnectionsAreClosedAfterTimeout() throws Exception {
+        final BlobContainer container = createBlobContainer(Settings.builder()
+                .put(COSClientSettings.MAX_CONNECTIONS.getKey(), 16)
+                .put(COSClientSettings.CONNECTION_IDLE_TIMEOUT.getKey(), "200ms")
+                .build());
+        container.writeBlob("blob", new ByteArrayInputStream(new byte[] {1}), 1, true);
+        final PoolStats stats = blobStore.connectionPoolStats();
+        assertEquals(16, stats.getMax());
+        assertEquals(0, stats.getLeased());
+        // the connection is kept alive for the next request for a while, and then closed well before the SDK would close it
+        assertEquals(1, stats.getAvailable());
+        assertBusy(() -> assertEquals(0, blobStore.connectionPoolStats().getAvailable()), 2L, TimeUnit.SECONDS);
+    }
+
+    private static RepositoryMetaData repository(String name, String region) {
+        return new RepositoryMetaData(name, COSRepository.TYPE, Settings.builder()
+                .put(COSClientSettings.ACCESS_KEY_ID.getKey(), "access_key_id")
+                .put(COSClientSettings.ACCESS_KEY_SECRET.getKey(), "access_key_secret")
+                .put(COSClientSettings.REGION.getKey(), region)
+                .put(COSClientSettings.BUCKET.getKey(), "bucket-1250000000")
+                .build());
+    }
+}
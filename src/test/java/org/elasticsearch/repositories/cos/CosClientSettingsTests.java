@@ -1,5 +1,6 @@
 package org.elasticsearch.repositories.cos;
 
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.test.ESTestCase;
 
 public class CosClientSettingsTests extends ESTestCase {
@@ -7,4 +8,20 @@ public class CosClientSettingsTests extends ESTestCase {
         System.out.println("adsfasfsa");
         assertEquals(1, 1);
     }
+
+    public void testMinConcurrentRequestsMustNotExceedMax() {
+        final Settings valid = Settings.builder()
+                .put(COSClientSettings.MIN_CONCURRENT_REQUESTS.getKey(), 8)
+                .put(COSClientSettings.MAX_CONCURRENT_REQUESTS.getKey(), 8)
+                .build();
+        assertEquals(8, (int) COSClientSettings.MIN_CONCURRENT_REQUESTS.get(valid));
+
+        final Settings invalid = Settings.builder()
+                .put(COSClientSettings.MIN_CONCURRENT_REQUESTS.getKey(), 128)
+                .build();
+        final IllegalArgumentException e =
+                expectThrows(IllegalArgumentException.class, () -> COSClientSettings.MIN_CONCURRENT_REQUESTS.get(invalid));
+        assertEquals("[min_concurrent_requests] must be at most [max_concurrent_requests] but was [128] while the maximum is [64]",
+                e.getMessage());
+    }
 }
@@ -55,7 +55,9 @@ public class CosRepositoryThirdPartyTests extends AbstractThirdPartyRepositoryTe
                         .put("access_key_secret", System.getProperty("access_key_secret"))
                         .put("bucket",System.getProperty("bucket"))
                         .put("base_path",System.getProperty("base_path"))
-                        .put("region",System.getProperty("region")))
+                        .put("region",System.getProperty("region"))
+                        .put("endpoint_override", System.getProperty("endpoint_override", ""))
+                        .put("protocol", System.getProperty("protocol", "https")))
                 .get();
 
         assertThat(putReposirotyResponse.isAcknowledged(), equalTo(true));
@@ -0,0 +1,86 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.test.ESTestCase;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class ParallelChunkInputStreamTests extends ESTestCase {
+
+    public void testChunksAreReadInOrder() throws Exception {
+        final byte[] data = randomByteArrayOfLength(randomIntBetween(1, 10000));
+        final int chunkSize = randomIntBetween(1, 1000);
+        final int firstChunk = Math.min(chunkSize, data.length);
+        final int concurrency = randomIntBetween(1, 5);
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            // chunks complete in random order, and the stream puts them back in order
+            final InputStream stream = new ParallelChunkInputStream(new ByteArrayInputStream(data, 0, firstChunk), firstChunk,
+                    data.length, chunkSize, concurrency, (position, length) -> CompletableFuture.supplyAsync(() -> {
+                        try {
+                            Thread.sleep(randomIntBetween(0, 3));
+                        } catch (InterruptedException e) {
+                            throw new AssertionError(e);
+                        }
+                        return Arrays.copyOfRange(data, Math.toIntExact(position), Math.toIntExact(position + length));
+                    }, executor));
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Streams.copy(stream, out);
+            assertArrayEquals(data, out.toByteArray());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    public void testCloseCancelsPendingChunks() throws IOException {
+        final List<CompletableFuture<byte[]>> chunks = new ArrayList<>();
+        final int concurrency = randomIntBetween(1, 5);
+        final InputStream stream = new ParallelChunkInputStream(new ByteArrayInputStream(new byte[10]), 10, 1000, 10, concurrency,
+                (position, length) -> {
+                    final CompletableFuture<byte[]> chunk = new CompletableFuture<>();
+                    chunks.add(chunk);
+                    return chunk;
+                });
+        assertEquals(0, stream.read());
+        assertEquals(concurrency, chunks.size());
+        stream.close();
+        for (CompletableFuture<byte[]> chunk : chunks) {
+            assertTrue(chunk.isCancelled());
+        }
+        expectThrows(IOException.class, stream::read);
+    }
+
+    public void testChunkFailuresAreRethrown() throws IOException {
+        final IOException failure = new IOException("simulated");
+        final List<Long> positions = new ArrayList<>();
+        final InputStream stream = new ParallelChunkInputStream(new ByteArrayInputStream(new byte[10]), 10, 100, 10, 2,
+                (position, length) -> {
+                    positions.add(position);
+                    final CompletableFuture<byte[]> chunk = new CompletableFuture<>();
+                    if (position == 30L) {
+                        chunk.completeExceptionally(failure);
+                    } else {
+                        chunk.complete(new byte[length]);
+                    }
+                    return chunk;
+                });
+        final byte[] buffer = new byte[100];
+        assertSame(failure, expectThrows(IOException.class, () -> Streams.readFully(stream, buffer, 0, buffer.length)));
+        // no more than the given number of chunks are requested ahead of the reader
+        assertThat(positions.size(), lessThanOrEqualTo(4));
+        stream.close();
+    }
+}
@@ -0,0 +1,60 @@
+package org.elasticsearch.repositories.cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.CompletableFuture;
+
+import org.elasticsearch.test.ESTestCase;
+
+public class PartBufferPoolTests extends ESTestCase {
+
+    public void testBuffersAreBoundedAndReused() throws Exception {
+        final boolean direct = randomBoolean();
+        final PartBufferPool pool = new PartBufferPool(2, 16, direct);
+        final ByteBuffer first = pool.acquire(16);
+        final ByteBuffer second = pool.acquire(4);
+        assertEquals(direct, first.isDirect());
+        assertEquals(4, second.remaining());
+
+        // the third buffer waits until one of the others is released
+        final CompletableFuture<ByteBuffer> third = new CompletableFuture<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                third.complete(pool.acquire(8));
+            } catch (InterruptedException e) {
+                third.completeExceptionally(e);
+            }
+        });
+        thread.start();
+        assertBusy(() -> assertEquals(Thread.State.WAITING, thread.getState()));
+        assertFalse(third.isDone());
+        first.put((byte) 1);
+        pool.release(first);
+        thread.join();
+        assertSame(first, third.get());
+        assertEquals(0, third.get().position());
+        assertEquals(8, third.get().limit());
+    }
+
+    public void testOversizedPartsAreNotPooled() throws Exception {
+        final PartBufferPool pool = new PartBufferPool(1, 16, true);
+        final ByteBuffer oversized = pool.acquire(32);
+        assertFalse(oversized.isDirect());
+        assertEquals(32, oversized.remaining());
+        pool.release(oversized);
+        final ByteBuffer pooled = pool.acquire(16);
+        assertNotSame(oversized, pooled);
+        assertTrue(pooled.isDirect());
+    }
+
+    public void testFillStopsAtEndOfChannel() throws IOException {
+        final byte[] data = randomByteArrayOfLength(10);
+        final ByteBuffer buffer = PartBufferPool.fill(Channels.newChannel(new ByteArrayInputStream(data)), ByteBuffer.allocate(16));
+        assertEquals(10, buffer.remaining());
+        final byte[] read = new byte[10];
+        buffer.get(read);
+        assertArrayEquals(data, read);
+    }
+}